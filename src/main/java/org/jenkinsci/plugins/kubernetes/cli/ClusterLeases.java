@@ -0,0 +1,349 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntSupplier;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+
+/**
+ * Limits how many builds hold a kubeconfig for the same cluster at once.
+ *
+ * Builds wait for a slot in a first-come, first-served queue per cluster,
+ * without holding any thread: acquiring returns a future completed when the
+ * slots are granted. Slots of several clusters are always acquired in the
+ * same order, so that the blocks of different builds using the same clusters
+ * cannot deadlock.
+ *
+ * Slots are held by builds: a block nested in a block of the same build on
+ * the same cluster shares its slot instead of waiting for another one. Blocks
+ * nested on different clusters acquire their slots one block after the other,
+ * so two builds nesting them in opposite orders can still deadlock.
+ */
+public final class ClusterLeases {
+
+    private static final ClusterLeases INSTANCE = new ClusterLeases(
+            () -> KubectlGlobalConfiguration.get().getMaxLeasesPerCluster());
+
+    private final IntSupplier limit;
+
+    // Number of slots held by each build, by cluster, guarded by this
+    private final Map<String, Map<String, Integer>> holders = new HashMap<>();
+    private final Map<String, Deque<Waiter>> waiters = new HashMap<>();
+
+    ClusterLeases(IntSupplier limit) {
+        this.limit = limit;
+    }
+
+    public static ClusterLeases get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the keys of the clusters used by the given credentials.
+     *
+     * @param credentials the credentials
+     * @return the keys, sorted
+     */
+    public static Set<String> keysOf(Collection<KubectlCredential> credentials) {
+        boolean byCredentials = KubectlGlobalConfiguration.get().getLeaseKey() == LeaseKey.CREDENTIALS_ID;
+        Set<String> keys = new TreeSet<>();
+        for (KubectlCredential c : credentials) {
+            String serverUrl = Util.fixEmpty(c.serverUrl);
+            String credentialsId = Util.fixEmpty(c.credentialsId);
+            if (!byCredentials && serverUrl != null) {
+                keys.add(serverUrl);
+            } else if (credentialsId != null) {
+                keys.add(credentialsId);
+            } else {
+                keys.add("in-cluster");
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Acquires a slot for each of the clusters.
+     *
+     * @param keys     keys of the clusters
+     * @param listener receives a message when waiting for a slot
+     * @return a future completed once all the slots are held; cancelling it
+     *         gives up the slots held or waited for
+     */
+    public CompletableFuture<List<Lease>> acquire(@NonNull Collection<String> keys,
+            @CheckForNull TaskListener listener) {
+        return acquire(null, keys, listener);
+    }
+
+    /**
+     * Acquires a slot for each of the clusters, on behalf of a build, sharing
+     * the slots the build already holds.
+     *
+     * @param owner    id of the build, null to never share the slots
+     * @param keys     keys of the clusters
+     * @param listener receives a message when waiting for a slot
+     * @return a future completed once all the slots are held; cancelling it
+     *         gives up the slots held or waited for
+     */
+    public CompletableFuture<List<Lease>> acquire(@CheckForNull String owner, @NonNull Collection<String> keys,
+            @CheckForNull TaskListener listener) {
+        if (limit.getAsInt() <= 0 || keys.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        CompletableFuture<List<Lease>> result = new CompletableFuture<>();
+        // Guarded by itself, together with the completion of the result
+        List<Lease> acquired = new ArrayList<>();
+        acquireNext(owner, new ArrayList<>(new TreeSet<>(keys)), 0, acquired, result, listener);
+        result.whenComplete((leases, error) -> {
+            if (error != null) {
+                List<Lease> toRelease;
+                synchronized (acquired) {
+                    toRelease = new ArrayList<>(acquired);
+                }
+                release(toRelease);
+            }
+        });
+        return result;
+    }
+
+    private void acquireNext(String owner, List<String> keys, int index, List<Lease> acquired,
+            CompletableFuture<List<Lease>> result, TaskListener listener) {
+        if (index == keys.size()) {
+            List<Lease> leases;
+            synchronized (acquired) {
+                leases = new ArrayList<>(acquired);
+            }
+            result.complete(leases);
+            return;
+        }
+        String key = keys.get(index);
+        Lease lease = new Lease(key, UUID.randomUUID().toString(), owner);
+        Waiter waiter = new Waiter(lease);
+        int ahead = 0;
+        synchronized (this) {
+            Map<String, Integer> keyHolders = holders.computeIfAbsent(key, k -> new HashMap<>());
+            Deque<Waiter> queue = waiters.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (keyHolders.containsKey(lease.holder())
+                    || queue.isEmpty() && keyHolders.size() < limit.getAsInt()) {
+                // Shared with the enclosing blocks of the build, even if other builds are waiting
+                keyHolders.merge(lease.holder(), 1, Integer::sum);
+                waiter.granted.complete(lease);
+            } else {
+                ahead = queue.size();
+                queue.addLast(waiter);
+            }
+        }
+        if (!waiter.granted.isDone() && listener != null) {
+            listener.getLogger().println("[kubernetes-cli] waiting for a kubeconfig slot on '" + key + "' ("
+                    + ahead + " build(s) waiting before this one)");
+        }
+
+        // Giving up stops waiting, or releases a slot granted in the meantime
+        result.whenComplete((leases, error) -> {
+            if (error != null && !waiter.granted.complete(null)) {
+                cancel(key, waiter);
+            }
+        });
+        waiter.granted.thenAccept(granted -> {
+            if (granted == null) {
+                cancel(key, waiter);
+                return;
+            }
+            // Released here if given up already, or by the result otherwise, never both
+            boolean givenUp;
+            synchronized (acquired) {
+                givenUp = result.isDone();
+                if (!givenUp) {
+                    acquired.add(granted);
+                }
+            }
+            if (givenUp) {
+                release(Collections.singletonList(granted));
+                return;
+            }
+            acquireNext(owner, keys, index + 1, acquired, result, listener);
+        });
+    }
+
+    private synchronized void cancel(String key, Waiter waiter) {
+        Deque<Waiter> queue = waiters.get(key);
+        if (queue != null) {
+            queue.remove(waiter);
+        }
+    }
+
+    /**
+     * Releases slots, handing them over to the builds waiting for them.
+     *
+     * Unknown slots, such as the ones held before a restart, are ignored.
+     *
+     * @param leases the slots
+     */
+    public void release(@NonNull Collection<Lease> leases) {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            for (Lease lease : leases) {
+                Map<String, Integer> keyHolders = holders.get(lease.key);
+                if (keyHolders == null || !keyHolders.containsKey(lease.holder())) {
+                    continue;
+                }
+                keyHolders.computeIfPresent(lease.holder(), (h, count) -> count > 1 ? count - 1 : null);
+                grantWaiters(lease.key, granted);
+            }
+        }
+        complete(granted);
+    }
+
+    /**
+     * Hands the free slots over to the builds waiting for them, after the
+     * limit was changed.
+     */
+    public void limitChanged() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            for (String key : new ArrayList<>(waiters.keySet())) {
+                grantWaiters(key, granted);
+            }
+        }
+        complete(granted);
+    }
+
+    private void grantWaiters(String key, List<Waiter> granted) {
+        Map<String, Integer> keyHolders = holders.computeIfAbsent(key, k -> new HashMap<>());
+        Deque<Waiter> queue = waiters.get(key);
+        int max = limit.getAsInt();
+        // Without a limit anymore, every waiting build is let through
+        while (queue != null && !queue.isEmpty() && (max <= 0 || keyHolders.size() < max)) {
+            Waiter next = queue.pollFirst();
+            keyHolders.merge(next.lease.holder(), 1, Integer::sum);
+            granted.add(next);
+        }
+        if (keyHolders.isEmpty() && (queue == null || queue.isEmpty())) {
+            holders.remove(key);
+            waiters.remove(key);
+        }
+    }
+
+    private void complete(List<Waiter> granted) {
+        // Completed outside of the lock as it runs the next steps of the waiting builds
+        for (Waiter waiter : granted) {
+            if (!waiter.granted.complete(waiter.lease)) {
+                // Given up in the meantime
+                release(Collections.singletonList(waiter.lease));
+            }
+        }
+    }
+
+    /**
+     * Waits for slots on the calling thread, for callers that cannot wait
+     * asynchronously.
+     *
+     * @param keys     keys of the clusters
+     * @param listener receives a message when waiting for a slot
+     * @return the slots
+     * @throws InterruptedException if interrupted while waiting, in which
+     *                              case no slot is held
+     */
+    public List<Lease> acquireAndWait(@NonNull Collection<String> keys, @CheckForNull TaskListener listener)
+            throws InterruptedException {
+        return acquireAndWait(null, keys, listener);
+    }
+
+    /**
+     * Waits for slots on the calling thread, on behalf of a build.
+     *
+     * @param owner    id of the build, null to never share the slots
+     * @param keys     keys of the clusters
+     * @param listener receives a message when waiting for a slot
+     * @return the slots
+     * @throws InterruptedException if interrupted while waiting, in which
+     *                              case no slot is held
+     */
+    public List<Lease> acquireAndWait(@CheckForNull String owner, @NonNull Collection<String> keys,
+            @CheckForNull TaskListener listener) throws InterruptedException {
+        CompletableFuture<List<Lease>> future = acquire(owner, keys, listener);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException | CancellationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized int holders(String key) {
+        Map<String, Integer> keyHolders = holders.get(key);
+        return keyHolders == null ? 0 : keyHolders.size();
+    }
+
+    synchronized int waiting(String key) {
+        Deque<Waiter> queue = waiters.get(key);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * What the clusters are identified by.
+     */
+    public enum LeaseKey {
+        SERVER_URL, CREDENTIALS_ID
+    }
+
+    /**
+     * A slot held on a cluster.
+     */
+    public static final class Lease implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String id;
+        // Build sharing the slot, null if not shared or serialized by older versions
+        private final String owner;
+
+        Lease(String key, String id) {
+            this(key, id, null);
+        }
+
+        Lease(String key, String id, String owner) {
+            this.key = key;
+            this.id = id;
+            this.owner = owner;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        String holder() {
+            return owner != null ? owner : id;
+        }
+    }
+
+    private static final class Waiter {
+        private final Lease lease;
+        // Completed with the lease once granted, or with null once given up
+        private final CompletableFuture<Lease> granted = new CompletableFuture<>();
+
+        Waiter(Lease lease) {
+            this.lease = lease;
+        }
+    }
+}
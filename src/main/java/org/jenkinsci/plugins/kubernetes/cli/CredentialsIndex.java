@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsNameProvider;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import hudson.Util;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+
+/**
+ * Immutable index of the supported credentials visible from an item, holding
+ * only what the configuration pages need: the id, the display name, the
+ * description and the type of each credential.
+ */
+final class CredentialsIndex {
+
+    private final List<Entry> entries;
+
+    CredentialsIndex(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing((Entry e) -> e.normalizedName).thenComparing(e -> e.id));
+        this.entries = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Lists the supported credentials visible from an item.
+     *
+     * @param item      the item, or null for the credentials of Jenkins itself
+     * @param serverUrl URL of the server the credentials are for
+     * @return the index
+     */
+    static CredentialsIndex build(@CheckForNull Item item, @CheckForNull String serverUrl) {
+        List<DomainRequirement> requirements = URIRequirementBuilder.fromUri(serverUrl).build();
+        List<StandardCredentials> credentials = item == null
+                ? CredentialsProvider.lookupCredentialsInItemGroup(StandardCredentials.class, Jenkins.get(),
+                        ACL.SYSTEM2, requirements)
+                : CredentialsProvider.lookupCredentialsInItem(StandardCredentials.class, item, ACL.SYSTEM2,
+                        requirements);
+
+        List<Entry> entries = new ArrayList<>();
+        for (StandardCredentials c : CredentialsMatchers.filter(credentials,
+                CredentialsLister.supportedCredentials)) {
+            entries.add(new Entry(c.getId(), CredentialsNameProvider.name(c), c.getDescription(),
+                    c.getDescriptor().getDisplayName()));
+        }
+        return new CredentialsIndex(entries);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Builds the options of a dropdown.
+     *
+     * @param limit        maximum number of credentials listed, negative for all
+     * @param currentValue id of the selected credentials, always listed
+     * @return a new list, which callers may modify
+     */
+    ListBoxModel toListBoxModel(int limit, @CheckForNull String currentValue) {
+        StandardListBoxModel model = new StandardListBoxModel();
+        model.includeEmptyValue();
+        boolean currentListed = Util.fixEmpty(currentValue) == null;
+        int count = 0;
+        for (Entry entry : entries) {
+            if (limit >= 0 && count >= limit) {
+                break;
+            }
+            model.add(entry.name, entry.id);
+            currentListed |= entry.id.equals(currentValue);
+            count++;
+        }
+        if (!currentListed) {
+            entries.stream().filter(e -> e.id.equals(currentValue)).findFirst()
+                    .ifPresent(e -> model.add(e.name, e.id));
+        }
+        return model;
+    }
+
+    /**
+     * Returns a page of the credentials whose id, name or description starts
+     * with the given prefix, ignoring the case.
+     *
+     * @param prefix the prefix, empty or null to match everything
+     * @param start  index of the first match returned
+     * @param limit  maximum number of matches returned
+     * @return the page
+     */
+    Page search(@CheckForNull String prefix, int start, int limit) {
+        String normalizedPrefix = normalize(prefix);
+        List<Entry> matches = new ArrayList<>();
+        int total = 0;
+        for (Entry entry : entries) {
+            if (!entry.matches(normalizedPrefix)) {
+                continue;
+            }
+            if (total >= start && matches.size() < limit) {
+                matches.add(entry);
+            }
+            total++;
+        }
+        return new Page(total, Collections.unmodifiableList(matches));
+    }
+
+    private static String normalize(@CheckForNull String value) {
+        return Util.fixNull(value).trim().toLowerCase(Locale.ROOT);
+    }
+
+    static final class Entry {
+        final String id;
+        final String name;
+        final String description;
+        final String type;
+
+        private final String normalizedId;
+        private final String normalizedName;
+        private final String normalizedDescription;
+
+        Entry(String id, String name, @CheckForNull String description, String type) {
+            this.id = id;
+            this.name = name;
+            this.description = Util.fixNull(description);
+            this.type = type;
+            this.normalizedId = normalize(id);
+            this.normalizedName = normalize(name);
+            this.normalizedDescription = normalize(description);
+        }
+
+        boolean matches(String normalizedPrefix) {
+            return normalizedId.startsWith(normalizedPrefix)
+                    || normalizedName.startsWith(normalizedPrefix)
+                    || normalizedDescription.startsWith(normalizedPrefix);
+        }
+    }
+
+    static final class Page {
+        final int total;
+        final List<Entry> entries;
+
+        Page(int total, List<Entry> entries) {
+            this.total = total;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import jenkins.util.SystemProperties;
+
+/**
+ * Cache of the credentials listed in the configuration pages, so that the
+ * credentials stores are not walked every time a page is opened or a search
+ * is typed.
+ *
+ * Entries are dropped whenever a credentials store may have changed, and
+ * expire after a short time for the stores whose changes cannot be observed.
+ */
+final class CredentialsListCache {
+
+    static final long TTL_MS = SystemProperties.getLong(CredentialsListCache.class.getName() + ".ttlMillis",
+            60_000L);
+
+    private static final CredentialsListCache INSTANCE = new CredentialsListCache();
+
+    // Lists per server for each item, weak so that deleted or reloaded items are dropped
+    private final Map<Object, Map<String, Entry>> entries = Collections.synchronizedMap(new WeakHashMap<>());
+
+    CredentialsListCache() {
+    }
+
+    static CredentialsListCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached index, computing it if missing or expired.
+     *
+     * @param owner  item or item group the index is computed for
+     * @param key    key of the index for this owner
+     * @param loader computes the index
+     * @return the index
+     */
+    CredentialsIndex get(Object owner, String key, Supplier<CredentialsIndex> loader) {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> ownerEntries = entries.computeIfAbsent(owner, o -> new ConcurrentHashMap<>());
+        Entry entry = ownerEntries.get(key);
+        if (entry == null || now >= entry.expiresAt) {
+            entry = new Entry(loader.get(), now + TTL_MS);
+            if (TTL_MS > 0) {
+                ownerEntries.put(key, entry);
+            }
+        }
+        return entry.index;
+    }
+
+    void invalidateAll() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+        final CredentialsIndex index;
+        final long expiresAt;
+
+        Entry(CredentialsIndex index, long expiresAt) {
+            this.index = index;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Drops the cached lists when a credentials store is saved: the global one,
+     * the ones of folders, or the ones of users.
+     */
+    @Extension
+    public static class InvalidationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider || o instanceof ItemGroup || o instanceof User) {
+                get().invalidateAll();
+            }
+        }
+    }
+}
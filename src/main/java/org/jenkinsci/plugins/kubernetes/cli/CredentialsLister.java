@@ -3,22 +3,23 @@ package org.jenkinsci.plugins.kubernetes.cli;
 import com.cloudbees.plugins.credentials.CredentialsMatcher;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
-import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
 import org.jenkinsci.plugins.plaincredentials.FileCredentials;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import hudson.model.Item;
-import hudson.security.ACL;
+import hudson.util.HttpResponses;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 
 public abstract class CredentialsLister {
 
@@ -30,21 +31,70 @@ public abstract class CredentialsLister {
             CredentialsMatchers.instanceOf(StandardCertificateCredentials.class),
             CredentialsMatchers.instanceOf(FileCredentials.class));
 
+    // Number of credentials returned by default by a search
+    static final int PAGE_SIZE = 50;
+
+    // Maximum number of credentials returned by a search
+    static final int MAX_PAGE_SIZE = 500;
+
     @RequirePOST
     public static ListBoxModel doFillCredentialsIdItems(@NonNull @AncestorInPath Item item,
             @QueryParameter String serverUrl, @QueryParameter String credentialsId) {
-        if (item == null
-                ? !Jenkins.get().hasPermission(Jenkins.ADMINISTER)
-                : !item.hasPermission(Item.EXTENDED_READ)) {
+        return doFillCredentialsIdItems(item, serverUrl, credentialsId, -1);
+    }
+
+    /**
+     * Lists the first credentials of the dropdown, the others being looked up
+     * with {@link #doSearchCredentials}. The current value is always listed.
+     */
+    public static ListBoxModel doFillCredentialsIdItems(Item item, String serverUrl, String credentialsId,
+            int limit) {
+        if (!canList(item)) {
             return new StandardListBoxModel().includeCurrentValue(credentialsId);
         }
-        return new StandardListBoxModel()
-                .includeEmptyValue()
-                .includeMatchingAs(
-                        ACL.SYSTEM2,
-                        item,
-                        StandardCredentials.class,
-                        URIRequirementBuilder.fromUri(serverUrl).build(),
-                        CredentialsLister.supportedCredentials);
+        return index(item, serverUrl).toListBoxModel(limit, credentialsId);
+    }
+
+    /**
+     * Returns a page of the credentials whose id, name or description starts
+     * with the query, as {@code {"total": n, "credentials": [{"id", "name",
+     * "description", "type"}]}}.
+     */
+    @RequirePOST
+    public static HttpResponse doSearchCredentials(@AncestorInPath Item item, @QueryParameter String serverUrl,
+            @QueryParameter String query, @QueryParameter int start, @QueryParameter int limit) {
+        JSONObject result = new JSONObject();
+        JSONArray credentials = new JSONArray();
+        int total = 0;
+        if (canList(item)) {
+            CredentialsIndex.Page page = index(item, serverUrl).search(query, Math.max(start, 0),
+                    limit <= 0 ? PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE));
+            total = page.total;
+            for (CredentialsIndex.Entry entry : page.entries) {
+                JSONObject c = new JSONObject();
+                c.put("id", entry.id);
+                c.put("name", entry.name);
+                c.put("description", entry.description);
+                c.put("type", entry.type);
+                credentials.add(c);
+            }
+        }
+        result.put("total", total);
+        result.put("credentials", credentials);
+        return HttpResponses.okJSON(result);
+    }
+
+    private static boolean canList(Item item) {
+        return item == null
+                ? Jenkins.get().hasPermission(Jenkins.ADMINISTER)
+                : item.hasPermission(Item.EXTENDED_READ);
+    }
+
+    private static CredentialsIndex index(Item item, String serverUrl) {
+        // Listed as SYSTEM once the permission is checked, so the result only
+        // depends on the item and the server
+        Object owner = item == null ? Jenkins.get() : item;
+        return CredentialsListCache.get().get(owner, String.valueOf(serverUrl),
+                () -> CredentialsIndex.build(item, serverUrl));
     }
 }
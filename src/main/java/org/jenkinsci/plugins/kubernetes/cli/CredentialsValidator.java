@@ -0,0 +1,287 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.CredentialsFingerprint;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriter;
+
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.NamedCluster;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.VersionInfo;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import jenkins.util.SystemProperties;
+
+/**
+ * Checks that credentials can be used against their cluster: that they exist,
+ * that they can be converted into a kubeconfig, and that the API server
+ * answers a {@code /version} call with them.
+ *
+ * The credentials are checked in parallel, and the results are cached for a
+ * while, keyed by the content of the credentials.
+ */
+public final class CredentialsValidator {
+
+    static final long TTL_SECONDS = SystemProperties.getLong(CredentialsValidator.class.getName() + ".ttlSeconds",
+            300L);
+
+    static final long FAILURE_TTL_SECONDS = SystemProperties.getLong(
+            CredentialsValidator.class.getName() + ".failureTtlSeconds", 30L);
+
+    static final int PARALLELISM = SystemProperties.getInteger(CredentialsValidator.class.getName() + ".parallelism",
+            16);
+
+    static final int TIMEOUT_MS = SystemProperties.getInteger(CredentialsValidator.class.getName() + ".timeoutMillis",
+            10_000);
+
+    private static final CredentialsValidator INSTANCE = new CredentialsValidator(Clock.systemUTC(),
+            newExecutor(PARALLELISM));
+
+    private final Clock clock;
+    private final ExecutorService executor;
+    private final Map<List<String>, Result> results = new ConcurrentHashMap<>();
+
+    CredentialsValidator(Clock clock, ExecutorService executor) {
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    public static CredentialsValidator get() {
+        return INSTANCE;
+    }
+
+    private static ExecutorService newExecutor(int parallelism) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "kubernetes-cli credentials validation"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Validates credentials in parallel.
+     *
+     * @param targets  the credentials and the servers they are used against
+     * @param resolver looks up credentials by id, returning null if missing
+     * @return the results, in the order of the targets
+     * @throws InterruptedException if interrupted while waiting for the results
+     */
+    public List<Result> validate(@NonNull List<KubectlCredential> targets,
+            @NonNull Function<String, StandardCredentials> resolver) throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>(targets.size());
+        for (KubectlCredential target : targets) {
+            // Resolved on the calling thread, which carries the authentication
+            StandardCredentials credentials = Util.fixEmpty(target.credentialsId) == null
+                    ? null
+                    : resolver.apply(target.credentialsId);
+            futures.add(executor.submit(() -> validate(target, credentials)));
+        }
+
+        List<Result> validated = new ArrayList<>(targets.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    validated.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    validated.add(Result.failure(targets.get(i), Stage.CONNECT,
+                            String.valueOf(e.getCause().getMessage()), Duration.ZERO));
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return validated;
+    }
+
+    /**
+     * Validates a single credential, serving the result from the cache if
+     * the same content was checked against the same server recently.
+     */
+    Result validate(KubectlCredential target, @CheckForNull StandardCredentials credentials) {
+        if (credentials == null) {
+            return Result.failure(target, Stage.RESOLVE,
+                    "unable to find credentials with id '" + target.credentialsId + "'", Duration.ZERO);
+        }
+
+        String fingerprint;
+        try {
+            fingerprint = CredentialsFingerprint.of(credentials);
+        } catch (IOException e) {
+            return Result.failure(target, Stage.CONVERT, e.getMessage(), Duration.ZERO);
+        }
+
+        List<String> key = Arrays.asList(target.credentialsId, fingerprint, target.serverUrl,
+                target.caCertificate);
+        Instant now = clock.instant();
+        Result cached = results.get(key);
+        if (cached != null && now.isBefore(cached.expiresAt)) {
+            return cached;
+        }
+
+        Result result = check(target, credentials);
+        result.expiresAt = now.plusSeconds(result.isValid() ? TTL_SECONDS : FAILURE_TTL_SECONDS);
+        results.put(key, result);
+        // Expired entries are only dropped when checked again, drop them all from time to time
+        if (results.size() > 1024) {
+            results.values().removeIf(r -> !now.isBefore(r.expiresAt));
+        }
+        return result;
+    }
+
+    private Result check(KubectlCredential target, StandardCredentials credentials) {
+        Instant start = clock.instant();
+
+        Config config;
+        try {
+            config = new KubeConfigWriter(Util.fixNull(target.serverUrl), target.credentialsId,
+                    target.caCertificate, null, null, null, null, null, null, null).buildConfig(credentials);
+        } catch (IOException e) {
+            return Result.failure(target, Stage.CONVERT, e.getMessage(), Duration.between(start, clock.instant()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.failure(target, Stage.CONVERT, "interrupted", Duration.between(start, clock.instant()));
+        }
+
+        if (Util.fixEmpty(currentServer(config)) == null) {
+            // Nothing to connect to, the conversion is all that can be checked
+            return new Result(target, null, "no server to connect to", null,
+                    Duration.between(start, clock.instant()));
+        }
+
+        io.fabric8.kubernetes.client.Config clientConfig = io.fabric8.kubernetes.client.Config
+                .fromKubeconfig(Serialization.asYaml(config));
+        clientConfig.setConnectionTimeout(TIMEOUT_MS);
+        clientConfig.setRequestTimeout(TIMEOUT_MS);
+        clientConfig.setRequestRetryBackoffLimit(0);
+        try (KubernetesClient client = new KubernetesClientBuilder().withConfig(clientConfig).build()) {
+            VersionInfo version = client.getKubernetesVersion();
+            return new Result(target, null, null, version.getGitVersion(), Duration.between(start, clock.instant()));
+        } catch (KubernetesClientException e) {
+            String message = e.getCause() != null && e.getCause().getMessage() != null
+                    ? e.getCause().getMessage()
+                    : e.getMessage();
+            return Result.failure(target, Stage.CONNECT, message, Duration.between(start, clock.instant()));
+        }
+    }
+
+    private static String currentServer(Config config) {
+        if (config.getContexts() == null || config.getClusters() == null) {
+            return null;
+        }
+        String cluster = config.getContexts().stream()
+                .filter(c -> c.getName().equals(config.getCurrentContext()) && c.getContext() != null)
+                .map(NamedContext::getContext)
+                .map(c -> c.getCluster())
+                .findFirst().orElse(null);
+        return config.getClusters().stream()
+                .filter(c -> c.getName().equals(cluster) && c.getCluster() != null)
+                .map(NamedCluster::getCluster)
+                .map(c -> c.getServer())
+                .findFirst().orElse(null);
+    }
+
+    void invalidateAll() {
+        results.clear();
+    }
+
+    /**
+     * Step at which a validation failed.
+     */
+    public enum Stage {
+        RESOLVE, CONVERT, CONNECT
+    }
+
+    /**
+     * Outcome of the validation of a single credential.
+     */
+    public static final class Result {
+        private final String credentialsId;
+        private final String serverUrl;
+        private final Stage failedStage;
+        private final String message;
+        private final String serverVersion;
+        private final Duration duration;
+        private volatile Instant expiresAt = Instant.MIN;
+
+        Result(KubectlCredential target, @CheckForNull Stage failedStage, @CheckForNull String message,
+                @CheckForNull String serverVersion, Duration duration) {
+            this.credentialsId = target.credentialsId;
+            this.serverUrl = target.serverUrl;
+            this.failedStage = failedStage;
+            this.message = message;
+            this.serverVersion = serverVersion;
+            this.duration = duration;
+        }
+
+        static Result failure(KubectlCredential target, Stage stage, String message, Duration duration) {
+            return new Result(target, stage, message, null, duration);
+        }
+
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        public String getServerUrl() {
+            return serverUrl;
+        }
+
+        public boolean isValid() {
+            return failedStage == null;
+        }
+
+        @CheckForNull
+        public Stage getFailedStage() {
+            return failedStage;
+        }
+
+        @CheckForNull
+        public String getMessage() {
+            return message;
+        }
+
+        @CheckForNull
+        public String getServerVersion() {
+            return serverVersion;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            String target = "'" + credentialsId + "'"
+                    + (Util.fixEmpty(serverUrl) == null ? "" : " against " + serverUrl);
+            if (!isValid()) {
+                return target + ": " + failedStage.name().toLowerCase(Locale.ROOT) + " failed: " + message;
+            }
+            return target + ": ok" + (serverVersion == null ? " (" + message + ")" : " (" + serverVersion + ")");
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Keeps snapshots of the kubectl cache directories on the controller, so that
+ * builds on short-lived agents start with a warm discovery cache.
+ *
+ * A snapshot is unpacked into the {@link KubectlCacheDirectory} of the agent
+ * when the kubeconfig is set up, and the directory is packed back once the
+ * body completes if kubectl refreshed it. Snapshots are versioned by a
+ * generation number and record the versions of the Kubernetes API servers
+ * they were taken against: they are discarded as soon as a server reports
+ * another version, and after a maximum age.
+ *
+ * As a snapshot taken on one agent is restored on the others, it only keeps
+ * the discovery documents, and is checked on the controller before it is
+ * kept: only regular files holding Kubernetes API lists are accepted.
+ */
+public final class DiscoverySnapshots {
+    private static final Logger LOGGER = Logger.getLogger(DiscoverySnapshots.class.getName());
+
+    static final long MAX_SIZE_MB = SystemProperties.getLong(DiscoverySnapshots.class.getName() + ".maxSizeMb", 64L);
+
+    static final long MAX_AGE_HOURS = SystemProperties.getLong(DiscoverySnapshots.class.getName() + ".maxAgeHours",
+            24L);
+
+    // A snapshot is not replaced more often than this, unless the servers were upgraded
+    static final long MIN_HARVEST_INTERVAL_MINUTES = SystemProperties.getLong(
+            DiscoverySnapshots.class.getName() + ".minHarvestIntervalMinutes", 10L);
+
+    // Generation of the snapshot unpacked in a cache directory
+    static final String MARKER = ".jenkins-snapshot";
+
+    // Files kept in the snapshots, the HTTP cache of kubectl is left on the agents
+    static final String INCLUDES = "discovery/**/*.json";
+
+    private static final Pattern ENTRY = Pattern.compile("discovery(/[A-Za-z0-9_.:-]+)+\\.json");
+
+    private static final DiscoverySnapshots INSTANCE = new DiscoverySnapshots();
+
+    DiscoverySnapshots() {
+    }
+
+    public static DiscoverySnapshots get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Unpacks the snapshot of a cache directory, if there is an up-to-date one.
+     *
+     * @param build    the build using the directory
+     * @param cacheDir the cache directory on the agent
+     * @param targets  the credentials the directory is used with
+     * @param listener receives a message when a snapshot is unpacked
+     * @return what to harvest once the body completes, or null if the
+     *         snapshots are disabled or the servers cannot be reached
+     * @throws IOException          if the snapshot cannot be unpacked
+     * @throws InterruptedException if interrupted
+     */
+    @CheckForNull
+    public Harvest restore(@NonNull Run<?, ?> build, @NonNull FilePath cacheDir,
+            @NonNull List<KubectlCredential> targets, @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!KubectlGlobalConfiguration.get().isShareDiscoverySnapshots()) {
+            return null;
+        }
+        String versions = serverVersions(build, targets);
+        if (versions == null) {
+            return null;
+        }
+
+        String key = cacheDir.getName();
+        Snapshot snapshot = read(key);
+        if (snapshot == null || !snapshot.available) {
+            return new Harvest(key, cacheDir.getRemote(), versions);
+        }
+        if (!snapshot.isValid(versions, System.currentTimeMillis())) {
+            discard(key, snapshot);
+        } else if (!String.valueOf(snapshot.generation).equals(readMarker(cacheDir))) {
+            try (InputStream in = Files.newInputStream(archive(key).toPath())) {
+                cacheDir.untarFrom(in, FilePath.TarCompression.GZIP);
+            }
+            cacheDir.child(MARKER).write(String.valueOf(snapshot.generation), StandardCharsets.UTF_8.name());
+            listener.getLogger().println("[kubernetes-cli] restored the kubectl discovery cache (snapshot "
+                    + snapshot.generation + ")");
+        }
+        return new Harvest(key, cacheDir.getRemote(), versions);
+    }
+
+    /**
+     * Packs a cache directory back into a snapshot, if kubectl updated it.
+     *
+     * @param workspace the workspace, on the agent of the cache directory
+     * @param harvest   returned when the snapshot was restored
+     * @return whether a new snapshot was taken
+     * @throws IOException          if the directory cannot be packed
+     * @throws InterruptedException if interrupted
+     */
+    public boolean harvest(@NonNull FilePath workspace, @NonNull Harvest harvest)
+            throws IOException, InterruptedException {
+        Snapshot current = read(harvest.key);
+        long now = System.currentTimeMillis();
+        if (current != null && current.available && current.versions.equals(harvest.versions)
+                && now - current.created < TimeUnit.MINUTES.toMillis(MIN_HARVEST_INTERVAL_MINUTES)) {
+            return false;
+        }
+
+        FilePath cacheDir = new FilePath(workspace.getChannel(), harvest.path);
+        if (!cacheDir.act(new HasChanges(MAX_SIZE_MB * 1024 * 1024))) {
+            return false;
+        }
+
+        File dir = directory();
+        Files.createDirectories(dir.toPath());
+        File packed = File.createTempFile(harvest.key, ".tmp", dir);
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(packed.toPath()))) {
+                cacheDir.tar(out, new DirScanner.Glob(INCLUDES, MARKER));
+            }
+            validate(packed);
+            Snapshot snapshot;
+            synchronized (this) {
+                Snapshot previous = read(harvest.key);
+                snapshot = new Snapshot(previous == null ? 1 : previous.generation + 1, harvest.versions, now, true);
+                Files.move(packed.toPath(), archive(harvest.key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                write(harvest.key, snapshot);
+            }
+            // The agent already has the content of the new snapshot
+            cacheDir.child(MARKER).write(String.valueOf(snapshot.generation), StandardCharsets.UTF_8.name());
+            return true;
+        } finally {
+            Files.deleteIfExists(packed.toPath());
+        }
+    }
+
+    /**
+     * Checks that a snapshot packed on an agent only holds discovery
+     * documents, before it can be restored on other agents.
+     *
+     * @throws IOException if an entry is not a regular file named like a
+     *                     discovery document, or does not hold an API list
+     */
+    static void validate(File packed) throws IOException {
+        try (TarArchiveInputStream in = new TarArchiveInputStream(
+                new GZIPInputStream(Files.newInputStream(packed.toPath())))) {
+            TarArchiveEntry entry;
+            while ((entry = in.getNextTarEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (!entry.isFile() || entry.isLink() || entry.isSymbolicLink() || !ENTRY.matcher(name).matches()
+                        || name.contains("..")) {
+                    throw new IOException("unexpected entry " + name + " in the discovery cache");
+                }
+                String kind;
+                try {
+                    kind = JSONObject.fromObject(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+                            .optString("kind");
+                } catch (JSONException e) {
+                    throw new IOException("invalid discovery document " + name, e);
+                }
+                if (!kind.startsWith("API") || !kind.endsWith("List")) {
+                    throw new IOException("unexpected kind '" + kind + "' in the discovery document " + name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the versions of the API servers, or null if one of them cannot
+     * be reached from the controller. They are cached by the validator.
+     */
+    @CheckForNull
+    private static String serverVersions(Run<?, ?> build, List<KubectlCredential> targets)
+            throws InterruptedException {
+        List<CredentialsValidator.Result> results = CredentialsValidator.get().validate(targets,
+                id -> CredentialsProvider.findCredentialById(id, StandardCredentials.class, build,
+                        Collections.emptyList()));
+        TreeSet<String> versions = new TreeSet<>();
+        for (CredentialsValidator.Result result : results) {
+            if (!result.isValid() || result.getServerVersion() == null) {
+                LOGGER.log(Level.FINE, "Not sharing the discovery cache: {0}", result);
+                return null;
+            }
+            versions.add(Util.fixNull(result.getServerUrl()) + "=" + result.getServerVersion());
+        }
+        return String.join(",", versions);
+    }
+
+    private static String readMarker(FilePath cacheDir) throws IOException, InterruptedException {
+        FilePath marker = cacheDir.child(MARKER);
+        return marker.exists() ? marker.readToString().trim() : null;
+    }
+
+    private static File directory() {
+        return new File(Jenkins.get().getRootDir(), "kubernetes-cli/discovery");
+    }
+
+    private static File archive(String key) {
+        return new File(directory(), key + ".tgz");
+    }
+
+    private static File metadata(String key) {
+        return new File(directory(), key + ".properties");
+    }
+
+    @CheckForNull
+    synchronized Snapshot read(String key) {
+        File file = metadata(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            // Snapshots saved before they were validated are not restored
+            return new Snapshot(Long.parseLong(properties.getProperty("generation")),
+                    properties.getProperty("versions"), Long.parseLong(properties.getProperty("created")),
+                    archive(key).isFile() && Boolean.parseBoolean(properties.getProperty("validated")));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the discovery snapshot " + key, e);
+            return null;
+        }
+    }
+
+    private synchronized void write(String key, Snapshot snapshot) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("generation", String.valueOf(snapshot.generation));
+        properties.setProperty("versions", snapshot.versions);
+        properties.setProperty("created", String.valueOf(snapshot.created));
+        properties.setProperty("validated", "true");
+        File file = metadata(key);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void discard(String key, Snapshot snapshot) throws IOException {
+        Snapshot current = read(key);
+        // Replaced in the meantime
+        if (current == null || current.generation != snapshot.generation) {
+            return;
+        }
+        // The generation is kept, so that agents never mistake a new snapshot for an old one
+        Files.deleteIfExists(archive(key).toPath());
+    }
+
+    static final class Snapshot {
+        final long generation;
+        final String versions;
+        final long created;
+        // Whether the archive is still there, discarded snapshots only keep their generation
+        final boolean available;
+
+        Snapshot(long generation, String versions, long created, boolean available) {
+            this.generation = generation;
+            this.versions = versions;
+            this.created = created;
+            this.available = available;
+        }
+
+        boolean isValid(String currentVersions, long now) {
+            return versions.equals(currentVersions) && now - created < TimeUnit.HOURS.toMillis(MAX_AGE_HOURS);
+        }
+    }
+
+    /**
+     * A cache directory to pack once the body completes.
+     */
+    public static final class Harvest implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String path;
+        private final String versions;
+
+        Harvest(String key, String path, String versions) {
+            this.key = key;
+            this.path = path;
+            this.versions = versions;
+        }
+    }
+
+    /**
+     * Checks whether kubectl wrote files in a cache directory since its
+     * snapshot was unpacked, and whether it is small enough to be packed.
+     */
+    private static final class HasChanges extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final long maxBytes;
+
+        HasChanges(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Boolean invoke(File dir, VirtualChannel channel) throws IOException {
+            File marker = new File(dir, MARKER);
+            long since = marker.isFile() ? marker.lastModified() : 0;
+            boolean[] changed = {false};
+            long[] size = {0};
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    if (attrs.lastModifiedTime().toMillis() > since && !file.endsWith(MARKER)) {
+                        changed[0] = true;
+                    }
+                    return size[0] > maxBytes ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return changed[0] && size[0] <= maxBytes;
+        }
+    }
+}
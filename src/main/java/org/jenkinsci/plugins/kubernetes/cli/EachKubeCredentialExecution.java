@@ -0,0 +1,417 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.workflow.actions.WarningAction;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.springframework.security.core.Authentication;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+/**
+ * Runs the body once per credential. Each branch writes its kubeconfig on the
+ * setup executor of {@link GenericBuildStep}, then runs the body with it, and
+ * the next branch is started whenever one completes.
+ *
+ * The step returns the status of each branch ({@code SUCCESS},
+ * {@code FAILURE} or {@code NOT_BUILT}) by branch name. Without failFast, it
+ * still returns them when branches failed, and marks the build as unstable.
+ */
+public class EachKubeCredentialExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+
+    // Variables set in each branch, in addition to KUBECONFIG
+    public static final String CREDENTIALS_ID_VARIABLE = "KUBE_CREDENTIALS_ID";
+    public static final String SERVER_URL_VARIABLE = "KUBE_SERVER_URL";
+
+    private final List<Branch> branches;
+    private final int maxParallel;
+    private final boolean failFast;
+    private final Boolean restrictKubeConfigAccess;
+
+    // Guarded by this
+    private int running;
+    private boolean aborted;
+    private boolean completed;
+    private Throwable firstFailure;
+
+    // Setups and bodies in progress, guarded by this
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient Map<Integer, Future<?>> setups = new HashMap<>();
+    // Setups that left the queue of the executor, guarded by this
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient Set<Integer> startedSetups = new HashSet<>();
+    // Bodies in progress, kept across a restart so that failFast can cancel them, guarded by this
+    private HashMap<Integer, BodyExecution> bodies = new HashMap<>();
+
+    EachKubeCredentialExecution(List<KubectlCredential> credentials, int maxParallel, boolean failFast,
+            Boolean restrictKubeConfigAccess, StepContext context) {
+        super(context);
+        this.maxParallel = maxParallel;
+        this.failFast = failFast;
+        this.restrictKubeConfigAccess = restrictKubeConfigAccess;
+
+        this.branches = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (KubectlCredential credential : credentials) {
+            String name = Util.fixEmpty(credential.contextName) != null ? credential.contextName
+                    : Util.fixEmpty(credential.credentialsId) != null ? credential.credentialsId : "in-cluster";
+            String unique = name;
+            for (int i = 2; !names.add(unique); i++) {
+                unique = name + "#" + i;
+            }
+            branches.add(new Branch(unique, credential));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean start() throws Exception {
+        launchBranches(Jenkins.getAuthentication2());
+        return false;
+    }
+
+    /**
+     * Starts the setup of pending branches, up to the maximum allowed.
+     */
+    private synchronized void launchBranches(Authentication auth) {
+        for (int i = 0; i < branches.size() && running < maxParallel && !aborted; i++) {
+            Branch branch = branches.get(i);
+            if (branch.status != Status.PENDING) {
+                continue;
+            }
+            branch.status = Status.SETTING_UP;
+            running++;
+            final int index = i;
+            setups.put(index, GenericBuildStep.SETUP_EXECUTOR.submit(() -> {
+                try (ACLContext ignored = ACL.as2(auth)) {
+                    setUp(index, auth);
+                }
+            }));
+        }
+    }
+
+    private void setUp(int index, Authentication auth) {
+        Branch branch = branches.get(index);
+        boolean skipped;
+        synchronized (this) {
+            // Still queued when a branch failed
+            skipped = aborted;
+            if (skipped) {
+                branch.cancelled = true;
+            } else {
+                startedSetups.add(index);
+            }
+        }
+        if (skipped) {
+            branchFinished(index, Status.NOT_BUILT, null, auth);
+            return;
+        }
+        List<String> configFiles = new ArrayList<>();
+        try {
+            GenericBuildStep.writeKubeConfigs(Collections.singletonList(branch.toCredential()),
+                    restrictKubeConfigAccess, getContext(), configFiles);
+
+            Map<String, String> variables = new HashMap<>();
+            variables.put(CREDENTIALS_ID_VARIABLE, Util.fixNull(branch.credentialsId));
+            variables.put(SERVER_URL_VARIABLE, Util.fixNull(branch.serverUrl));
+            String cacheDir = KubectlCacheDirectory.prepare(getContext().get(FilePath.class),
+                    Collections.singletonList(branch.toCredential()));
+            if (cacheDir != null) {
+                variables.put(KubectlCacheDirectory.ENV_VARIABLE_NAME, cacheDir);
+            }
+            EnvironmentExpander envExpander = EnvironmentExpander.merge(
+                    getContext().get(EnvironmentExpander.class),
+                    new KubeConfigExpander(String.join(File.pathSeparator, configFiles), variables));
+
+            synchronized (this) {
+                setups.remove(index);
+                startedSetups.remove(index);
+                if (!aborted) {
+                    branch.status = Status.RUNNING;
+                    bodies.put(index, getContext().newBodyInvoker()
+                            .withContext(envExpander)
+                            .withDisplayName(branch.name)
+                            .withCallback(new BranchCallback(this, index, configFiles, auth))
+                            .start());
+                    return;
+                }
+            }
+            GenericBuildStep.deleteKubeConfigs(getContext(), configFiles);
+            branchFinished(index, Status.NOT_BUILT, null, auth);
+        } catch (Throwable t) {
+            // Interrupted by stop() or failFast, clear the flag to be able to clean up
+            Thread.interrupted();
+            GenericBuildStep.deleteKubeConfigs(getContext(), configFiles);
+            branchFinished(index, Status.FAILURE, t, auth);
+        }
+    }
+
+    private void branchFinished(int index, Status status, Throwable failure, Authentication auth) {
+        Branch branch = branches.get(index);
+        List<BodyExecution> toCancel = new ArrayList<>();
+        boolean complete;
+        synchronized (this) {
+            setups.remove(index);
+            startedSetups.remove(index);
+            bodies.remove(index);
+            if (branch.cancelled) {
+                // Stopped because another branch failed
+                status = Status.NOT_BUILT;
+                failure = null;
+            }
+            branch.status = status;
+            running--;
+            if (failure != null) {
+                if (firstFailure == null) {
+                    firstFailure = failure;
+                }
+                if (failFast && !aborted) {
+                    aborted = true;
+                    toCancel.addAll(cancelRunning());
+                }
+            }
+            complete = running == 0 && (aborted || branches.stream().noneMatch(b -> b.status == Status.PENDING));
+            if (complete) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+            }
+        }
+        log("[kubernetes-cli] " + branch.name + ": " + status
+                + (failure == null ? "" : " (" + failure.getMessage() + ")"));
+        for (BodyExecution body : toCancel) {
+            body.cancel(new AbortException("[kubernetes-cli] stopped as " + branch.name + " failed"));
+        }
+
+        if (!complete) {
+            launchBranches(auth);
+            return;
+        }
+
+        Map<String, String> results = new LinkedHashMap<>();
+        List<String> failed = new ArrayList<>();
+        for (Branch b : branches) {
+            results.put(b.name, (b.status == Status.PENDING ? Status.NOT_BUILT : b.status).name());
+            if (b.status == Status.FAILURE) {
+                failed.add(b.name);
+            }
+        }
+        if (aborted && firstFailure != null) {
+            getContext().onFailure(firstFailure);
+            return;
+        }
+        if (!failed.isEmpty()) {
+            try {
+                markUnstable(failed);
+            } catch (Exception e) {
+                getContext().onFailure(e);
+                return;
+            }
+        }
+        getContext().onSuccess(results);
+    }
+
+    /**
+     * Marks the step and the build as unstable, as the failures of the bodies
+     * are only reported in the returned results without failFast.
+     */
+    private void markUnstable(List<String> failed) throws IOException, InterruptedException {
+        String message = "[kubernetes-cli] " + failed.size() + " of " + branches.size() + " bodies failed: "
+                + String.join(", ", failed);
+        log(message);
+        getContext().get(Run.class).setResult(Result.UNSTABLE);
+        FlowNode node = getContext().get(FlowNode.class);
+        if (node != null) {
+            node.addOrReplaceAction(new WarningAction(Result.UNSTABLE).withMessage(message));
+        }
+    }
+
+    /**
+     * Interrupts the setups in progress and marks the running branches as
+     * cancelled. Queued setups are left to run, as a cancelled task would
+     * never report its branch: they see that the step is aborted and finish
+     * without writing anything.
+     *
+     * @return the bodies to cancel, outside of the lock
+     */
+    private List<BodyExecution> cancelRunning() {
+        for (Integer index : startedSetups) {
+            branches.get(index).cancelled = true;
+            Future<?> setup = setups.get(index);
+            if (setup != null) {
+                setup.cancel(true);
+            }
+        }
+        for (Integer index : bodies.keySet()) {
+            branches.get(index).cancelled = true;
+        }
+        return new ArrayList<>(bodies.values());
+    }
+
+    private void log(String message) {
+        try {
+            getContext().get(TaskListener.class).getLogger().println(message);
+        } catch (Exception e) {
+            // Logging is best effort
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop(@NonNull Throwable cause) throws Exception {
+        List<BodyExecution> toCancel;
+        synchronized (this) {
+            aborted = true;
+            completed = true;
+            toCancel = cancelRunning();
+        }
+        for (BodyExecution body : toCancel) {
+            body.cancel(cause);
+        }
+        getContext().onFailure(cause);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The bodies resume on their own and can still be cancelled, but the
+     * setups in progress were lost: they are marked as failed and the pending
+     * branches are started.
+     */
+    @Override
+    public void onResume() {
+        synchronized (this) {
+            setups = new HashMap<>();
+            startedSetups = new HashSet<>();
+            if (bodies == null) {
+                // Saved by a version that did not keep the bodies
+                bodies = new HashMap<>();
+            }
+        }
+        Authentication auth = Jenkins.getAuthentication2();
+        for (int i = 0; i < branches.size(); i++) {
+            if (branches.get(i).status == Status.SETTING_UP) {
+                branchFinished(i, Status.FAILURE,
+                        new AbortException("[kubernetes-cli] Jenkins restarted while configuring kubectl"), auth);
+            }
+        }
+        synchronized (this) {
+            if (!completed) {
+                launchBranches(auth);
+            }
+        }
+    }
+
+    enum Status {
+        PENDING, SETTING_UP, RUNNING, SUCCESS, FAILURE, NOT_BUILT
+    }
+
+    /**
+     * A credential to run the body with, and its progress.
+     */
+    private static final class Branch implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String serverUrl;
+        private final String credentialsId;
+        private final String caCertificate;
+        private final String contextName;
+        private final String clusterName;
+        private final String namespace;
+
+        private Status status = Status.PENDING;
+        // Stopped by the failure of another branch
+        private boolean cancelled;
+
+        Branch(String name, KubectlCredential credential) {
+            this.name = name;
+            this.serverUrl = credential.serverUrl;
+            this.credentialsId = credential.credentialsId;
+            this.caCertificate = credential.caCertificate;
+            this.contextName = credential.contextName;
+            this.clusterName = credential.clusterName;
+            this.namespace = credential.namespace;
+        }
+
+        KubectlCredential toCredential() {
+            KubectlCredential credential = new KubectlCredential();
+            credential.serverUrl = serverUrl;
+            credential.credentialsId = credentialsId;
+            credential.caCertificate = caCertificate;
+            credential.contextName = contextName;
+            credential.clusterName = clusterName;
+            credential.namespace = namespace;
+            return credential;
+        }
+    }
+
+    /**
+     * Cleans up the kubeconfig of a branch and starts the next one.
+     */
+    private static final class BranchCallback extends BodyExecutionCallback {
+        private static final long serialVersionUID = 1L;
+
+        private final EachKubeCredentialExecution execution;
+        private final int index;
+        private final List<String> configFiles;
+        private final transient Authentication auth;
+
+        BranchCallback(EachKubeCredentialExecution execution, int index, List<String> configFiles,
+                Authentication auth) {
+            this.execution = execution;
+            this.index = index;
+            this.configFiles = configFiles;
+            this.auth = auth;
+        }
+
+        @Override
+        public void onSuccess(StepContext context, Object result) {
+            GenericBuildStep.deleteKubeConfigs(context, configFiles);
+            execution.branchFinished(index, Status.SUCCESS, null, authentication());
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            GenericBuildStep.deleteKubeConfigs(context, configFiles);
+            execution.branchFinished(index, Status.FAILURE, t, authentication());
+        }
+
+        private Authentication authentication() {
+            // Lost on restart, the callbacks then run as the build
+            return auth != null ? auth : Jenkins.getAuthentication2();
+        }
+    }
+}
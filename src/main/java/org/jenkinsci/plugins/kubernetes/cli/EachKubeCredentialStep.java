@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+
+/**
+ * Runs its body once per credential, each time with its own kubeconfig, with
+ * a bounded number of bodies running at the same time.
+ *
+ * Returns a map from the name of each body, its context name or credentials
+ * id, to its status: {@code SUCCESS}, {@code FAILURE}, or {@code NOT_BUILT}
+ * when it did not run.
+ */
+public class EachKubeCredentialStep extends Step {
+    @DataBoundSetter
+    public List<KubectlCredential> kubectlCredentials;
+
+    // Maximum number of bodies running at the same time
+    @DataBoundSetter
+    public int maxParallel = 8;
+
+    // Stop the other bodies and fail as soon as one fails, otherwise mark the build as unstable
+    @DataBoundSetter
+    public boolean failFast = true;
+
+    @DataBoundSetter
+    public Boolean restrictKubeConfigAccess;
+
+    @DataBoundConstructor
+    public EachKubeCredentialStep(List<KubectlCredential> kubectlCredentials) {
+        if (kubectlCredentials == null || kubectlCredentials.size() == 0) {
+            throw new RuntimeException("[kubernetes-cli] credentials list cannot be empty");
+        }
+        this.kubectlCredentials = kubectlCredentials;
+    }
+
+    @Override
+    public final StepExecution start(StepContext context) throws Exception {
+        return new EachKubeCredentialExecution(this.kubectlCredentials, Math.max(1, this.maxParallel),
+                this.failFast, this.restrictKubeConfigAccess, context);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getDisplayName() {
+            return "Run the body for each Kubernetes credential";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getFunctionName() {
+            return "withEachKubeCredential";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return new HashSet<>();
+        }
+    }
+}
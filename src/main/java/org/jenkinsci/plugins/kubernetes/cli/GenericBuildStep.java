@@ -1,29 +1,101 @@
 package org.jenkinsci.plugins.kubernetes.cli;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.kubernetes.cli.exec.ExecCredentialSession;
 import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriter;
 import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriterFactory;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeconfigFileRegistry;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeconfigRefresher;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics;
+import org.jenkinsci.plugins.kubernetes.cli.proxy.ApiProxySession;
+import org.jenkinsci.plugins.kubernetes.cli.tool.KubectlInstallation;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.springframework.security.core.Authentication;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.fabric8.kubernetes.api.model.Config;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 public class GenericBuildStep extends AbstractStepExecutionImpl {
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = Logger.getLogger(GenericBuildStep.class.getName());
+
+    static final int SETUP_THREADS = SystemProperties.getInteger(GenericBuildStep.class.getName() + ".setupThreads",
+            16);
+
+    // Writes the kubeconfig files outside of the CPS VM thread
+    static final ExecutorService SETUP_EXECUTOR = newSetupExecutor();
+
     @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
     private transient List<KubectlCredential> kubectlCredentials;
 
     @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
     private transient Boolean restrictKubeConfigAccess;
 
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient KubeCredentialsSelector selector;
+
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient String kubectlTool;
+
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient Boolean apiProxy;
+
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient Boolean execCredentialHelper;
+
+    // Setup in progress, guarded by this
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient Future<?> setup;
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient CompletableFuture<List<ClusterLeases.Lease>> leasing;
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient List<ClusterLeases.Lease> leases;
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private transient boolean stopped;
+
+    // Whether the body is not started yet, persisted to detect restarts during the setup
+    private volatile boolean settingUp;
+
     public GenericBuildStep(List<KubectlCredential> credentials, StepContext context) {
         super(context);
         this.kubectlCredentials = credentials;
@@ -36,40 +108,405 @@ public class GenericBuildStep extends AbstractStepExecutionImpl {
         this.restrictKubeConfigAccess = restrictKubeConfigAccess;
     }
 
+    public GenericBuildStep(List<KubectlCredential> credentials, KubeCredentialsSelector selector,
+            Boolean restrictKubeConfigAccess, StepContext context) {
+        super(context);
+        this.kubectlCredentials = credentials;
+        this.selector = selector;
+        this.restrictKubeConfigAccess = restrictKubeConfigAccess;
+    }
+
+    /**
+     * Sets the kubectl installation to add to the PATH of the body. When not
+     * set, the only installation is used, if there is exactly one.
+     *
+     * @param kubectlTool name of the installation
+     * @return this execution
+     */
+    GenericBuildStep withKubectlTool(String kubectlTool) {
+        this.kubectlTool = kubectlTool;
+        return this;
+    }
+
+    /**
+     * Sets whether kubectl goes through a caching proxy started on the agent
+     * for the duration of the body.
+     *
+     * @param apiProxy whether to start the proxy
+     * @return this execution
+     */
+    GenericBuildStep withApiProxy(Boolean apiProxy) {
+        this.apiProxy = apiProxy;
+        return this;
+    }
+
+    /**
+     * Sets whether the tokens are served to kubectl by an exec credential
+     * plugin backed by a daemon on the agent, instead of being written in the
+     * kubeconfig files.
+     *
+     * @param execCredentialHelper whether to start the daemon
+     * @return this execution
+     */
+    GenericBuildStep withExecCredentialHelper(Boolean execCredentialHelper) {
+        this.execCredentialHelper = execCredentialHelper;
+        return this;
+    }
+
+    private static ExecutorService newSetupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SETUP_THREADS, SETUP_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "kubernetes-cli kubeconfig setup"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * {@inheritDoc}
+     *
+     * The credentials lookup, their conversion and the writes on the agent can
+     * be slow, so they run on a dedicated executor instead of the CPS VM thread,
+     * and the body is started once they are done. When the clusters are
+     * limited to a number of concurrent builds, the step waits for a slot on
+     * each of them first, without holding any thread.
      */
     @Override
     public boolean start() throws Exception {
-        List<String> configFiles = new ArrayList<String>();
+        final Authentication auth = Jenkins.getAuthentication2();
+        settingUp = true;
+        synchronized (this) {
+            setup = SETUP_EXECUTOR.submit(() -> {
+                try (ACLContext ignored = ACL.as2(auth)) {
+                    acquireLeases(auth);
+                }
+            });
+        }
+        return false;
+    }
+
+    private void acquireLeases(Authentication auth) {
+        try {
+            List<KubeCredentialsSelector.Match> matches = Collections.emptyList();
+            if (selector != null) {
+                matches = selector.select(getContext().get(Run.class));
+                if (matches.isEmpty()) {
+                    throw new AbortException("[kubernetes-cli] no credentials matched the selector");
+                }
+            }
+
+            List<KubectlCredential> targets = new ArrayList<>(kubectlCredentials);
+            matches.forEach(m -> targets.add(m.target));
+            // Shared with the enclosing blocks of the same build
+            CompletableFuture<List<ClusterLeases.Lease>> future = ClusterLeases.get()
+                    .acquire(getContext().get(Run.class).getExternalizableId(), ClusterLeases.keysOf(targets),
+                            getContext().get(TaskListener.class));
+            synchronized (this) {
+                if (stopped) {
+                    future.cancel(true);
+                    return;
+                }
+                leasing = future;
+            }
+
+            final List<KubeCredentialsSelector.Match> selected = matches;
+            future.whenComplete((granted, error) -> {
+                if (error != null) {
+                    // Given up by stop()
+                    return;
+                }
+                synchronized (this) {
+                    if (stopped) {
+                        ClusterLeases.get().release(granted);
+                        return;
+                    }
+                    leases = granted;
+                    setup = SETUP_EXECUTOR.submit(() -> {
+                        try (ACLContext ignored = ACL.as2(auth)) {
+                            setUp(selected);
+                        }
+                    });
+                }
+            });
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void setUp(List<KubeCredentialsSelector.Match> matches) {
+        List<String> configFiles = new ArrayList<>();
+        ApiProxySession proxy = null;
+        ExecCredentialSession exec = null;
+        KubeconfigRefresher refresher = null;
+        try {
+            BiFunction<Config, StandardCredentials, Config> rewriter = null;
+            if (Boolean.TRUE.equals(apiProxy) && Boolean.TRUE.equals(execCredentialHelper)) {
+                throw new AbortException("[kubernetes-cli] apiProxy and execCredentialHelper cannot be used together");
+            } else if (Boolean.TRUE.equals(apiProxy)) {
+                ApiProxySession session = ApiProxySession.start(getContext().get(FilePath.class));
+                proxy = session;
+                rewriter = session::rewrite;
+            } else if (Boolean.TRUE.equals(execCredentialHelper)) {
+                exec = ExecCredentialSession.start(getContext().get(FilePath.class));
+                rewriter = exec::rewrite;
+            }
+            if (rewriter == null && !KubeconfigRefresher.DISABLED) {
+                // The proxy and the exec plugin refresh the tokens themselves
+                refresher = KubeconfigRefresher.start(getContext().get(TaskListener.class));
+            }
+            final BiFunction<Config, StandardCredentials, Config> configRewriter = rewriter;
+            final KubeconfigRefresher configRefresher = refresher;
+            Consumer<KubeConfigWriter> configurer = writer -> writer.withCredentialsRewriter(configRewriter)
+                    .withRefresher(configRefresher);
+            writeKubeConfigs(kubectlCredentials, restrictKubeConfigAccess, getContext(), configFiles, configurer);
+            writeKubeConfigs(matches, restrictKubeConfigAccess, getContext(), configFiles, configurer);
+            if (proxy != null) {
+                proxy.publish();
+            }
+            if (exec != null) {
+                exec.publish();
+            }
+
+            Map<String, String> variables = new HashMap<>();
+            String kubectlHome = installKubectl();
+            if (kubectlHome != null) {
+                variables.put(KubectlInstallation.PATH_VARIABLE, kubectlHome);
+            }
+            List<KubectlCredential> targets = new ArrayList<>(kubectlCredentials);
+            matches.forEach(m -> targets.add(m.target));
+            FilePath workspace = getContext().get(FilePath.class);
+            String cacheDir = KubectlCacheDirectory.prepare(workspace, targets);
+            DiscoverySnapshots.Harvest harvest = null;
+            if (cacheDir != null) {
+                variables.put(KubectlCacheDirectory.ENV_VARIABLE_NAME, cacheDir);
+                harvest = restoreDiscoveryCache(workspace.child(cacheDir), targets);
+            }
 
-        for (KubectlCredential cred : this.kubectlCredentials) {
-            KubeConfigWriter kubeConfigWriter = KubeConfigWriterFactory.get(
-                    cred.serverUrl,
-                    cred.credentialsId,
-                    cred.caCertificate,
-                    cred.clusterName,
-                    cred.contextName,
-                    cred.namespace,
-                    restrictKubeConfigAccess,
-                    getContext());
+            synchronized (this) {
+                if (!stopped) {
+                    startBody(configFiles, variables, harvest, proxy == null ? null : proxy.getId(),
+                            exec == null ? null : exec.getId(), refresher == null ? null : refresher.getId());
+                    return;
+                }
+            }
+            stopRefresher(refresher);
+            deleteKubeConfigs(getContext(), configFiles);
+            stopApiProxy(getContext(), proxy == null ? null : proxy.getId());
+            stopExecCredentialHelper(getContext(), exec == null ? null : exec.getId());
+        } catch (Throwable t) {
+            // Interrupted by stop(), clear the flag to be able to clean up
+            Thread.interrupted();
+            stopRefresher(refresher);
+            deleteKubeConfigs(getContext(), configFiles);
+            stopApiProxy(getContext(), proxy == null ? null : proxy.getId());
+            stopExecCredentialHelper(getContext(), exec == null ? null : exec.getId());
+            fail(t);
+        }
+    }
+
+    private void fail(Throwable t) {
+        synchronized (this) {
+            releaseLeases();
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        getContext().onFailure(t);
+    }
+
+    /**
+     * Releases the slots held while the body is not started yet. Once
+     * started, they are released by the {@link Callback}.
+     */
+    private synchronized void releaseLeases() {
+        if (leases != null) {
+            ClusterLeases.get().release(leases);
+            leases = null;
+        }
+    }
+
+    /**
+     * Installs kubectl on the node, if a kubectl installation is used.
+     *
+     * @return the directory containing kubectl, or null
+     */
+    private String installKubectl() throws IOException, InterruptedException {
+        KubectlInstallation installation = KubectlInstallation.find(kubectlTool);
+        if (installation == null) {
+            if (Util.fixEmpty(kubectlTool) != null) {
+                throw new AbortException("[kubernetes-cli] no kubectl installation named '" + kubectlTool + "'");
+            }
+            return null;
+        }
+        Computer computer = getContext().get(Computer.class);
+        Node node = computer == null ? null : computer.getNode();
+        if (node == null) {
+            throw new AbortException("[kubernetes-cli] unable to install kubectl outside of a node");
+        }
+        return installation.forNode(node, getContext().get(TaskListener.class))
+                .forEnvironment(getContext().get(EnvVars.class))
+                .getHome();
+    }
 
-            configFiles.add(kubeConfigWriter.writeKubeConfig());
+    /**
+     * Restores the snapshot of the kubectl discovery cache, if any. The cache
+     * is only an optimization, failures are reported but do not fail the step.
+     */
+    private DiscoverySnapshots.Harvest restoreDiscoveryCache(FilePath cacheDir, List<KubectlCredential> targets)
+            throws IOException, InterruptedException {
+        TaskListener listener = getContext().get(TaskListener.class);
+        try {
+            return DiscoverySnapshots.get().restore(getContext().get(Run.class), cacheDir, targets, listener);
+        } catch (IOException e) {
+            listener.getLogger().println("[kubernetes-cli] unable to restore the kubectl discovery cache: "
+                    + e.getMessage());
+            return null;
         }
+    }
 
+    private void startBody(List<String> configFiles, Map<String, String> variables,
+            DiscoverySnapshots.Harvest harvest, String apiProxyId, String execSessionId, String refresherId)
+            throws IOException, InterruptedException {
         // Prepare a new environment
         String configFileList = String.join(File.pathSeparator, configFiles);
         EnvironmentExpander envExpander = EnvironmentExpander.merge(
                 getContext().get(EnvironmentExpander.class),
-                new KubeConfigExpander(configFileList));
+                new KubeConfigExpander(configFileList, variables));
 
         // Execute the commands in the body within this environment
+        settingUp = false;
         getContext().newBodyInvoker()
                 .withContext(envExpander)
-                .withCallback(new Callback(configFiles))
+                .withCallback(new Callback(configFiles, leases, harvest, apiProxyId, execSessionId, refresherId))
                 .start();
+        leases = null;
+    }
 
-        return false;
+    /**
+     * Writes a kubeconfig file for each of the credentials.
+     *
+     * @param credentials              the credentials
+     * @param restrictKubeConfigAccess whether to restrict the access to the files
+     * @param context                  context of the step
+     * @param configFiles              receives the paths of the written files, so
+     *                                 that they can be cleaned up on failure
+     */
+    static void writeKubeConfigs(List<KubectlCredential> credentials, Boolean restrictKubeConfigAccess,
+            StepContext context, List<String> configFiles) throws IOException, InterruptedException {
+        writeKubeConfigs(credentials, restrictKubeConfigAccess, context, configFiles, writer -> { });
+    }
+
+    /**
+     * Writes a kubeconfig file for each of the credentials, with writers
+     * set up by the given configurer.
+     */
+    static void writeKubeConfigs(List<KubectlCredential> credentials, Boolean restrictKubeConfigAccess,
+            StepContext context, List<String> configFiles, Consumer<KubeConfigWriter> configurer)
+            throws IOException, InterruptedException {
+        for (KubectlCredential cred : credentials) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            KubeConfigWriter writer = newWriter(cred, restrictKubeConfigAccess, context);
+            configurer.accept(writer);
+            configFiles.add(writer.writeKubeConfig());
+        }
+    }
+
+    /**
+     * Writes a kubeconfig file for each of the selected credentials, which are
+     * already looked up.
+     */
+    static void writeKubeConfigs(Collection<KubeCredentialsSelector.Match> matches, Boolean restrictKubeConfigAccess,
+            StepContext context, List<String> configFiles, Consumer<KubeConfigWriter> configurer)
+            throws IOException, InterruptedException {
+        for (KubeCredentialsSelector.Match match : matches) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            KubeConfigWriter writer = newWriter(match.target, restrictKubeConfigAccess, context);
+            configurer.accept(writer);
+            configFiles.add(writer.writeKubeConfig(match.credentials));
+        }
+    }
+
+    private static KubeConfigWriter newWriter(KubectlCredential cred, Boolean restrictKubeConfigAccess,
+            StepContext context) throws IOException, InterruptedException {
+        return KubeConfigWriterFactory.get(
+                cred.serverUrl,
+                cred.credentialsId,
+                cred.caCertificate,
+                cred.clusterName,
+                cred.contextName,
+                cred.namespace,
+                restrictKubeConfigAccess,
+                context);
+    }
+
+    static void deleteKubeConfigs(StepContext context, List<String> configFiles) {
+        if (configFiles.isEmpty()) {
+            return;
+        }
+        try {
+            FilePath workspace = context.get(FilePath.class);
+            Run<?, ?> build = context.get(Run.class);
+            for (String configFile : configFiles) {
+                deleteKubeConfig(build, workspace.child(configFile));
+            }
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Unable to clean up kubectl configuration " + configFiles, e);
+        }
+    }
+
+    /**
+     * Deletes a kubeconfig file and forgets it, once its refresher is done
+     * with it.
+     */
+    static void deleteKubeConfig(Run<?, ?> build, FilePath file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        KubeconfigRefresher.delete(file);
+        KubeconfigFileRegistry.get().unregister(file);
+        KubeconfigMetrics.get().record(build, KubeconfigMetrics.Phase.CLEANUP, KubeconfigMetrics.ANY,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Stops the API proxy of the block, if any, and reports how many requests
+     * it served from its cache.
+     */
+    static void stopApiProxy(StepContext context, String apiProxyId) {
+        if (apiProxyId == null) {
+            return;
+        }
+        try {
+            long[] stats = ApiProxySession.stop(context.get(FilePath.class), apiProxyId);
+            if (stats != null && stats[1] > 0) {
+                context.get(TaskListener.class).getLogger().println("[kubernetes-cli] API proxy served " + stats[0]
+                        + " of " + stats[1] + " discovery requests from its cache");
+            }
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Unable to stop the API proxy " + apiProxyId, e);
+        }
+    }
+
+    private static void stopRefresher(KubeconfigRefresher refresher) {
+        if (refresher != null) {
+            KubeconfigRefresher.stop(refresher.getId());
+        }
+    }
+
+    /**
+     * Stops the exec credentials daemon of the block, if any.
+     */
+    static void stopExecCredentialHelper(StepContext context, String execSessionId) {
+        if (execSessionId == null) {
+            return;
+        }
+        try {
+            ExecCredentialSession.stop(context.get(FilePath.class), execSessionId);
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Unable to stop the exec credentials daemon " + execSessionId, e);
+        }
     }
 
     /**
@@ -77,23 +514,139 @@ public class GenericBuildStep extends AbstractStepExecutionImpl {
      */
     @Override
     public void stop(@NonNull Throwable cause) throws Exception {
+        synchronized (this) {
+            stopped = true;
+            if (setup != null) {
+                setup.cancel(true);
+            }
+            if (leasing != null) {
+                leasing.cancel(true);
+            }
+            releaseLeases();
+        }
         getContext().onFailure(cause);
     }
 
-    private static final class Callback extends BodyExecutionCallback.TailCall {
+    /**
+     * {@inheritDoc}
+     *
+     * The setup does not survive a restart: fail if the body was not started.
+     */
+    @Override
+    public void onResume() {
+        if (settingUp) {
+            getContext().onFailure(
+                    new AbortException("[kubernetes-cli] Jenkins restarted while configuring kubectl, please retry"));
+        }
+    }
+
+    /**
+     * Cleans up once the body completes. The discovery cache is saved on the
+     * setup executor, as it is packed on the agent, and the step completes
+     * from there once it is done.
+     */
+    static final class Callback extends BodyExecutionCallback {
         private static final long serialVersionUID = 1L;
         private final List<String> configFiles;
+        // Slots held on the clusters, null for callbacks serialized by older versions
+        private final List<ClusterLeases.Lease> leases;
+        // Discovery cache to snapshot, if shared
+        private final DiscoverySnapshots.Harvest harvest;
+        // Session of the API proxy, if started
+        private final String apiProxyId;
+        // Session of the exec credentials daemon, if started
+        private final String execSessionId;
+        // Refresher of the tokens of the files, if any
+        private final String refresherId;
 
-        Callback(List<String> configFiles) {
+        Callback(List<String> configFiles, List<ClusterLeases.Lease> leases, DiscoverySnapshots.Harvest harvest,
+                String apiProxyId, String execSessionId, String refresherId) {
             this.configFiles = configFiles;
+            this.leases = leases;
+            this.harvest = harvest;
+            this.apiProxyId = apiProxyId;
+            this.execSessionId = execSessionId;
+            this.refresherId = refresherId;
         }
 
-        protected void finished(StepContext context) throws Exception {
-            for (String configFile : configFiles) {
-                context.get(FilePath.class).child(configFile).delete();
+        @Override
+        public void onSuccess(StepContext context, Object result) {
+            try {
+                finished(context);
+            } catch (Exception x) {
+                context.onFailure(x);
+                return;
+            }
+            harvestThen(context, () -> context.onSuccess(result));
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            try {
+                finished(context);
+            } catch (Exception x) {
+                t.addSuppressed(x);
+            }
+            harvestThen(context, () -> context.onFailure(t));
+        }
+
+        void finished(StepContext context) throws Exception {
+            try {
+                if (refresherId != null) {
+                    // Before the files are deleted, so that they are not written again
+                    KubeconfigRefresher.stop(refresherId);
+                }
+                stopApiProxy(context, apiProxyId);
+                stopExecCredentialHelper(context, execSessionId);
+                for (String configFile : configFiles) {
+                    deleteKubeConfig(context.get(Run.class), context.get(FilePath.class).child(configFile));
+                }
+                context.get(TaskListener.class).getLogger()
+                        .println("[kubernetes-cli] kubectl configuration cleaned up");
+            } finally {
+                if (leases != null) {
+                    ClusterLeases.get().release(leases);
+                }
             }
-            context.get(TaskListener.class).getLogger().println("[kubernetes-cli] kubectl configuration cleaned up");
         }
 
+        /**
+         * Saves the discovery cache, if any, then completes the step.
+         */
+        private void harvestThen(StepContext context, Runnable completion) {
+            if (harvest == null) {
+                completion.run();
+                return;
+            }
+            try {
+                SETUP_EXECUTOR.execute(() -> {
+                    try {
+                        harvest(context);
+                    } finally {
+                        completion.run();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                completion.run();
+            }
+        }
+
+        private void harvest(StepContext context) {
+            TaskListener listener;
+            try {
+                listener = context.get(TaskListener.class);
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unable to save the kubectl discovery cache", e);
+                return;
+            }
+            try {
+                if (DiscoverySnapshots.get().harvest(context.get(FilePath.class), harvest)) {
+                    listener.getLogger().println("[kubernetes-cli] saved a snapshot of the kubectl discovery cache");
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                listener.getLogger().println("[kubernetes-cli] unable to save the kubectl discovery cache: "
+                        + e.getMessage());
+            }
+        }
     }
 }
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.kubernetes.cli;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,7 +20,11 @@ final class KubeConfigExpander extends EnvironmentExpander {
     private final Map<String, String> overrides;
 
     KubeConfigExpander(String path) {
-        this.overrides = new HashMap<>();
+        this(path, Collections.emptyMap());
+    }
+
+    KubeConfigExpander(String path, Map<String, String> variables) {
+        this.overrides = new HashMap<>(variables);
         this.overrides.put(KubeConfigWriter.ENV_VARIABLE_NAME, path);
     }
 
@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+
+/**
+ * Selects the credentials to configure kubectl with, instead of listing them
+ * one by one. The credentials visible to the build are looked up once, and
+ * the ones matching all the given criteria are selected. At least one
+ * criterion is required, so that a selector never selects all the
+ * credentials visible to the build.
+ */
+public class KubeCredentialsSelector extends AbstractDescribableImpl<KubeCredentialsSelector> {
+
+    // Prefix of the ids of the credentials
+    @DataBoundSetter
+    public String idPrefix;
+
+    // Regular expression the descriptions of the credentials must match
+    @DataBoundSetter
+    public String descriptionPattern;
+
+    // Name of the credentials domain the credentials are stored in
+    @DataBoundSetter
+    public String domain;
+
+    // Parameters applied to all the selected credentials
+    @DataBoundSetter
+    public String serverUrl;
+
+    @DataBoundSetter
+    public String caCertificate;
+
+    @DataBoundSetter
+    public String namespace;
+
+    private static final String NO_CRITERIA = "the selector needs an id prefix, a description pattern or a domain";
+
+    @DataBoundConstructor
+    public KubeCredentialsSelector() {
+    }
+
+    private static boolean hasCriteria(String idPrefix, String descriptionPattern, String domain) {
+        return Util.fixEmpty(idPrefix) != null || Util.fixEmpty(descriptionPattern) != null
+                || Util.fixEmpty(domain) != null;
+    }
+
+    /**
+     * Looks up the credentials matching the selector.
+     *
+     * @param build the build using the credentials
+     * @return the selected credentials, sorted by id
+     * @throws AbortException if the selector is invalid
+     */
+    public List<Match> select(Run<?, ?> build) throws AbortException {
+        if (!hasCriteria(idPrefix, descriptionPattern, domain)) {
+            throw new AbortException("[kubernetes-cli] " + NO_CRITERIA);
+        }
+        Pattern description = null;
+        if (Util.fixEmpty(descriptionPattern) != null) {
+            try {
+                description = Pattern.compile(descriptionPattern);
+            } catch (PatternSyntaxException e) {
+                throw new AbortException("[kubernetes-cli] invalid description pattern: " + e.getMessage());
+            }
+        }
+        Set<String> domainIds = Util.fixEmpty(domain) == null ? null : idsInDomain(build, domain);
+
+        // Looked up as the build, so that only the credentials it can use are selected
+        List<StandardCredentials> candidates = CredentialsMatchers.filter(
+                CredentialsProvider.lookupCredentialsInItem(StandardCredentials.class, build.getParent(),
+                        Jenkins.getAuthentication2(), Collections.emptyList()),
+                CredentialsLister.supportedCredentials);
+
+        List<Match> matches = new ArrayList<>();
+        Set<String> selected = new HashSet<>();
+        for (StandardCredentials credentials : candidates) {
+            String id = credentials.getId();
+            if (Util.fixEmpty(idPrefix) != null && !id.startsWith(idPrefix)) {
+                continue;
+            }
+            if (description != null && !description.matcher(Util.fixNull(credentials.getDescription())).find()) {
+                continue;
+            }
+            if (domainIds != null && !domainIds.contains(id)) {
+                continue;
+            }
+            // The closest credentials shadow the ones with the same id further up
+            if (selected.add(id)) {
+                matches.add(new Match(target(credentials), credentials));
+            }
+        }
+        matches.sort(Comparator.comparing(m -> m.credentials.getId()));
+        return matches;
+    }
+
+    private KubectlCredential target(StandardCredentials credentials) {
+        KubectlCredential target = new KubectlCredential();
+        target.credentialsId = credentials.getId();
+        target.serverUrl = serverUrl;
+        target.caCertificate = caCertificate;
+        target.namespace = namespace;
+        if (!(credentials instanceof FileCredentials)) {
+            // Generated configurations would all use the default names and clash once merged
+            target.contextName = credentials.getId();
+            target.clusterName = credentials.getId();
+        }
+        return target;
+    }
+
+    /**
+     * Returns the ids of the credentials stored in the domains with the given
+     * name, in the stores visible to the build.
+     */
+    private static Set<String> idsInDomain(Run<?, ?> build, String domainName) {
+        Set<String> ids = new HashSet<>();
+        for (CredentialsStore store : CredentialsProvider.lookupStores(build.getParent())) {
+            for (Domain d : store.getDomains()) {
+                if (domainName.equals(d.getName()) || (d.isGlobal() && "global".equals(domainName))) {
+                    for (Credentials c : store.getCredentials(d)) {
+                        if (c instanceof IdCredentials) {
+                            ids.add(((IdCredentials) c).getId());
+                        }
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Selected credentials, with the parameters to configure kubectl with.
+     */
+    public static final class Match {
+        public final KubectlCredential target;
+        public final StandardCredentials credentials;
+
+        Match(KubectlCredential target, StandardCredentials credentials) {
+            this.target = target;
+            this.credentials = credentials;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<KubeCredentialsSelector> {
+        @Override
+        public String getDisplayName() {
+            return "";
+        }
+
+        public FormValidation doCheckIdPrefix(@QueryParameter String value, @QueryParameter String descriptionPattern,
+                @QueryParameter String domain) {
+            if (!hasCriteria(value, descriptionPattern, domain)) {
+                return FormValidation.error("The selector needs an id prefix, a description pattern or a domain");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckDescriptionPattern(@QueryParameter String value) {
+            if (Util.fixEmpty(value) != null) {
+                try {
+                    Pattern.compile(value);
+                } catch (PatternSyntaxException e) {
+                    return FormValidation.error("Invalid regular expression: " + e.getDescription());
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
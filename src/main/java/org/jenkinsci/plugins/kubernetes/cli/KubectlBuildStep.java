@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.jenkinsci.plugins.kubernetes.cli.tool.KubectlInstallation;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
@@ -46,6 +47,18 @@ public class KubectlBuildStep extends Step {
     @DataBoundSetter
     public Boolean restrictKubeConfigAccess;
 
+    // Name of the kubectl installation to add to the PATH
+    @DataBoundSetter
+    public String kubectlTool;
+
+    // Whether kubectl goes through a caching proxy on the agent
+    @DataBoundSetter
+    public Boolean apiProxy;
+
+    // Whether kubectl gets the tokens from a daemon on the agent
+    @DataBoundSetter
+    public Boolean execCredentialHelper;
+
     @DataBoundConstructor
     public KubectlBuildStep() {
     }
@@ -63,7 +76,8 @@ public class KubectlBuildStep extends Step {
         List<KubectlCredential> list = new ArrayList<KubectlCredential>();
         list.add(cred);
 
-        return new GenericBuildStep(list, restrictKubeConfigAccess, context);
+        return new GenericBuildStep(list, restrictKubeConfigAccess, context).withKubectlTool(kubectlTool)
+                .withApiProxy(apiProxy).withExecCredentialHelper(execCredentialHelper);
     }
 
     @Extension
@@ -97,6 +111,10 @@ public class KubectlBuildStep extends Step {
             return new HashSet<>();
         }
 
+        public ListBoxModel doFillKubectlToolItems() {
+            return KubectlInstallation.fillItems();
+        }
+
         @RequirePOST
         public ListBoxModel doFillCredentialsIdItems(@NonNull @AncestorInPath Item item,
                 @QueryParameter String serverUrl, @QueryParameter String credentialsId) {
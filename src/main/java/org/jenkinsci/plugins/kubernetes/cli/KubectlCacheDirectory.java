@@ -0,0 +1,202 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Manages the kubectl cache directories of the agents, exported to the builds
+ * through {@code KUBECACHEDIR}, so that the API discovery and OpenAPI
+ * documents are fetched once per cluster instead of once per kubectl process.
+ *
+ * There is one directory per agent and set of clusters and credentials, as
+ * the cached responses depend on who fetched them. kubectl writes its cache
+ * atomically, so the builds can share a directory. Directories not used for a
+ * while are evicted, least recently used first, once the caches exceed their
+ * maximum size.
+ */
+public final class KubectlCacheDirectory {
+    public static final String ENV_VARIABLE_NAME = "KUBECACHEDIR";
+
+    static final boolean DISABLED = SystemProperties.getBoolean(KubectlCacheDirectory.class.getName() + ".disabled");
+
+    static final long MAX_SIZE_MB = SystemProperties.getLong(KubectlCacheDirectory.class.getName() + ".maxSizeMb",
+            1024L);
+
+    // Directories used more recently than this are never evicted
+    static final long MIN_IDLE_MINUTES = SystemProperties.getLong(
+            KubectlCacheDirectory.class.getName() + ".minIdleMinutes", 30L);
+
+    // The size of the caches is checked at most once per interval on each agent
+    static final long EVICTION_INTERVAL_MINUTES = SystemProperties.getLong(
+            KubectlCacheDirectory.class.getName() + ".evictionIntervalMinutes", 10L);
+
+    private KubectlCacheDirectory() {
+    }
+
+    /**
+     * Creates the cache directory for the given credentials on the node of the
+     * workspace, if missing.
+     *
+     * @param workspace   workspace of the build
+     * @param credentials the credentials the build uses
+     * @return the path of the directory on the node, or null if it cannot be
+     *         found or the caches are disabled
+     * @throws IOException          if the directory cannot be created
+     * @throws InterruptedException if interrupted
+     */
+    @CheckForNull
+    public static String prepare(@NonNull FilePath workspace, @NonNull Collection<KubectlCredential> credentials)
+            throws IOException, InterruptedException {
+        if (DISABLED) {
+            return null;
+        }
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        FilePath root = node == null ? null : node.getRootPath();
+        if (root == null) {
+            return null;
+        }
+        return root.child("caches").child("kubectl").act(new Prepare(key(credentials),
+                MAX_SIZE_MB * 1024 * 1024, TimeUnit.MINUTES.toMillis(MIN_IDLE_MINUTES),
+                TimeUnit.MINUTES.toMillis(EVICTION_INTERVAL_MINUTES)));
+    }
+
+    /**
+     * Returns the name of the directory of the given credentials, the same
+     * whatever their order.
+     */
+    static String key(Collection<KubectlCredential> credentials) {
+        Set<String> identities = new TreeSet<>();
+        for (KubectlCredential c : credentials) {
+            identities.add(Util.fixNull(c.serverUrl) + "\n" + Util.fixNull(c.credentialsId));
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(String.join("\n\n", identities).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a cache directory, marks it as used, and evicts other ones if
+     * needed. Runs on the agent.
+     */
+    static final class Prepare extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        // Serializes the preparations and evictions of this process, by caches root
+        private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+        private static final ConcurrentMap<String, Long> LAST_EVICTIONS = new ConcurrentHashMap<>();
+
+        private final String key;
+        private final long maxBytes;
+        private final long minIdleMillis;
+        private final long evictionIntervalMillis;
+
+        Prepare(String key, long maxBytes, long minIdleMillis, long evictionIntervalMillis) {
+            this.key = key;
+            this.maxBytes = maxBytes;
+            this.minIdleMillis = minIdleMillis;
+            this.evictionIntervalMillis = evictionIntervalMillis;
+        }
+
+        @Override
+        public String invoke(File caches, VirtualChannel channel) throws IOException, InterruptedException {
+            String root = caches.getAbsolutePath();
+            long now = System.currentTimeMillis();
+            File dir = new File(caches, key);
+            synchronized (LOCKS.computeIfAbsent(root, r -> new Object())) {
+                Files.createDirectories(dir.toPath());
+                // The modification time of the directory is the time it was last used
+                dir.setLastModified(now);
+
+                Long lastEviction = LAST_EVICTIONS.get(root);
+                if (lastEviction == null || now - lastEviction >= evictionIntervalMillis) {
+                    LAST_EVICTIONS.put(root, now);
+                    evict(caches, now);
+                }
+            }
+            return dir.getAbsolutePath();
+        }
+
+        /**
+         * Deletes the least recently used directories until the caches fit in
+         * their maximum size.
+         */
+        void evict(File caches, long now) throws IOException, InterruptedException {
+            File[] dirs = caches.listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+            if (dirs == null) {
+                return;
+            }
+            List<File> candidates = new ArrayList<>();
+            long total = 0;
+            for (File dir : dirs) {
+                total += size(dir.toPath());
+                if (now - dir.lastModified() >= minIdleMillis) {
+                    candidates.add(dir);
+                }
+            }
+            candidates.sort(Comparator.comparingLong(File::lastModified));
+            for (File dir : candidates) {
+                if (total <= maxBytes) {
+                    return;
+                }
+                long size = size(dir.toPath());
+                // Moved out of the way first, so that kubectl never sees a half-deleted cache
+                File deleted = new File(caches, ".deleted-" + dir.getName() + "-" + now);
+                if (dir.renameTo(deleted)) {
+                    Util.deleteRecursive(deleted);
+                    total -= size;
+                }
+            }
+        }
+
+        private static long size(Path dir) throws IOException {
+            long[] size = {0};
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Replaced by kubectl in the meantime
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return size[0];
+        }
+    }
+}
@@ -1,8 +1,20 @@
 package org.jenkinsci.plugins.kubernetes.cli;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
@@ -11,7 +23,10 @@ import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
 
 /**
  * Necessary information for configuring a single registry
@@ -50,7 +65,84 @@ public class KubectlCredential extends AbstractDescribableImpl<KubectlCredential
         @RequirePOST
         public ListBoxModel doFillCredentialsIdItems(@NonNull @AncestorInPath Item item,
                 @QueryParameter String serverUrl, @QueryParameter String credentialsId) {
-            return CredentialsLister.doFillCredentialsIdItems(item, serverUrl, credentialsId);
+            return CredentialsLister.doFillCredentialsIdItems(item, serverUrl, credentialsId,
+                    CredentialsLister.PAGE_SIZE);
+        }
+
+        @RequirePOST
+        public HttpResponse doSearchCredentials(@AncestorInPath Item item, @QueryParameter String serverUrl,
+                @QueryParameter String query, @QueryParameter int start, @QueryParameter int limit) {
+            return CredentialsLister.doSearchCredentials(item, serverUrl, query, start, limit);
+        }
+
+        /**
+         * Checks that the credentials can be used against the server.
+         */
+        @RequirePOST
+        public FormValidation doValidate(@AncestorInPath Item item, @QueryParameter String credentialsId,
+                @QueryParameter String serverUrl, @QueryParameter String caCertificate)
+                throws InterruptedException {
+            checkConfigurePermission(item);
+            KubectlCredential target = new KubectlCredential();
+            target.credentialsId = credentialsId;
+            target.serverUrl = serverUrl;
+            target.caCertificate = caCertificate;
+            return toFormValidation(CredentialsValidator.get().validate(Collections.singletonList(target),
+                    id -> lookupCredentials(item, serverUrl).stream()
+                            .filter(c -> id.equals(c.getId())).findFirst().orElse(null)));
+        }
+
+        /**
+         * Checks all the supported credentials visible from the item, usually a
+         * folder, against the server.
+         */
+        @RequirePOST
+        public FormValidation doValidateAll(@AncestorInPath Item item, @QueryParameter String serverUrl,
+                @QueryParameter String caCertificate) throws InterruptedException {
+            checkConfigurePermission(item);
+            Map<String, StandardCredentials> credentials = new LinkedHashMap<>();
+            List<KubectlCredential> targets = new ArrayList<>();
+            for (StandardCredentials c : lookupCredentials(item, serverUrl)) {
+                if (credentials.putIfAbsent(c.getId(), c) == null) {
+                    KubectlCredential target = new KubectlCredential();
+                    target.credentialsId = c.getId();
+                    target.serverUrl = serverUrl;
+                    target.caCertificate = caCertificate;
+                    targets.add(target);
+                }
+            }
+            if (targets.isEmpty()) {
+                return FormValidation.warning("No credentials to validate");
+            }
+            return toFormValidation(CredentialsValidator.get().validate(targets, credentials::get));
+        }
+
+        private static void checkConfigurePermission(Item item) {
+            if (item == null) {
+                Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            } else {
+                item.checkPermission(Item.CONFIGURE);
+            }
+        }
+
+        private static List<StandardCredentials> lookupCredentials(Item item, String serverUrl) {
+            List<DomainRequirement> requirements = URIRequirementBuilder.fromUri(serverUrl).build();
+            List<StandardCredentials> credentials = item == null
+                    ? CredentialsProvider.lookupCredentialsInItemGroup(StandardCredentials.class, Jenkins.get(),
+                            ACL.SYSTEM2, requirements)
+                    : CredentialsProvider.lookupCredentialsInItem(StandardCredentials.class, item, ACL.SYSTEM2,
+                            requirements);
+            return CredentialsMatchers.filter(credentials, CredentialsLister.supportedCredentials);
+        }
+
+        private static FormValidation toFormValidation(List<CredentialsValidator.Result> results) {
+            List<FormValidation> validations = new ArrayList<>();
+            for (CredentialsValidator.Result result : results) {
+                validations.add(result.isValid()
+                        ? FormValidation.ok("Credentials " + result)
+                        : FormValidation.error("Credentials " + result));
+            }
+            return FormValidation.aggregate(validations);
         }
     }
 }
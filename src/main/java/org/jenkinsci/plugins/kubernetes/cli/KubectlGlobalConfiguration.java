@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+
+/**
+ * Global settings of the plugin.
+ */
+@Extension
+@Symbol("kubernetesCli")
+public class KubectlGlobalConfiguration extends GlobalConfiguration {
+
+    // Maximum number of builds holding a kubeconfig for the same cluster, 0 for no limit
+    private int maxLeasesPerCluster;
+
+    private ClusterLeases.LeaseKey leaseKey = ClusterLeases.LeaseKey.SERVER_URL;
+
+    // Keep snapshots of the kubectl discovery caches to restore them on the agents
+    private boolean shareDiscoverySnapshots;
+
+    public KubectlGlobalConfiguration() {
+        load();
+    }
+
+    public static KubectlGlobalConfiguration get() {
+        return GlobalConfiguration.all().getInstance(KubectlGlobalConfiguration.class);
+    }
+
+    public int getMaxLeasesPerCluster() {
+        return maxLeasesPerCluster;
+    }
+
+    @DataBoundSetter
+    public void setMaxLeasesPerCluster(int maxLeasesPerCluster) {
+        this.maxLeasesPerCluster = Math.max(0, maxLeasesPerCluster);
+        save();
+        // Builds waiting for slots that are now free, or no longer limited
+        ClusterLeases.get().limitChanged();
+    }
+
+    public ClusterLeases.LeaseKey getLeaseKey() {
+        return leaseKey == null ? ClusterLeases.LeaseKey.SERVER_URL : leaseKey;
+    }
+
+    @DataBoundSetter
+    public void setLeaseKey(ClusterLeases.LeaseKey leaseKey) {
+        this.leaseKey = leaseKey;
+        save();
+    }
+
+    public boolean isShareDiscoverySnapshots() {
+        return shareDiscoverySnapshots;
+    }
+
+    @DataBoundSetter
+    public void setShareDiscoverySnapshots(boolean shareDiscoverySnapshots) {
+        this.shareDiscoverySnapshots = shareDiscoverySnapshots;
+        save();
+    }
+
+    public ListBoxModel doFillLeaseKeyItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Kubernetes API endpoint", ClusterLeases.LeaseKey.SERVER_URL.name());
+        items.add("Credentials id", ClusterLeases.LeaseKey.CREDENTIALS_ID.name());
+        return items;
+    }
+}
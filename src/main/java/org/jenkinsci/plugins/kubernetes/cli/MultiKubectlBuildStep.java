@@ -1,9 +1,11 @@
 package org.jenkinsci.plugins.kubernetes.cli;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.jenkinsci.plugins.kubernetes.cli.tool.KubectlInstallation;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
@@ -12,22 +14,40 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import hudson.Extension;
+import hudson.util.ListBoxModel;
 
 public class MultiKubectlBuildStep extends Step {
     @DataBoundSetter
     public List<KubectlCredential> kubectlCredentials;
 
+    // Selects credentials in addition to the listed ones
+    @DataBoundSetter
+    public KubeCredentialsSelector selector;
+
+    // Name of the kubectl installation to add to the PATH
+    @DataBoundSetter
+    public String kubectlTool;
+
+    // Whether kubectl goes through a caching proxy on the agent
+    @DataBoundSetter
+    public Boolean apiProxy;
+
+    // Whether kubectl gets the tokens from a daemon on the agent
+    @DataBoundSetter
+    public Boolean execCredentialHelper;
+
     @DataBoundConstructor
     public MultiKubectlBuildStep(List<KubectlCredential> kubectlCredentials) {
-        if (kubectlCredentials == null || kubectlCredentials.size() == 0) {
-            throw new RuntimeException("[kubernetes-cli] credentials list cannot be empty");
-        }
-        this.kubectlCredentials = kubectlCredentials;
+        this.kubectlCredentials = kubectlCredentials == null ? new ArrayList<>() : kubectlCredentials;
     }
 
     @Override
     public final StepExecution start(StepContext context) throws Exception {
-        return new GenericBuildStep(this.kubectlCredentials, context);
+        if (this.kubectlCredentials.isEmpty() && this.selector == null) {
+            throw new RuntimeException("[kubernetes-cli] credentials list cannot be empty");
+        }
+        return new GenericBuildStep(this.kubectlCredentials, this.selector, null, context).withKubectlTool(kubectlTool)
+                .withApiProxy(apiProxy).withExecCredentialHelper(execCredentialHelper);
     }
 
     @Extension
@@ -62,5 +82,9 @@ public class MultiKubectlBuildStep extends Step {
             return new HashSet<>();
         }
 
+        public ListBoxModel doFillKubectlToolItems() {
+            return KubectlInstallation.fillItems();
+        }
+
     }
 }
@@ -7,6 +7,8 @@ import java.util.List;
 
 import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriter;
 import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriterFactory;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeconfigFileRegistry;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
@@ -43,7 +45,34 @@ public class MultiKubectlBuildWrapper extends SimpleBuildWrapper {
             TaskListener listener,
             EnvVars initialEnvironment) throws IOException, InterruptedException {
 
+        // Freestyle builds cannot be suspended, so the slots are waited for on the executor
+        List<ClusterLeases.Lease> leases = ClusterLeases.get()
+                .acquireAndWait(build.getExternalizableId(), ClusterLeases.keysOf(this.kubectlCredentials), listener);
+
         List<String> configFiles = new ArrayList<String>();
+        String cacheDir;
+        try {
+            writeKubeConfigs(build, workspace, launcher, configFiles);
+            cacheDir = KubectlCacheDirectory.prepare(workspace, this.kubectlCredentials);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            ClusterLeases.get().release(leases);
+            throw e;
+        }
+
+        // Remove it when the build is finished
+        context.setDisposer(new CleanupDisposer(configFiles, leases));
+
+        // Set environment for the kubectl calls to find the configuration
+        String configFileList = String.join(File.pathSeparator, configFiles);
+        context.env(KubeConfigWriter.ENV_VARIABLE_NAME, configFileList);
+
+        if (cacheDir != null) {
+            context.env(KubectlCacheDirectory.ENV_VARIABLE_NAME, cacheDir);
+        }
+    }
+
+    private void writeKubeConfigs(Run<?, ?> build, FilePath workspace, Launcher launcher, List<String> configFiles)
+            throws IOException, InterruptedException {
         for (KubectlCredential cred : this.kubectlCredentials) {
             KubeConfigWriter kubeConfigWriter = KubeConfigWriterFactory.get(
                     cred.serverUrl,
@@ -59,13 +88,6 @@ public class MultiKubectlBuildWrapper extends SimpleBuildWrapper {
 
             configFiles.add(kubeConfigWriter.writeKubeConfig());
         }
-
-        // Remove it when the build is finished
-        context.setDisposer(new CleanupDisposer(configFiles));
-
-        // Set environment for the kubectl calls to find the configuration
-        String configFileList = String.join(File.pathSeparator, configFiles);
-        context.env(KubeConfigWriter.ENV_VARIABLE_NAME, configFileList);
     }
 
     @Extension
@@ -85,20 +107,37 @@ public class MultiKubectlBuildWrapper extends SimpleBuildWrapper {
 
         private static final long serialVersionUID = 1L;
         private List<String> filesToBeRemoved;
+        private List<ClusterLeases.Lease> leases;
 
         public CleanupDisposer(List<String> files) {
             this.filesToBeRemoved = files;
         }
 
+        public CleanupDisposer(List<String> files, List<ClusterLeases.Lease> leases) {
+            this.filesToBeRemoved = files;
+            this.leases = leases;
+        }
+
         @Override
         public void tearDown(Run<?, ?> build,
                 FilePath workspace,
                 Launcher launcher,
                 TaskListener listener) throws IOException, InterruptedException {
-            for (String file : filesToBeRemoved) {
-                workspace.child(file).delete();
+            try {
+                for (String file : filesToBeRemoved) {
+                    long start = System.nanoTime();
+                    FilePath configFile = workspace.child(file);
+                    configFile.delete();
+                    KubeconfigFileRegistry.get().unregister(configFile);
+                    KubeconfigMetrics.get().record(build, KubeconfigMetrics.Phase.CLEANUP, KubeconfigMetrics.ANY,
+                            System.nanoTime() - start);
+                }
+                listener.getLogger().println("[kubernetes-cli] kubectl configuration cleaned up");
+            } finally {
+                if (leases != null) {
+                    ClusterLeases.get().release(leases);
+                }
             }
-            listener.getLogger().println("[kubernetes-cli] kubectl configuration cleaned up");
         }
     }
 }
@@ -0,0 +1,147 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Checks that credentials can be used against their cluster before using
+ * them, so that builds fail fast instead of after long stages.
+ */
+public class ValidateKubeCredentialsStep extends Step {
+
+    @DataBoundSetter
+    public List<KubectlCredential> kubectlCredentials;
+
+    // Validate all the supported credentials visible to the job
+    @DataBoundSetter
+    public boolean allCredentials;
+
+    // Server and CA used for the credentials listed with allCredentials
+    @DataBoundSetter
+    public String serverUrl;
+
+    @DataBoundSetter
+    public String caCertificate;
+
+    @DataBoundSetter
+    public boolean failOnError = true;
+
+    @DataBoundConstructor
+    public ValidateKubeCredentialsStep() {
+    }
+
+    @Override
+    public final StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<List<Map<String, Object>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ValidateKubeCredentialsStep step;
+
+        Execution(ValidateKubeCredentialsStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected List<Map<String, Object>> run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+
+            List<KubectlCredential> targets = new ArrayList<>();
+            if (step.kubectlCredentials != null) {
+                targets.addAll(step.kubectlCredentials);
+            }
+            if (step.allCredentials) {
+                for (StandardCredentials c : CredentialsMatchers.filter(
+                        CredentialsProvider.lookupCredentialsInItem(StandardCredentials.class, run.getParent(),
+                                Jenkins.getAuthentication2(), URIRequirementBuilder.fromUri(step.serverUrl).build()),
+                        CredentialsLister.supportedCredentials)) {
+                    KubectlCredential target = new KubectlCredential();
+                    target.credentialsId = c.getId();
+                    target.serverUrl = step.serverUrl;
+                    target.caCertificate = step.caCertificate;
+                    targets.add(target);
+                }
+            }
+            if (targets.isEmpty()) {
+                throw new AbortException("[kubernetes-cli] no credentials to validate");
+            }
+
+            List<CredentialsValidator.Result> results = CredentialsValidator.get().validate(targets,
+                    id -> CredentialsProvider.findCredentialById(id, StandardCredentials.class, run,
+                            Collections.emptyList()));
+
+            List<Map<String, Object>> summary = new ArrayList<>();
+            int failed = 0;
+            for (CredentialsValidator.Result result : results) {
+                listener.getLogger().println("[kubernetes-cli] credentials " + result);
+                if (!result.isValid()) {
+                    failed++;
+                }
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("credentialsId", result.getCredentialsId());
+                entry.put("serverUrl", result.getServerUrl());
+                entry.put("valid", result.isValid());
+                entry.put("failedStage", result.getFailedStage() == null ? null : result.getFailedStage().name());
+                entry.put("message", result.getMessage());
+                entry.put("serverVersion", result.getServerVersion());
+                summary.add(entry);
+            }
+
+            if (failed > 0 && step.failOnError) {
+                throw new AbortException("[kubernetes-cli] " + failed + " of " + results.size()
+                        + " credentials failed validation");
+            }
+            return summary;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getDisplayName() {
+            return "Validate Kubernetes credentials";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getFunctionName() {
+            return "validateKubeCredentials";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the token of a {@link TokenSource} of the controller in the agent
+ * process until it is about to expire, so that the controller is only called
+ * back to refresh it. If the controller cannot be reached, the current token
+ * is served as long as it is valid.
+ */
+public final class CachingTokenSource implements TokenSource {
+    private static final Logger LOGGER = Logger.getLogger(CachingTokenSource.class.getName());
+
+    // Tokens are fetched again when less than this remains
+    static final long MIN_REMAINING_MILLIS = 2 * ExecToken.EXPIRY_MARGIN_MILLIS;
+
+    // Lifetime of the tokens without a known expiry
+    static final long UNKNOWN_EXPIRY_TTL_MILLIS = 60_000;
+
+    private final TokenSource source;
+
+    // Guarded by this
+    private ExecToken token;
+    private long refreshAfter;
+    private long expiresAt;
+
+    public CachingTokenSource(TokenSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the cached token, or fetches it from the controller if it is
+     * about to expire.
+     */
+    @Override
+    public synchronized ExecToken getToken() throws IOException {
+        long now = System.currentTimeMillis();
+        if (token != null && refreshAfter > now) {
+            return token;
+        }
+        try {
+            ExecToken fetched = source.getToken();
+            expiresAt = fetched.getExpiresAt() > 0 ? fetched.getExpiresAt() : now + UNKNOWN_EXPIRY_TTL_MILLIS;
+            refreshAfter = expiresAt - MIN_REMAINING_MILLIS;
+            token = fetched;
+            return fetched;
+        } catch (IOException | RuntimeException e) {
+            if (token != null && expiresAt > now) {
+                LOGGER.log(Level.FINE, "Unable to refresh the token, serving the current one", e);
+                return token;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Serves the tokens of a block to the {@link ExecCredentialHelper}, over a
+ * Unix domain socket only accessible to the user running the agent. Runs in
+ * the agent process.
+ *
+ * Tokens are kept in memory by a {@link CachingTokenSource} until they are
+ * about to expire, and are then fetched again from their {@link TokenSource}
+ * on the controller.
+ */
+final class ExecCredentialDaemon {
+    private static final Logger LOGGER = Logger.getLogger(ExecCredentialDaemon.class.getName());
+
+    // Daemons of this process, by session id
+    private static final ConcurrentMap<String, ExecCredentialDaemon> RUNNING = new ConcurrentHashMap<>();
+
+    private static final int MAX_REQUEST_BYTES = 1024;
+
+    private final Path dir;
+    private final ServerSocketChannel server;
+    private final ExecutorService executor;
+    // Caching sources, by user
+    private final Map<String, TokenSource> sources = new ConcurrentHashMap<>();
+
+    private ExecCredentialDaemon(String id, Path dir, ServerSocketChannel server) {
+        this.dir = dir;
+        this.server = server;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "kubernetes-cli exec credentials " + id);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a daemon, and installs the helper next to its socket.
+     *
+     * @param helper the class file of {@link ExecCredentialHelper}
+     */
+    static Info start(String id, byte[] helper) throws IOException {
+        // Short, as the length of socket paths is limited
+        Path dir = Files.createTempDirectory("kcli");
+        try {
+            if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+            }
+            Path classFile = dir.resolve(ExecCredentialHelper.class.getName().replace('.', '/') + ".class");
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, helper);
+
+            Path socket = dir.resolve("s");
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            ExecCredentialDaemon daemon = new ExecCredentialDaemon(id, dir, server);
+            if (RUNNING.putIfAbsent(id, daemon) != null) {
+                server.close();
+                throw new IOException("Exec credentials daemon " + id + " is already running");
+            }
+            daemon.executor.execute(daemon::accept);
+
+            String java = new File(System.getProperty("java.home"), "bin/java"
+                    + (File.pathSeparatorChar == ';' ? ".exe" : "")).getAbsolutePath();
+            return new Info(java, dir.toString(), socket.toString());
+        } catch (IOException | RuntimeException e) {
+            delete(dir);
+            throw e;
+        }
+    }
+
+    static void addSources(String id, Map<String, TokenSource> sources) throws IOException {
+        ExecCredentialDaemon daemon = RUNNING.get(id);
+        if (daemon == null) {
+            throw new IOException("Exec credentials daemon " + id + " is not running");
+        }
+        sources.forEach((user, source) -> daemon.sources.put(user, new CachingTokenSource(source)));
+    }
+
+    /**
+     * Stops a daemon and deletes its socket and helper.
+     *
+     * @return whether the daemon was running
+     */
+    static boolean stop(String id) {
+        ExecCredentialDaemon daemon = RUNNING.remove(id);
+        if (daemon == null) {
+            return false;
+        }
+        try {
+            daemon.server.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to close the socket of " + id, e);
+        }
+        daemon.executor.shutdownNow();
+        // Lets the proxies of the sources be unexported
+        daemon.sources.clear();
+        delete(daemon.dir);
+        return true;
+    }
+
+    private void accept() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel client = server.accept();
+                executor.execute(() -> serve(client));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // Including the rejections of a stopped executor
+                LOGGER.log(Level.FINE, "Unable to accept a connection", e);
+                if (executor.isShutdown()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            String user = readLine(Channels.newInputStream(channel));
+            String response;
+            try {
+                response = token(user).toExecCredential();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to get the token of " + user, e);
+                response = String.valueOf(e.getMessage());
+            }
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(response.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to serve the exec credentials helper", e);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (line.size() >= MAX_REQUEST_BYTES) {
+                throw new IOException("Request too long");
+            }
+            line.write(c);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the token of a user, cached by its {@link CachingTokenSource}.
+     */
+    ExecToken token(String user) throws IOException {
+        TokenSource source = sources.get(user);
+        if (source == null) {
+            throw new IOException("unknown user " + user);
+        }
+        return source.getToken();
+    }
+
+    private static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to delete " + dir, e);
+        }
+    }
+
+    /**
+     * Where the daemon listens, and how to start the helper.
+     */
+    static final class Info implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String java;
+        final String classpath;
+        final String socket;
+
+        Info(String java, String classpath, String socket) {
+            this.java = java;
+            this.classpath = classpath;
+            this.socket = socket;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The client-go exec credential plugin written in the kubeconfig files. It
+ * asks the {@link ExecCredentialDaemon} of the block for the credentials of
+ * a user, and prints them on the standard output.
+ *
+ * It runs in its own JVM, started by kubectl, so it must only depend on the
+ * JDK.
+ */
+public final class ExecCredentialHelper {
+    private ExecCredentialHelper() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: ExecCredentialHelper <socket> <user>");
+            System.exit(2);
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))) {
+            channel.write(ByteBuffer.wrap((args[1] + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            String response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            if (!response.startsWith("{")) {
+                System.err.println("[kubernetes-cli] unable to get the credentials: " + response);
+                System.exit(1);
+            }
+            System.out.print(response);
+            System.out.flush();
+        } catch (IOException e) {
+            System.err.println("[kubernetes-cli] unable to reach the credentials daemon of the agent, "
+                    + "is the withKubeConfig block over? " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
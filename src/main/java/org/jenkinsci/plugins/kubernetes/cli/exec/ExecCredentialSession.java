@@ -0,0 +1,343 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.CredentialsFingerprint;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.TokenCache;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import io.fabric8.kubernetes.api.model.AuthInfo;
+import io.fabric8.kubernetes.api.model.AuthInfoBuilder;
+import io.fabric8.kubernetes.api.model.Cluster;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+import io.fabric8.kubernetes.api.model.NamedAuthInfo;
+import io.fabric8.kubernetes.api.model.NamedCluster;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * The {@link ExecCredentialDaemon} of a block, seen from the controller.
+ *
+ * The users of the kubeconfig files authenticating with a token are replaced
+ * by an exec credential plugin, the {@link ExecCredentialHelper}, which gets
+ * the token from the daemon. The daemon calls the controller back through an
+ * exported {@link TokenSource} when the token is about to expire, so that
+ * tokens of {@link TokenProducer} credentials are refreshed for as long as
+ * the body runs, without rewriting the files.
+ *
+ * The exported sources are revoked when the daemon is stopped, so that a
+ * proxy kept by the agent cannot be used to get tokens after the block.
+ */
+public final class ExecCredentialSession {
+    private static final Logger LOGGER = Logger.getLogger(ExecCredentialSession.class.getName());
+
+    static final String API_VERSION = "client.authentication.k8s.io/v1";
+
+    // Sources exported by the running sessions, by session id
+    private static final ConcurrentMap<String, List<RevocableSource>> EXPORTED = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final VirtualChannel channel;
+    private final ExecCredentialDaemon.Info info;
+    private final Map<String, TokenSource> sources = new LinkedHashMap<>();
+
+    private ExecCredentialSession(String id, VirtualChannel channel, ExecCredentialDaemon.Info info) {
+        this.id = id;
+        this.channel = channel;
+        this.info = info;
+    }
+
+    /**
+     * Starts a daemon on the node of the workspace.
+     *
+     * @param workspace the workspace of the build
+     * @return the session, to rewrite the kubeconfig files with
+     * @throws IOException          if the daemon cannot be started
+     * @throws InterruptedException if interrupted
+     */
+    @NonNull
+    public static ExecCredentialSession start(@NonNull FilePath workspace)
+            throws IOException, InterruptedException {
+        String id = UUID.randomUUID().toString();
+        VirtualChannel channel = workspace.getChannel();
+        ExecCredentialDaemon.Info info = channel.call(new Start(id, helperClass()));
+        EXPORTED.put(id, new ArrayList<>());
+        return new ExecCredentialSession(id, channel, info);
+    }
+
+    /**
+     * Stops a daemon, after revoking its token sources, which are then
+     * unexported once the daemon drops them.
+     *
+     * @param workspace the workspace of the build, on the node of the daemon
+     * @param id        the id of the session
+     * @return whether the daemon was running
+     * @throws IOException          if the agent cannot be reached
+     * @throws InterruptedException if interrupted
+     */
+    public static boolean stop(@NonNull FilePath workspace, @NonNull String id)
+            throws IOException, InterruptedException {
+        List<RevocableSource> exported = EXPORTED.remove(id);
+        if (exported != null) {
+            synchronized (exported) {
+                exported.forEach(RevocableSource::revoke);
+            }
+        }
+        return workspace.getChannel().call(new Stop(id));
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Replaces the user of the current context of a kubeconfig by the exec
+     * credential plugin, if it authenticates with a token.
+     *
+     * @param config      the configuration, left untouched
+     * @param credentials the credentials the configuration was built from,
+     *                    null for in-cluster configurations
+     * @return the configuration to write
+     */
+    @NonNull
+    public Config rewrite(@NonNull Config config, @CheckForNull StandardCredentials credentials) {
+        NamedContext context = config.getContexts() == null ? null : config.getContexts().stream()
+                .filter(c -> c.getName() != null && c.getName().equals(config.getCurrentContext()))
+                .findFirst().orElse(null);
+        if (context == null || context.getContext() == null) {
+            return config;
+        }
+        String userName = context.getContext().getUser();
+        NamedAuthInfo user = findUser(config, userName);
+        if (user == null || user.getUser() == null || Util.fixEmpty(user.getUser().getToken()) == null
+                || user.getUser().getExec() != null) {
+            return config;
+        }
+        NamedCluster cluster = config.getClusters() == null ? null : config.getClusters().stream()
+                .filter(c -> c.getName() != null && c.getName().equals(context.getContext().getCluster()))
+                .findFirst().orElse(null);
+
+        RevocableSource source = new RevocableSource(
+                sourceFor(credentials, user.getUser(), cluster == null ? null : cluster.getCluster()));
+        List<RevocableSource> exported = EXPORTED.get(id);
+        if (exported == null) {
+            throw new IllegalStateException("Exec credentials daemon " + id + " is stopped");
+        }
+        synchronized (exported) {
+            exported.add(source);
+        }
+        String key;
+        synchronized (sources) {
+            key = String.valueOf(sources.size());
+            sources.put(key, channel.export(TokenSource.class, source));
+        }
+
+        Config rewritten = new ConfigBuilder(config).build();
+        AuthInfo exec = new AuthInfoBuilder()
+                .withNewExec()
+                .withApiVersion(API_VERSION)
+                .withCommand(info.java)
+                .withArgs(Arrays.asList("-Xshare:auto", "-XX:TieredStopAtLevel=1", "-cp", info.classpath,
+                        ExecCredentialHelper.class.getName(), info.socket, key))
+                .withInteractiveMode("Never")
+                .endExec()
+                .build();
+        findUser(rewritten, userName).setUser(exec);
+        return rewritten;
+    }
+
+    /**
+     * Sends the token sources of the rewritten files to the daemon.
+     *
+     * @throws IOException          if the daemon cannot be reached
+     * @throws InterruptedException if interrupted
+     */
+    public void publish() throws IOException, InterruptedException {
+        Map<String, TokenSource> published;
+        synchronized (sources) {
+            published = new LinkedHashMap<>(sources);
+        }
+        channel.call(new AddSources(id, published));
+    }
+
+    /**
+     * Returns the source of the token of a user: the credentials the file
+     * was built from, if they produce tokens, or the token of the file
+     * otherwise.
+     */
+    private static TokenSource sourceFor(@CheckForNull StandardCredentials credentials, AuthInfo user,
+            @CheckForNull Cluster cluster) {
+        TokenSource producer = producerSourceFor(credentials, cluster);
+        if (producer != null) {
+            return producer;
+        }
+        ExecToken fixed = ExecToken.of(user.getToken());
+        return () -> fixed;
+    }
+
+    /**
+     * Returns a source producing the tokens of credentials on the controller,
+     * through the controller-side cache.
+     *
+     * @param credentials the credentials
+     * @param cluster     the cluster the tokens are for
+     * @return the source, or null if the credentials do not produce tokens
+     */
+    @CheckForNull
+    public static TokenSource producerSourceFor(@CheckForNull StandardCredentials credentials,
+            @CheckForNull Cluster cluster) {
+        if (credentials instanceof TokenProducer && cluster != null) {
+            try {
+                return new ProducerSource(TokenCache.get().wrap(credentials.getId(),
+                        CredentialsFingerprint.of(credentials), (TokenProducer) credentials),
+                        cluster.getServer(), decode(cluster.getCertificateAuthorityData()),
+                        Boolean.TRUE.equals(cluster.getInsecureSkipTlsVerify()));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Not refreshing the token of " + credentials.getId(), e);
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static String decode(@CheckForNull String base64) {
+        return base64 == null ? null : new String(Base64.getDecoder().decode(base64), StandardCharsets.UTF_8);
+    }
+
+    @CheckForNull
+    private static NamedAuthInfo findUser(Config config, String name) {
+        return config.getUsers() == null ? null : config.getUsers().stream()
+                .filter(u -> u.getName() != null && u.getName().equals(name)).findFirst().orElse(null);
+    }
+
+    private static byte[] helperClass() throws IOException {
+        String resource = ExecCredentialHelper.class.getSimpleName() + ".class";
+        try (InputStream in = ExecCredentialHelper.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Missing " + resource);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Produces the tokens from the credentials, through the controller-side
+     * cache.
+     */
+    private static final class ProducerSource implements TokenSource {
+        private final TokenProducer producer;
+        private final String serviceAddress;
+        private final String caCertData;
+        private final boolean skipTlsVerify;
+
+        ProducerSource(TokenProducer producer, String serviceAddress, String caCertData, boolean skipTlsVerify) {
+            this.producer = producer;
+            this.serviceAddress = serviceAddress;
+            this.caCertData = caCertData;
+            this.skipTlsVerify = skipTlsVerify;
+        }
+
+        @Override
+        public ExecToken getToken() throws IOException {
+            return ExecToken.of(producer.getToken(serviceAddress, caCertData, skipTlsVerify));
+        }
+    }
+
+    /**
+     * Source exported to the agent, which stops serving tokens once the
+     * session is stopped.
+     */
+    public static final class RevocableSource implements TokenSource {
+        private final TokenSource delegate;
+        private final AtomicBoolean revoked = new AtomicBoolean();
+
+        public RevocableSource(TokenSource delegate) {
+            this.delegate = delegate;
+        }
+
+        public void revoke() {
+            revoked.set(true);
+        }
+
+        @Override
+        public ExecToken getToken() throws IOException {
+            if (revoked.get()) {
+                throw new IOException("[kubernetes-cli] the credentials of this block are revoked");
+            }
+            return delegate.getToken();
+        }
+    }
+
+    private static final class Start extends MasterToSlaveCallable<ExecCredentialDaemon.Info, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final byte[] helper;
+
+        Start(String id, byte[] helper) {
+            this.id = id;
+            this.helper = helper;
+        }
+
+        @Override
+        public ExecCredentialDaemon.Info call() throws IOException {
+            return ExecCredentialDaemon.start(id, helper);
+        }
+    }
+
+    private static final class AddSources extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final Map<String, TokenSource> sources;
+
+        AddSources(String id, Map<String, TokenSource> sources) {
+            this.id = id;
+            this.sources = sources;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            ExecCredentialDaemon.addSources(id, sources);
+            return null;
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Boolean, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Boolean call() {
+            return ExecCredentialDaemon.stop(id);
+        }
+    }
+}
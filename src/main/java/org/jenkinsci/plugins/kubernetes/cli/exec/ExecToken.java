@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.TokenCache;
+
+/**
+ * A token and its expiry, if known.
+ */
+public final class ExecToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final long EXPIRY_MARGIN_MILLIS = 30_000;
+
+    private final String token;
+    // Epoch millis, 0 if unknown
+    private final long expiresAt;
+
+    ExecToken(String token, long expiresAt) {
+        this.token = token;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Wraps a token, reading its expiry if it is a JWT.
+     *
+     * @param token the token
+     * @return the wrapped token
+     */
+    public static ExecToken of(String token) {
+        Instant expiry = TokenCache.jwtExpiryOf(token);
+        return new ExecToken(token, expiry == null ? 0 : expiry.toEpochMilli());
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Formats the token as the {@code ExecCredential} object kubectl expects.
+     */
+    String toExecCredential() {
+        StringBuilder json = new StringBuilder("{\"apiVersion\":\"").append(ExecCredentialSession.API_VERSION)
+                .append("\",\"kind\":\"ExecCredential\",\"status\":{\"token\":\"");
+        for (char c : token.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+        if (expiresAt > 0) {
+            // client-go only caches the token within the kubectl process, each command runs the helper again.
+            // Reported a bit early, so that a long-running command, such as a watch, asks for a new one while the
+            // daemon considers the current one as expiring
+            json.append(",\"expirationTimestamp\":\"")
+                    .append(Instant.ofEpochSecond((expiresAt - EXPIRY_MARGIN_MILLIS) / 1000)).append('"');
+        }
+        return json.append("}}").toString();
+    }
+}
@@ -0,0 +1,18 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import java.io.IOException;
+
+/**
+ * Produces the token of a user, on the controller. Exported to the agent, so
+ * that the {@link ExecCredentialDaemon} can call it back when its token is
+ * about to expire.
+ */
+public interface TokenSource {
+    /**
+     * Returns the current token.
+     *
+     * @return the token
+     * @throws IOException if the token cannot be produced
+     */
+    ExecToken getToken() throws IOException;
+}
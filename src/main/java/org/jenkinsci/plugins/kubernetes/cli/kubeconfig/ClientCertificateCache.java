@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.kubernetes.auth.KubernetesAuth;
+import org.jenkinsci.plugins.kubernetes.auth.impl.KubernetesAuthCertificate;
+
+import hudson.util.Secret;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-side cache of the client certificates and keys extracted from
+ * {@link StandardCertificateCredentials}, so that their keystore is not
+ * unlocked on every build.
+ *
+ * Private keys are kept encrypted in memory with a key that never leaves the
+ * controller process. Entries are replaced as soon as the content of the
+ * credentials changes, and the oldest ones are dropped once there are more
+ * than {@link #MAX_ENTRIES}.
+ */
+public final class ClientCertificateCache {
+    private static final Logger LOGGER = Logger.getLogger(ClientCertificateCache.class.getName());
+
+    static final int MAX_ENTRIES = SystemProperties.getInteger(ClientCertificateCache.class.getName() + ".maxEntries",
+            256);
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private static final ClientCertificateCache INSTANCE = new ClientCertificateCache();
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final SecretKey sealingKey;
+    private final SecureRandom random = new SecureRandom();
+    // Order of the extractions, to evict the oldest entries first
+    private final AtomicLong sequence = new AtomicLong();
+
+    ClientCertificateCache() {
+        this(MAX_ENTRIES);
+    }
+
+    ClientCertificateCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(128);
+            this.sealingKey = generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES is not available", e);
+        }
+    }
+
+    public static ClientCertificateCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns Kubernetes credentials for the client certificate and key of the
+     * given credentials.
+     *
+     * @param credentials credentials holding the keystore
+     * @param fingerprint fingerprint of the content of the credentials
+     * @return the Kubernetes credentials, or null if the keystore could not be
+     *         read, in which case nothing is cached
+     */
+    @CheckForNull
+    public KubernetesAuth authFor(@NonNull StandardCertificateCredentials credentials, @NonNull String fingerprint) {
+        return authFor(credentials, fingerprint, () -> { });
+    }
+
+    /**
+     * Returns Kubernetes credentials for the client certificate and key of the
+     * given credentials, telling when they are not served from the cache.
+     *
+     * @param onExtract called when the keystore is unlocked instead
+     */
+    @CheckForNull
+    KubernetesAuth authFor(@NonNull StandardCertificateCredentials credentials, @NonNull String fingerprint,
+            @NonNull Runnable onExtract) {
+        Entry entry = entries.get(credentials.getId());
+        if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+            onExtract.run();
+            entry = extract(credentials, fingerprint);
+            if (entry == null) {
+                return null;
+            }
+            if (entries.put(credentials.getId(), entry) == null) {
+                evictIfNeeded();
+            }
+        }
+        return new KubernetesAuthCertificate(entry.certificate, unseal(entry.sealedKey));
+    }
+
+    /**
+     * Drops all the cached certificates.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops the oldest entries once there are too many of them.
+     */
+    private void evictIfNeeded() {
+        while (entries.size() > maxEntries) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().sequence))
+                    .ifPresent(e -> entries.remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    private Entry extract(StandardCertificateCredentials credentials, String fingerprint) {
+        try {
+            KeyStore keyStore = credentials.getKeyStore();
+            Enumeration<String> aliases = keyStore.aliases();
+            if (!aliases.hasMoreElements()) {
+                return null;
+            }
+            // Same entry as the one used by KubernetesAuthKeystore
+            String alias = aliases.nextElement();
+            Key key = keyStore.getKey(alias, Secret.toString(credentials.getPassword()).toCharArray());
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (key == null || certificate == null) {
+                return null;
+            }
+
+            String encodedCertificate = CertificateHelper.wrapCertificate(
+                    Base64.getEncoder().encodeToString(certificate.getEncoded()));
+            String encodedKey = CertificateHelper.wrapPrivateKey(Base64.getEncoder().encodeToString(key.getEncoded()));
+            return new Entry(fingerprint, encodedCertificate, seal(encodedKey), sequence.incrementAndGet());
+        } catch (GeneralSecurityException e) {
+            LOGGER.log(Level.FINE, "Unable to extract the client certificate of " + credentials.getId(), e);
+            return null;
+        }
+    }
+
+    private byte[] seal(String value) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, sealingKey, new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] encrypted = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array();
+    }
+
+    private String unseal(byte[] sealed) {
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, sealingKey, new GCMParameterSpec(TAG_LENGTH, sealed, 0, IV_LENGTH));
+            return new String(cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to decrypt cached private key", e);
+        }
+    }
+
+    private static final class Entry {
+        final String fingerprint;
+        final String certificate;
+        final byte[] sealedKey;
+        final long sequence;
+
+        Entry(String fingerprint, String certificate, byte[] sealedKey, long sequence) {
+            this.fingerprint = fingerprint;
+            this.certificate = certificate;
+            this.sealedKey = sealedKey;
+            this.sequence = sequence;
+        }
+    }
+}
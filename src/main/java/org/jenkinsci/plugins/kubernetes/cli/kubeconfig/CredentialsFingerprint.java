@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.CertificateCredentialsImpl;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+import hudson.model.Items;
+import hudson.util.Secret;
+
+/**
+ * Computes a digest of the content of credentials, used to key the caches
+ * derived from them. Any update of a credential results in a new fingerprint.
+ */
+public abstract class CredentialsFingerprint {
+    private static final Logger LOGGER = Logger.getLogger(CredentialsFingerprint.class.getName());
+
+    /**
+     * Returns the fingerprint of the given credentials.
+     *
+     * Other credentials types are fingerprinted by their persisted form, in
+     * which secrets are encrypted. As a last resort, credentials that cannot be
+     * serialized are fingerprinted by identity, which still changes whenever a
+     * store replaces the instance on update.
+     *
+     * @param credentials credentials to fingerprint
+     * @return hexadecimal SHA-256 digest
+     * @throws IOException if the content of the credentials cannot be read
+     */
+    @NonNull
+    public static String of(@NonNull StandardCredentials credentials) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, credentials.getClass().getName());
+        update(digest, credentials.getId());
+        update(digest, credentials.getDescription());
+
+        if (credentials instanceof StandardUsernamePasswordCredentials) {
+            StandardUsernamePasswordCredentials c = (StandardUsernamePasswordCredentials) credentials;
+            update(digest, c.getUsername());
+            update(digest, Secret.toString(c.getPassword()));
+        } else if (credentials instanceof StringCredentials) {
+            update(digest, Secret.toString(((StringCredentials) credentials).getSecret()));
+        } else if (credentials instanceof FileCredentials) {
+            FileCredentials c = (FileCredentials) credentials;
+            update(digest, c.getFileName());
+            try (InputStream content = c.getContent()) {
+                digest.update(content.readAllBytes());
+            }
+        } else if (credentials instanceof CertificateCredentialsImpl) {
+            CertificateCredentialsImpl c = (CertificateCredentialsImpl) credentials;
+            digest.update(c.getKeyStoreSource().getKeyStoreBytes());
+            update(digest, Secret.toString(c.getPassword()));
+        } else {
+            update(digest, persistedFormOf(credentials));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the fingerprint of an arbitrary content.
+     *
+     * @param content bytes to fingerprint
+     * @return hexadecimal SHA-256 digest
+     */
+    @NonNull
+    public static String of(@NonNull byte[] content) {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    private static String persistedFormOf(StandardCredentials credentials) {
+        try {
+            return Items.XSTREAM2.toXML(credentials);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to serialize the credentials " + credentials.getId()
+                    + ", fingerprinting them by identity", e);
+            return Integer.toHexString(System.identityHashCode(credentials));
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // Separator, so that adjacent fields cannot be confused
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Records the usage of credentials by builds.
+ *
+ * Each credential is tracked once per build, and the fingerprint updates are
+ * written in batches by a background task instead of on the thread setting up
+ * the kubeconfig. Pending updates of a build are written at the latest when it
+ * completes.
+ */
+public final class CredentialsUsageTracker {
+    private static final Logger LOGGER = Logger.getLogger(CredentialsUsageTracker.class.getName());
+
+    static final long BATCH_DELAY_MS = SystemProperties.getLong(
+            CredentialsUsageTracker.class.getName() + ".batchDelayMillis", 1000L);
+
+    private static final CredentialsUsageTracker INSTANCE = new CredentialsUsageTracker(
+            task -> Timer.get().schedule(task, BATCH_DELAY_MS, TimeUnit.MILLISECONDS));
+
+    // Credentials already tracked for each build, weak so that builds are not retained
+    private final Map<Run<?, ?>, Set<String>> tracked = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Credentials waiting to be written, guarded by this
+    private final Map<Run<?, ?>, Map<String, StandardCredentials>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    private final Consumer<Runnable> scheduler;
+
+    CredentialsUsageTracker(Consumer<Runnable> scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public static CredentialsUsageTracker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records that a build uses the given credentials.
+     *
+     * @param build       the build using the credentials
+     * @param credentials the credentials
+     * @param fingerprint fingerprint of the content of the credentials
+     */
+    public void track(@NonNull Run<?, ?> build, @NonNull StandardCredentials credentials,
+            @NonNull String fingerprint) {
+        String key = credentials.getId() + ":" + fingerprint;
+        if (!tracked.computeIfAbsent(build, b -> Collections.synchronizedSet(new HashSet<>())).add(key)) {
+            return;
+        }
+
+        boolean schedule;
+        synchronized (this) {
+            pending.computeIfAbsent(build, b -> new LinkedHashMap<>()).put(key, credentials);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            scheduler.accept(this::flush);
+        }
+    }
+
+    /**
+     * Writes all the pending usages.
+     */
+    void flush() {
+        Map<Run<?, ?>, Map<String, StandardCredentials>> batch;
+        synchronized (this) {
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+        batch.forEach(CredentialsUsageTracker::write);
+    }
+
+    /**
+     * Writes the pending usages of a build and forgets about it.
+     *
+     * @param build the build
+     */
+    public void flush(@NonNull Run<?, ?> build) {
+        Map<String, StandardCredentials> credentials;
+        synchronized (this) {
+            credentials = pending.remove(build);
+        }
+        tracked.remove(build);
+        if (credentials != null) {
+            write(build, credentials);
+        }
+    }
+
+    synchronized int pendingCount() {
+        return pending.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private static void write(Run<?, ?> build, Map<String, StandardCredentials> credentials) {
+        try {
+            CredentialsProvider.trackAll(build, new ArrayList<>(credentials.values()));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to track the usage of credentials by " + build, e);
+        }
+    }
+
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            get().flush(run);
+        }
+    }
+}
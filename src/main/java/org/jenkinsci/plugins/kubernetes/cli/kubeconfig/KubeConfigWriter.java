@@ -3,16 +3,27 @@ package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
 import io.fabric8.kubernetes.client.utils.Serialization;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
 import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import org.jenkinsci.plugins.kubernetes.auth.KubernetesAuth;
 import org.jenkinsci.plugins.kubernetes.auth.KubernetesAuthConfig;
 import org.jenkinsci.plugins.kubernetes.auth.KubernetesAuthException;
 import org.jenkinsci.plugins.kubernetes.auth.impl.KubernetesAuthKubeconfig;
+import org.jenkinsci.plugins.kubernetes.auth.impl.KubernetesAuthToken;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics.Phase;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
 import org.jenkinsci.plugins.kubernetes.credentials.Utils;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
 
 import hudson.AbortException;
 import hudson.EnvVars;
@@ -20,6 +31,7 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Run;
 import io.fabric8.kubernetes.api.model.Cluster;
+import io.fabric8.kubernetes.api.model.Config;
 import io.fabric8.kubernetes.api.model.ConfigBuilder;
 import io.fabric8.kubernetes.api.model.ConfigFluent;
 import io.fabric8.kubernetes.api.model.NamedCluster;
@@ -34,6 +46,8 @@ public class KubeConfigWriter {
     private static final String DEFAULT_CONTEXTNAME = "k8s";
     private static final String CLUSTERNAME = "k8s";
 
+    private static final SingleFlight<List<String>, ConvertedCredentials> CONVERSIONS = new SingleFlight<>();
+
     private final String serverUrl;
     private final String credentialsId;
     private final String caCertificate;
@@ -44,6 +58,8 @@ public class KubeConfigWriter {
     private final FilePath workspace;
     private final Launcher launcher;
     private final Run<?, ?> build;
+    private BiFunction<Config, StandardCredentials, Config> configRewriter;
+    private KubeconfigRefresher refresher;
 
     public KubeConfigWriter(@NonNull String serverUrl, String credentialsId,
             String caCertificate, String clusterName, String contextName, String namespace,
@@ -60,6 +76,45 @@ public class KubeConfigWriter {
         this.restrictKubeConfigAccess = restrictKubeConfigAccess;
     }
 
+    /**
+     * Sets a transformation applied to the configuration right before it is
+     * written, such as pointing it to a proxy.
+     *
+     * @param configRewriter the transformation
+     * @return this writer
+     */
+    public KubeConfigWriter withConfigRewriter(UnaryOperator<Config> configRewriter) {
+        this.configRewriter = configRewriter == null ? null : (config, credentials) -> configRewriter.apply(config);
+        return this;
+    }
+
+    /**
+     * Sets a transformation applied to the configuration right before it is
+     * written, given the credentials it was built from, so that it does not
+     * have to look them up again.
+     *
+     * @param configRewriter the transformation, called with null credentials
+     *                       for in-cluster configurations
+     * @return this writer
+     */
+    public KubeConfigWriter withCredentialsRewriter(
+            BiFunction<Config, StandardCredentials, Config> configRewriter) {
+        this.configRewriter = configRewriter;
+        return this;
+    }
+
+    /**
+     * Sets the refresher rewriting the files before the tokens they contain
+     * expire.
+     *
+     * @param refresher the refresher of the block
+     * @return this writer
+     */
+    public KubeConfigWriter withRefresher(KubeconfigRefresher refresher) {
+        this.refresher = refresher;
+        return this;
+    }
+
     private static ConfigBuilder setNamedCluster(ConfigBuilder configBuilder, NamedCluster cluster) {
         return existingOrNewCluster(configBuilder, cluster.getName())
                 .withName(cluster.getName())
@@ -112,38 +167,201 @@ public class KubeConfigWriter {
      * @throws InterruptedException on file operations
      */
     public String writeKubeConfig() throws IOException, InterruptedException {
-        ConfigBuilder configBuilder;
-
         if (credentialsId == null || credentialsId.isEmpty()) {
-            configBuilder = getConfigBuilderInCluster();
-        } else {
-            // Lookup for the credentials on Jenkins
-            final StandardCredentials credentials = CredentialsProvider.findCredentialById(credentialsId,
-                    StandardCredentials.class, build, Collections.emptyList());
-            if (credentials == null) {
-                throw new AbortException("[kubernetes-cli] unable to find credentials with id '" + credentialsId + "'");
+            long start = System.nanoTime();
+            Config config = getConfigBuilderInCluster().build();
+            if (configRewriter != null) {
+                config = configRewriter.apply(config, null);
             }
+            KubeconfigMetrics.get().record(build, Phase.CONFIG_BUILD, KubeconfigMetrics.IN_CLUSTER,
+                    System.nanoTime() - start);
+            return writeConfigFile(config, KubeconfigMetrics.IN_CLUSTER).getRemote();
+        }
+
+        // Lookup for the credentials on Jenkins
+        long start = System.nanoTime();
+        final StandardCredentials credentials = CredentialsProvider.findCredentialById(credentialsId,
+                StandardCredentials.class, build, Collections.emptyList());
+        if (credentials == null) {
+            throw new AbortException("[kubernetes-cli] unable to find credentials with id '" + credentialsId + "'");
+        }
+        KubeconfigMetrics.get().record(build, Phase.CREDENTIALS_LOOKUP, KubeconfigMetrics.typeOf(credentials),
+                System.nanoTime() - start);
+        return writeKubeConfig(credentials);
+    }
+
+    /**
+     * Write a configuration file for kubectl to disk, for credentials already
+     * looked up by the caller.
+     *
+     * @param credentials the credentials, whose id is the one of this writer
+     * @return path to kubeconfig file
+     * @throws IOException          on file operations
+     * @throws InterruptedException on file operations
+     */
+    public String writeKubeConfig(@NonNull StandardCredentials credentials) throws IOException, InterruptedException {
+        final String fingerprint = CredentialsFingerprint.of(credentials);
+        CredentialsUsageTracker.get().track(this.build, credentials, fingerprint);
+
+        final String type = KubeconfigMetrics.typeOf(credentials);
+        long start = System.nanoTime();
+        Config config = getConfigBuilderWithAuth(credentials, fingerprint).build();
+        if (configRewriter != null) {
+            config = configRewriter.apply(config, credentials);
+        }
+        KubeconfigMetrics.get().record(build, Phase.CONFIG_BUILD, type, System.nanoTime() - start);
+        FilePath configFile = writeConfigFile(config, type);
+        if (refresher != null && configRewriter == null && credentials instanceof TokenProducer) {
+            refresher.schedule(this, credentials, configFile, config);
+        }
+        return configFile.getRemote();
+    }
+
+    private FilePath writeConfigFile(Config config, String type) throws IOException, InterruptedException {
+        KubeconfigMetrics metrics = KubeconfigMetrics.get();
+        long start = System.nanoTime();
+        String content = Serialization.asYaml(config);
+        long serialized = System.nanoTime();
+        metrics.record(build, Phase.SERIALIZATION, type, serialized - start);
+
+        // Write configuration to disk
+        FilePath configFile = getTempKubeconfigFilePath();
+        // Recorded before writing, so that it is swept even if the build is killed right after
+        KubeconfigFileRegistry.get().register(configFile, build);
+        configFile.write(content, String.valueOf(StandardCharsets.UTF_8));
+        long written = System.nanoTime();
+        metrics.record(build, Phase.REMOTE_WRITE, type, written - serialized);
+        metrics.recordWrite(build, utf8Length(content));
+        if (isRestricted()) {
+            configFile.chmod(0600);
+            metrics.record(build, Phase.CHMOD, type, System.nanoTime() - written);
+        }
+        return configFile;
+    }
+
+    /**
+     * Returns the size of a string encoded in UTF-8, without encoding it.
+     * Unpaired surrogates count for one byte, as they are replaced by the
+     * encoder.
+     */
+    static long utf8Length(CharSequence content) {
+        long length = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < content.length()
+                    && Character.isLowSurrogate(content.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private boolean isRestricted() {
+        return restrictKubeConfigAccess != null && restrictKubeConfigAccess;
+    }
+
+    /**
+     * Build the configuration for the given credentials without writing it.
+     * Unlike {@link #writeKubeConfig()}, the writer may be created without a
+     * build, in which case the parameters are not interpolated.
+     *
+     * @param credentials the credentials
+     * @return the configuration
+     * @throws IOException          if the credentials cannot be converted
+     * @throws InterruptedException if interrupted while converting
+     */
+    public Config buildConfig(@NonNull StandardCredentials credentials) throws IOException, InterruptedException {
+        return getConfigBuilderWithAuth(credentials, CredentialsFingerprint.of(credentials)).build();
+    }
 
-            CredentialsProvider.track(this.build, credentials);
+    /**
+     * Build the configuration for the given credentials. Concurrent builds
+     * using the same credentials with the same parameters share a single
+     * conversion.
+     */
+    private ConfigBuilder getConfigBuilderWithAuth(StandardCredentials credentials, String fingerprint)
+            throws IOException, InterruptedException {
+        final String server = getServerUrl();
+        final String context = getContextNameOrDefault();
+        final String cluster = getClusterNameOrDefault();
+        final KubernetesAuthConfig authConfig = new KubernetesAuthConfig(server, caCertificate,
+                !wasProvided(caCertificate));
+
+        if (credentials instanceof FileCredentials) {
+            ConfigBuilder cached = KubeconfigCache.get().get(credentials.getId(), fingerprint);
+            if (cached != null) {
+                KubeconfigMetrics.get().recordCacheHit(build);
+                return completeConfigBuilderWithAuth(cached, true);
+            }
+        }
 
+        List<String> key = Arrays.asList(credentials.getId(), fingerprint, server, caCertificate, context, cluster);
+        // Whether this build converted the credentials, and had to produce them again
+        AtomicBoolean converted = new AtomicBoolean();
+        AtomicBoolean missed = new AtomicBoolean();
+        long start = System.nanoTime();
+        ConvertedCredentials conversion = CONVERSIONS.execute(key, () -> {
+            converted.set(true);
             // Convert into Kubernetes credentials
-            KubernetesAuth auth = AuthenticationTokens.convert(KubernetesAuth.class, credentials);
+            KubernetesAuth auth = convertCredentials(credentials, fingerprint, () -> missed.set(true));
             if (auth == null) {
                 throw new AbortException(
                         "[kubernetes-cli] unsupported credentials type " + credentials.getClass().getName());
             }
-
-            configBuilder = getConfigBuilderWithAuth(credentials.getId(), auth);
+            Config config;
+            try {
+                config = auth.buildConfigBuilder(authConfig, context, cluster, credentials.getId()).build();
+            } catch (KubernetesAuthException e) {
+                throw new AbortException(e.getMessage());
+            }
+            if (auth instanceof KubernetesAuthKubeconfig) {
+                // Raw kubeconfigs don't depend on the parameters, keep them parsed
+                KubeconfigCache.get().put(credentials.getId(), fingerprint, config);
+                return new ConvertedCredentials(config, true);
+            }
+            return new ConvertedCredentials(config, false);
+        });
+        KubeconfigMetrics.get().record(build, Phase.AUTH_CONVERSION, KubeconfigMetrics.typeOf(credentials),
+                System.nanoTime() - start);
+        if (!converted.get() || !missed.get()) {
+            KubeconfigMetrics.get().recordCacheHit(build);
         }
 
-        // Write configuration to disk
-        FilePath configFile = getTempKubeconfigFilePath();
-        configFile.write(Serialization.asYaml(configBuilder.build()),
-                String.valueOf(StandardCharsets.UTF_8));
-        if (restrictKubeConfigAccess != null && restrictKubeConfigAccess) {
-            configFile.chmod(0600);
+        // Each caller completes its own copy of the shared configuration
+        return completeConfigBuilderWithAuth(new ConfigBuilder(conversion.config), conversion.rawKubeconfig);
+    }
+
+    /**
+     * Convert Jenkins credentials into Kubernetes ones, serving the results that
+     * are expensive to produce from the controller-side caches.
+     *
+     * @param onMiss called if the credentials are not served from the caches
+     * @return the Kubernetes credentials, or null if the type is not supported
+     */
+    private static KubernetesAuth convertCredentials(StandardCredentials credentials, String fingerprint,
+            Runnable onMiss) {
+        if (credentials instanceof TokenProducer) {
+            return new KubernetesAuthToken(
+                    TokenCache.get().wrap(credentials.getId(), fingerprint, (TokenProducer) credentials, onMiss));
         }
-        return configFile.getRemote();
+        if (credentials instanceof StandardCertificateCredentials) {
+            KubernetesAuth auth = ClientCertificateCache.get().authFor((StandardCertificateCredentials) credentials,
+                    fingerprint, onMiss);
+            if (auth != null) {
+                return auth;
+            }
+        }
+        onMiss.run();
+        return AuthenticationTokens.convert(KubernetesAuth.class, credentials);
     }
 
     // getConfigBuilderInCluster() starts an empty configBuilder
@@ -158,21 +376,25 @@ public class KubeConfigWriter {
         ConfigBuilder configBuilder;
         try {
             // Build an initial Kubeconfig builder from the credentials
-            KubernetesAuthConfig authConfig = new KubernetesAuthConfig(getServerUrl(), caCertificate,
-                    !wasProvided(caCertificate));
-            configBuilder = auth.buildConfigBuilder(authConfig, getContextNameOrDefault(), getClusterNameOrDefault(),
-                    credentialsId);
-
-            // Set additional values of the Kubeconfig
-            if (auth instanceof KubernetesAuthKubeconfig) {
-                configBuilder = completeKubeconfigConfigBuilder(configBuilder);
-            } else {
-                configBuilder = completeConfigBuilder(configBuilder);
-            }
+            configBuilder = auth.buildConfigBuilder(getAuthConfig(), getContextNameOrDefault(),
+                    getClusterNameOrDefault(), credentialsId);
         } catch (KubernetesAuthException e) {
             throw new AbortException(e.getMessage());
         }
-        return configBuilder;
+        return completeConfigBuilderWithAuth(configBuilder, auth instanceof KubernetesAuthKubeconfig);
+    }
+
+    private KubernetesAuthConfig getAuthConfig() throws IOException, InterruptedException {
+        return new KubernetesAuthConfig(getServerUrl(), caCertificate, !wasProvided(caCertificate));
+    }
+
+    private ConfigBuilder completeConfigBuilderWithAuth(ConfigBuilder configBuilder, boolean rawKubeconfig)
+            throws IOException, InterruptedException {
+        // Set additional values of the Kubeconfig
+        if (rawKubeconfig) {
+            return completeKubeconfigConfigBuilder(configBuilder);
+        }
+        return completeConfigBuilder(configBuilder);
     }
 
     private ConfigBuilder completeConfigBuilder(ConfigBuilder configBuilder) throws IOException, InterruptedException {
@@ -192,7 +414,7 @@ public class KubeConfigWriter {
 
         if (wasProvided(contextName)) {
             currentContext = getContextName();
-            if (!hasContext(configBuilder, currentContext)) {
+            if (!hasContext(configBuilder, currentContext) && launcher != null) {
                 // There is not much sense to create a new context in a raw kubeconfig file as
                 // it would have no
                 // configured credentials. Print a warning
@@ -248,8 +470,7 @@ public class KubeConfigWriter {
      * @return namespace.
      */
     private String getNamespace() throws IOException, InterruptedException {
-        final EnvVars env = build.getEnvironment(launcher.getListener());
-        return env.expand(namespace);
+        return expand(namespace);
     }
 
     /**
@@ -270,8 +491,7 @@ public class KubeConfigWriter {
      * @return contextName.
      */
     private String getContextName() throws IOException, InterruptedException {
-        final EnvVars env = build.getEnvironment(launcher.getListener());
-        return env.expand(contextName);
+        return expand(contextName);
     }
 
     /**
@@ -292,8 +512,7 @@ public class KubeConfigWriter {
      * @return clusterName.
      */
     private String getClusterName() throws IOException, InterruptedException {
-        final EnvVars env = build.getEnvironment(launcher.getListener());
-        return env.expand(clusterName);
+        return expand(clusterName);
     }
 
     /**
@@ -302,8 +521,20 @@ public class KubeConfigWriter {
      * @return serverUrl
      */
     private String getServerUrl() throws IOException, InterruptedException {
+        return expand(serverUrl);
+    }
+
+    /**
+     * Interpolates the environment variables of the build, if any.
+     *
+     * @return the interpolated value.
+     */
+    private String expand(String value) throws IOException, InterruptedException {
+        if (build == null) {
+            return value;
+        }
         final EnvVars env = build.getEnvironment(launcher.getListener());
-        return env.expand(serverUrl);
+        return env.expand(value);
     }
 
     private FilePath getTempKubeconfigFilePath() throws IOException, InterruptedException {
@@ -315,4 +546,18 @@ public class KubeConfigWriter {
 
         return workspace.createTempFile(".kube", "config");
     }
+
+    /**
+     * Result of the conversion of credentials, shared between concurrent builds.
+     * The configuration must not be modified.
+     */
+    private static final class ConvertedCredentials {
+        private final Config config;
+        private final boolean rawKubeconfig;
+
+        ConvertedCredentials(Config config, boolean rawKubeconfig) {
+            this.config = config;
+            this.rawKubeconfig = rawKubeconfig;
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-side cache of the raw kubeconfig files stored in
+ * {@link FileCredentials}, kept parsed so that they are not read from YAML on
+ * every build.
+ *
+ * Cached configurations are never handed out: callers get a
+ * {@link ConfigBuilder} copy they are free to edit. The copy is a deep one, as
+ * the builders of fabric8 copy every nested object, but it only allocates the
+ * objects of the configuration, without reading YAML again. Entries are
+ * replaced as soon as the content of the credentials changes, and the least
+ * recently used ones are dropped once there are more than
+ * {@link #MAX_ENTRIES}.
+ */
+public final class KubeconfigCache {
+
+    static final int MAX_ENTRIES = SystemProperties.getInteger(KubeconfigCache.class.getName() + ".maxEntries", 64);
+
+    private static final KubeconfigCache INSTANCE = new KubeconfigCache();
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Order of the uses, to evict the least recently used entries first
+    private final AtomicLong uses = new AtomicLong();
+
+    KubeconfigCache() {
+        this(MAX_ENTRIES);
+    }
+
+    KubeconfigCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static KubeconfigCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a copy of the parsed kubeconfig of the given credentials.
+     *
+     * @param credentialsId id of the credentials
+     * @param fingerprint   fingerprint of the content of the credentials
+     * @return a builder initialized with the cached kubeconfig, or null if it
+     *         is not cached
+     */
+    @CheckForNull
+    public ConfigBuilder get(@NonNull String credentialsId, @NonNull String fingerprint) {
+        Entry entry = entries.get(credentialsId);
+        if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+            return null;
+        }
+        entry.lastUse = uses.incrementAndGet();
+        return new ConfigBuilder(entry.config);
+    }
+
+    /**
+     * Caches the parsed kubeconfig of the given credentials. The configuration
+     * must not be modified afterwards.
+     *
+     * @param credentialsId id of the credentials
+     * @param fingerprint   fingerprint of the content of the credentials
+     * @param config        the parsed kubeconfig
+     */
+    public void put(@NonNull String credentialsId, @NonNull String fingerprint, @NonNull Config config) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.put(credentialsId, new Entry(fingerprint, config, uses.incrementAndGet())) == null) {
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Drops all the cached kubeconfigs.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops the least recently used entries once there are too many of them.
+     */
+    private void evictIfNeeded() {
+        while (entries.size() > maxEntries) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().lastUse))
+                    .ifPresent(e -> entries.remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    private static final class Entry {
+        final String fingerprint;
+        final Config config;
+        volatile long lastUse;
+
+        Entry(String fingerprint, Config config, long lastUse) {
+            this.fingerprint = fingerprint;
+            this.config = config;
+            this.lastUse = lastUse;
+        }
+    }
+}
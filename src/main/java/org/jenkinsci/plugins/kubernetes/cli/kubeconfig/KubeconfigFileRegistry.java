@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.FilePath;
+import hudson.XmlFile;
+import hudson.model.Computer;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Keeps track of the kubeconfig files written by the plugin until they are
+ * cleaned up, so that the ones left behind by builds that were killed, or
+ * whose agent went away, can be found without scanning the workspaces.
+ *
+ * The registry is saved in the Jenkins home directory to survive restarts.
+ * Saves are batched by a background task, as files are written and deleted
+ * on every build.
+ */
+public final class KubeconfigFileRegistry {
+    private static final Logger LOGGER = Logger.getLogger(KubeconfigFileRegistry.class.getName());
+
+    static final long SAVE_DELAY_MS = SystemProperties.getLong(
+            KubeconfigFileRegistry.class.getName() + ".saveDelayMillis", 5000L);
+
+    private static final KubeconfigFileRegistry INSTANCE = new KubeconfigFileRegistry(
+            task -> Timer.get().schedule(task, SAVE_DELAY_MS, TimeUnit.MILLISECONDS));
+
+    private final Consumer<Runnable> scheduler;
+
+    // Files not cleaned up yet, by node and path, guarded by this
+    private final Map<String, Entry> files = new LinkedHashMap<>();
+    private File loadedFrom;
+    private boolean saveScheduled;
+
+    KubeconfigFileRegistry(Consumer<Runnable> scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public static KubeconfigFileRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a kubeconfig file written for a build.
+     *
+     * @param file  the file
+     * @param build the build using it
+     */
+    public void register(@NonNull FilePath file, @CheckForNull Run<?, ?> build) {
+        String node = nodeName(file);
+        if (node == null) {
+            LOGGER.log(Level.FINE, "Unable to find the agent of {0}, it will not be swept", file);
+            return;
+        }
+        Entry entry = new Entry(node, file.getRemote(), build == null ? null : build.getExternalizableId(),
+                System.currentTimeMillis());
+        synchronized (this) {
+            load();
+            files.put(entry.key(), entry);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Forgets a kubeconfig file once it is deleted.
+     *
+     * @param file the file
+     */
+    public void unregister(@NonNull FilePath file) {
+        String node = nodeName(file);
+        if (node != null) {
+            remove(new Entry(node, file.getRemote(), null, 0));
+        }
+    }
+
+    void remove(Entry entry) {
+        synchronized (this) {
+            load();
+            if (files.remove(entry.key()) == null) {
+                return;
+            }
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Returns the files not cleaned up yet, oldest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        load();
+        return new ArrayList<>(files.values());
+    }
+
+    /**
+     * Returns the name of the node the file is on, empty for the built-in
+     * node, or null if the agent cannot be found.
+     */
+    @CheckForNull
+    static String nodeName(FilePath file) {
+        if (!file.isRemote()) {
+            return "";
+        }
+        Computer computer = file.toComputer();
+        return computer == null ? null : computer.getName();
+    }
+
+    private void scheduleSave() {
+        synchronized (this) {
+            if (saveScheduled) {
+                return;
+            }
+            saveScheduled = true;
+        }
+        scheduler.accept(this::save);
+    }
+
+    /**
+     * Writes the registry, when it changed since it was last written.
+     */
+    public void save() {
+        List<Entry> snapshot;
+        XmlFile xml;
+        synchronized (this) {
+            saveScheduled = false;
+            xml = getXmlFile();
+            if (xml == null || !xml.getFile().equals(loadedFrom)) {
+                return;
+            }
+            snapshot = new ArrayList<>(files.values());
+        }
+        try {
+            xml.write(snapshot);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the kubeconfig files registry", e);
+        }
+    }
+
+    /**
+     * Reads the registry when first used, or when used by another Jenkins
+     * instance, as in tests.
+     */
+    @SuppressWarnings("unchecked")
+    private void load() {
+        XmlFile xml = getXmlFile();
+        if (xml == null || xml.getFile().equals(loadedFrom)) {
+            return;
+        }
+        loadedFrom = xml.getFile();
+        files.clear();
+        if (!xml.exists()) {
+            return;
+        }
+        try {
+            for (Entry entry : (List<Entry>) xml.read()) {
+                files.put(entry.key(), entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to load the kubeconfig files registry", e);
+        }
+    }
+
+    @CheckForNull
+    private static XmlFile getXmlFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2,
+                new File(jenkins.getRootDir(), KubeconfigFileRegistry.class.getName() + ".xml"));
+    }
+
+    /**
+     * A kubeconfig file not cleaned up yet.
+     */
+    public static final class Entry {
+        private final String node;
+        private final String path;
+        private final String build;
+        private final long created;
+
+        Entry(String node, String path, String build, long created) {
+            this.node = node;
+            this.path = path;
+            this.build = build;
+            this.created = created;
+        }
+
+        String key() {
+            return node + ":" + path;
+        }
+
+        /**
+         * Returns the name of the node, empty for the built-in node.
+         */
+        public String getNode() {
+            return node;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the externalizable id of the build using the file.
+         */
+        @CheckForNull
+        public String getBuild() {
+            return build;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+    }
+}
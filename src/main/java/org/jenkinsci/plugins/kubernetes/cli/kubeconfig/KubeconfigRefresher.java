@@ -0,0 +1,358 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.NamedAuthInfo;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Rewrites the kubeconfig files of a block before the tokens they contain
+ * expire, for bodies running longer than the lifetime of the tokens produced
+ * by the credentials.
+ *
+ * Only tokens with a known expiry, such as JWTs, are refreshed. The new
+ * token is obtained through the {@link TokenCache}, and replaces the old one
+ * in the current content of the file, so that the changes made by the body,
+ * such as {@code kubectl config use-context}, are kept. The file is replaced
+ * atomically on the agent. If it no longer contains the old token, it is
+ * left as is and no longer refreshed. Refreshers live on the controller:
+ * they are not restored after a restart.
+ */
+public final class KubeconfigRefresher {
+    private static final Logger LOGGER = Logger.getLogger(KubeconfigRefresher.class.getName());
+
+    public static final boolean DISABLED = SystemProperties.getBoolean(
+            KubeconfigRefresher.class.getName() + ".disabled");
+
+    static final int THREADS = SystemProperties.getInteger(KubeconfigRefresher.class.getName() + ".threads", 4);
+
+    // Fraction of the remaining lifetime of the token after which the file is rewritten
+    private static final double REFRESH_AT = 0.8;
+
+    // Bounds of the delay before trying again when no newer token is available yet
+    static final long MIN_RETRY_MILLIS = 1_000;
+    static final long MAX_RETRY_MILLIS = 10_000;
+
+    // Tokens replaced as text in the files, JWTs only use these characters
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z0-9._-]+");
+
+    // Rewrites the files, away from the shared timer as they call the agents
+    private static final ScheduledThreadPoolExecutor EXECUTOR = newExecutor();
+
+    // Refreshers of the running blocks, by id
+    private static final Map<String, KubeconfigRefresher> ACTIVE = new ConcurrentHashMap<>();
+
+    private final String id = UUID.randomUUID().toString();
+    private final TaskListener listener;
+    // Pending refreshes, guarded by this
+    private final Map<String, Future<?>> tasks = new HashMap<>();
+    private volatile boolean stopped;
+
+    private KubeconfigRefresher(TaskListener listener) {
+        this.listener = listener;
+    }
+
+    private static ScheduledThreadPoolExecutor newExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(THREADS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "kubernetes-cli kubeconfig refresher"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Creates the refresher of a block.
+     *
+     * @param listener receives the failures to refresh the files
+     * @return the refresher
+     */
+    @NonNull
+    public static KubeconfigRefresher start(@NonNull TaskListener listener) {
+        KubeconfigRefresher refresher = new KubeconfigRefresher(listener);
+        ACTIVE.put(refresher.id, refresher);
+        return refresher;
+    }
+
+    /**
+     * Stops the refresher of a block, without waiting for a rewrite in
+     * progress: the files are deleted with {@link #delete(FilePath)}, which
+     * waits for it on the agent.
+     *
+     * @param id the id of the refresher
+     */
+    public static void stop(@NonNull String id) {
+        KubeconfigRefresher refresher = ACTIVE.remove(id);
+        if (refresher != null) {
+            refresher.stop();
+        }
+    }
+
+    /**
+     * Deletes a kubeconfig file once a rewrite in progress is done with it,
+     * so that the rewrite does not bring it back.
+     *
+     * @param file the file
+     * @throws IOException          if the file cannot be deleted
+     * @throws InterruptedException if interrupted
+     */
+    public static void delete(@NonNull FilePath file) throws IOException, InterruptedException {
+        file.act(new Delete());
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    void stop() {
+        stopped = true;
+        synchronized (this) {
+            tasks.values().forEach(task -> task.cancel(false));
+            tasks.clear();
+        }
+    }
+
+    /**
+     * Schedules the rewrite of a file, if its token has a known expiry.
+     */
+    void schedule(KubeConfigWriter writer, StandardCredentials credentials, FilePath configFile, Config config) {
+        String token = tokenOf(config);
+        Instant expiry = TokenCache.jwtExpiryOf(token);
+        if (expiry == null || !TOKEN.matcher(token).matches()) {
+            return;
+        }
+        long remaining = expiry.toEpochMilli() - System.currentTimeMillis();
+        schedule(new Refresh(writer, credentials, configFile, token, expiry),
+                (long) (Math.max(remaining, 0) * REFRESH_AT));
+    }
+
+    private synchronized void schedule(Refresh refresh, long delayMillis) {
+        if (stopped) {
+            return;
+        }
+        try {
+            tasks.put(refresh.configFile.getRemote(),
+                    EXECUTOR.schedule(() -> run(refresh), delayMillis, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Not refreshing " + refresh.configFile, e);
+        }
+    }
+
+    private synchronized void forget(Refresh refresh) {
+        tasks.remove(refresh.configFile.getRemote());
+    }
+
+    private void run(Refresh refresh) {
+        if (stopped) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            String token = tokenOf(refresh.writer.buildConfig(refresh.credentials));
+            Instant expiry = TokenCache.jwtExpiryOf(token);
+            if (expiry == null || !expiry.isAfter(refresh.expiry)) {
+                // The cache still serves the current token, while it gets a new one
+                long remaining = refresh.expiry.toEpochMilli() - now;
+                schedule(refresh, Math.min(MAX_RETRY_MILLIS, Math.max(MIN_RETRY_MILLIS, remaining / 4)));
+                return;
+            }
+            if (!TOKEN.matcher(token).matches()) {
+                throw new IOException("unexpected characters in the new token");
+            }
+            if (stopped) {
+                return;
+            }
+            switch (refresh.configFile.act(new ReplaceToken(refresh.token, token))) {
+                case REPLACED:
+                    LOGGER.log(Level.FINE, "Refreshed {0}, the token expires at {1}",
+                            new Object[] {refresh.configFile, expiry});
+                    schedule(new Refresh(refresh.writer, refresh.credentials, refresh.configFile, token, expiry),
+                            (long) ((expiry.toEpochMilli() - now) * REFRESH_AT));
+                    break;
+                case MODIFIED:
+                    listener.getLogger().println("[kubernetes-cli] not refreshing the token of "
+                            + refresh.credentials.getId() + ": the kubeconfig file no longer contains it");
+                    forget(refresh);
+                    break;
+                default:
+                    // Already cleaned up
+                    forget(refresh);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (stopped) {
+                return;
+            }
+            listener.getLogger().println("[kubernetes-cli] unable to refresh the token of "
+                    + refresh.credentials.getId() + ": " + e.getMessage());
+            schedule(refresh, MAX_RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the token of the user of the current context.
+     */
+    @CheckForNull
+    static String tokenOf(Config config) {
+        if (config.getContexts() == null || config.getUsers() == null) {
+            return null;
+        }
+        String user = config.getContexts().stream()
+                .filter(c -> c.getName() != null && c.getName().equals(config.getCurrentContext()))
+                .map(NamedContext::getContext)
+                .filter(c -> c != null)
+                .map(c -> c.getUser())
+                .findFirst().orElse(null);
+        return config.getUsers().stream()
+                .filter(u -> u.getName() != null && u.getName().equals(user) && u.getUser() != null)
+                .map(NamedAuthInfo::getUser)
+                .map(u -> u.getToken())
+                .findFirst().orElse(null);
+    }
+
+    private static final class Refresh {
+        final KubeConfigWriter writer;
+        final StandardCredentials credentials;
+        final FilePath configFile;
+        // Token currently in the file, and its expiry
+        final String token;
+        final Instant expiry;
+
+        Refresh(KubeConfigWriter writer, StandardCredentials credentials, FilePath configFile, String token,
+                Instant expiry) {
+            this.writer = writer;
+            this.credentials = credentials;
+            this.configFile = configFile;
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * Result of the replacement of a token in a file.
+     */
+    enum Outcome {
+        REPLACED,
+        // The file does not contain the token once, as the body changed it
+        MODIFIED,
+        DELETED
+    }
+
+    /**
+     * Serializes the rewrites and the deletions of the files in the agent
+     * process.
+     */
+    private static final class FileLocks {
+        private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+        static Object of(File file) {
+            return LOCKS.computeIfAbsent(file.getAbsolutePath(), f -> new Object());
+        }
+
+        static void forget(File file, Object lock) {
+            LOCKS.remove(file.getAbsolutePath(), lock);
+        }
+    }
+
+    /**
+     * Replaces a token in the current content of a file, by writing the new
+     * content next to the target and renaming it over the target, keeping its
+     * permissions.
+     */
+    static final class ReplaceToken extends MasterToSlaveFileCallable<Outcome> {
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+        private final String replacement;
+
+        ReplaceToken(String token, String replacement) {
+            this.token = token;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public Outcome invoke(File target, VirtualChannel channel) throws IOException {
+            Object lock = FileLocks.of(target);
+            synchronized (lock) {
+                if (!target.exists()) {
+                    // Already cleaned up
+                    FileLocks.forget(target, lock);
+                    return Outcome.DELETED;
+                }
+                String content = Files.readString(target.toPath(), StandardCharsets.UTF_8);
+                int index = content.indexOf(token);
+                if (index < 0 || index != content.lastIndexOf(token)) {
+                    // No further refresh of this file
+                    FileLocks.forget(target, lock);
+                    return Outcome.MODIFIED;
+                }
+                Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+                try {
+                    PosixFileAttributeView posix = Files.getFileAttributeView(target.toPath(),
+                            PosixFileAttributeView.class);
+                    if (posix != null) {
+                        Files.setPosixFilePermissions(tmp, posix.readAttributes().permissions());
+                    }
+                    Files.writeString(tmp, content.substring(0, index) + replacement
+                            + content.substring(index + token.length()), StandardCharsets.UTF_8);
+                    Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                return Outcome.REPLACED;
+            }
+        }
+    }
+
+    /**
+     * Deletes a file, once a rewrite in progress is done with it.
+     */
+    static final class Delete extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Void invoke(File target, VirtualChannel channel) throws IOException {
+            Object lock = FileLocks.of(target);
+            synchronized (lock) {
+                try {
+                    Files.deleteIfExists(target.toPath());
+                } finally {
+                    FileLocks.forget(target, lock);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Deletes the kubeconfig files left behind by builds that did not clean them
+ * up, because they were killed, their agent was disconnected or Jenkins was
+ * restarted. Only the files recorded in the {@link KubeconfigFileRegistry}
+ * are considered, once their build is over.
+ *
+ * Files on offline agents are kept until the agent is back, or forgotten
+ * after a while if it never comes back.
+ */
+@Extension
+public class KubeconfigSweeper extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(KubeconfigSweeper.class.getName());
+
+    static final long RECURRENCE_MINUTES = SystemProperties.getLong(
+            KubeconfigSweeper.class.getName() + ".recurrenceMinutes", 60L);
+
+    // Files younger than this are never swept, even if their build is not found
+    static final long GRACE_MINUTES = SystemProperties.getLong(
+            KubeconfigSweeper.class.getName() + ".graceMinutes", 10L);
+
+    // Files that cannot be deleted for this long are forgotten
+    static final long MAX_AGE_DAYS = SystemProperties.getLong(
+            KubeconfigSweeper.class.getName() + ".maxAgeDays", 7L);
+
+    public KubeconfigSweeper() {
+        super("Kubernetes CLI kubeconfig sweeper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, RECURRENCE_MINUTES));
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        sweep(listener, System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the orphaned files.
+     *
+     * @param listener receives the deleted files
+     * @param now      current time
+     * @return the number of deleted files
+     */
+    int sweep(TaskListener listener, long now) throws InterruptedException {
+        KubeconfigFileRegistry registry = KubeconfigFileRegistry.get();
+        int deleted = 0;
+        for (KubeconfigFileRegistry.Entry entry : registry.getEntries()) {
+            long age = now - entry.getCreated();
+            if (age < TimeUnit.MINUTES.toMillis(GRACE_MINUTES) || isInUse(entry)) {
+                continue;
+            }
+
+            FilePath file = toFilePath(entry);
+            if (file == null) {
+                if (age > TimeUnit.DAYS.toMillis(MAX_AGE_DAYS) || !agentExists(entry)) {
+                    registry.remove(entry);
+                }
+                continue;
+            }
+            try {
+                file.delete();
+                registry.remove(entry);
+                listener.getLogger().println("Deleted orphaned kubeconfig " + entry.getPath()
+                        + (entry.getNode().isEmpty() ? "" : " on " + entry.getNode()));
+                deleted++;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to delete " + entry.getPath(), e);
+                if (age > TimeUnit.DAYS.toMillis(MAX_AGE_DAYS)) {
+                    registry.remove(entry);
+                }
+            }
+        }
+        registry.save();
+        return deleted;
+    }
+
+    private static boolean isInUse(KubeconfigFileRegistry.Entry entry) {
+        if (entry.getBuild() == null) {
+            return false;
+        }
+        try {
+            Run<?, ?> build = Run.fromExternalizableId(entry.getBuild());
+            return build != null && build.isLogUpdated();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean agentExists(KubeconfigFileRegistry.Entry entry) {
+        return entry.getNode().isEmpty() || Jenkins.get().getNode(entry.getNode()) != null;
+    }
+
+    /**
+     * Returns the file, or null if its agent is offline or gone.
+     */
+    private static FilePath toFilePath(KubeconfigFileRegistry.Entry entry) {
+        if (entry.getNode().isEmpty()) {
+            return new FilePath(new File(entry.getPath()));
+        }
+        Computer computer = Jenkins.get().getComputer(entry.getNode());
+        VirtualChannel channel = computer == null ? null : computer.getChannel();
+        return channel == null ? null : new FilePath(channel, entry.getPath());
+    }
+}
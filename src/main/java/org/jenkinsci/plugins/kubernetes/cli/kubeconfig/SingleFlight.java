@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.AbortException;
+
+/**
+ * Coalesces concurrent executions of the same call. While a call is in flight
+ * for a key, other callers for the same key wait for it and share its result
+ * or its error instead of running it again.
+ *
+ * Nothing is cached: once a call completes, the next caller runs it again.
+ *
+ * @param <K> key identifying identical calls
+ * @param <V> result of the call
+ */
+final class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    interface Call<V> {
+        V call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs the call, or waits for the identical call currently in flight.
+     *
+     * @param key  key identifying the call
+     * @param call the call to run
+     * @return the result of the call
+     * @throws IOException          if the call failed
+     * @throws InterruptedException if interrupted while running or waiting
+     */
+    V execute(K key, Call<V> call) throws IOException, InterruptedException {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return lead(key, flight, call);
+            }
+
+            existing.followers.incrementAndGet();
+            try {
+                return existing.result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedException) {
+                    // The leader was interrupted, not us: try again
+                    continue;
+                }
+                throw rethrow(cause);
+            } finally {
+                existing.followers.decrementAndGet();
+            }
+        }
+    }
+
+    private V lead(K key, Flight<V> flight, Call<V> call) throws IOException, InterruptedException {
+        try {
+            V value = call.call();
+            flight.result.complete(value);
+            return value;
+        } catch (IOException | InterruptedException | RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Rethrows the error of the leader in the thread of a follower, keeping
+     * the type callers rely on.
+     */
+    private static IOException rethrow(Throwable cause) {
+        if (cause instanceof AbortException) {
+            return new AbortException(cause.getMessage());
+        }
+        if (cause instanceof IOException) {
+            return new IOException(cause.getMessage(), cause);
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Returns how many callers are waiting for the call in flight for a key.
+     */
+    int followers(K key) {
+        Flight<V> flight = inFlight.get(key);
+        return flight == null ? 0 : flight.followers.get();
+    }
+
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger followers = new AtomicInteger();
+    }
+}
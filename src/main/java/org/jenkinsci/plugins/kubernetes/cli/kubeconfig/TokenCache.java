@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Controller-side cache of the tokens produced by {@link TokenProducer}
+ * credentials, so that identity providers are not called on every build.
+ *
+ * The expiry of a token is read from its {@code exp} claim if it is a JWT, or
+ * defaults to a configurable lifetime. Tokens are refreshed in the background
+ * once most of their lifetime has elapsed, and entries are dropped as soon as
+ * the content of the credentials changes.
+ */
+public final class TokenCache {
+    private static final Logger LOGGER = Logger.getLogger(TokenCache.class.getName());
+
+    /**
+     * Lifetime assumed for tokens whose expiry cannot be determined. Setting it
+     * to 0 disables the cache for them.
+     */
+    static final Duration DEFAULT_TTL = Duration.ofSeconds(
+            SystemProperties.getLong(TokenCache.class.getName() + ".defaultTtlSeconds", 300L));
+
+    /**
+     * Upper bound of the time a token is kept, whatever its expiry.
+     */
+    static final Duration MAX_TTL = Duration.ofSeconds(
+            SystemProperties.getLong(TokenCache.class.getName() + ".maxTtlSeconds", 3600L));
+
+    static final int MAX_ENTRIES = SystemProperties.getInteger(TokenCache.class.getName() + ".maxEntries", 1024);
+
+    // Fraction of the lifetime after which a background refresh is triggered
+    private static final double REFRESH_AT = 0.75;
+
+    // Fraction of the lifetime that must remain for a token to be handed out
+    private static final double MIN_REMAINING = 0.1;
+
+    private static final TokenCache INSTANCE = new TokenCache(Clock.systemUTC(), Timer.get());
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private final Executor refreshExecutor;
+
+    TokenCache(Clock clock, Executor refreshExecutor) {
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public static TokenCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wraps a token producer so that its tokens are served from the cache.
+     *
+     * @param credentialsId id of the credentials
+     * @param fingerprint   fingerprint of the content of the credentials
+     * @param producer      the credentials producing the tokens
+     * @return a caching token producer
+     */
+    @NonNull
+    public TokenProducer wrap(@NonNull String credentialsId, @NonNull String fingerprint,
+            @NonNull TokenProducer producer) {
+        return wrap(credentialsId, fingerprint, producer, () -> { });
+    }
+
+    /**
+     * Wraps a token producer so that its tokens are served from the cache,
+     * telling when they are not.
+     *
+     * @param onFetch called when a token is produced instead of served from the cache
+     */
+    @NonNull
+    TokenProducer wrap(@NonNull String credentialsId, @NonNull String fingerprint,
+            @NonNull TokenProducer producer, @NonNull Runnable onFetch) {
+        return (serviceAddress, caCertData, skipTlsVerify) -> getToken(
+                String.join("\0", credentialsId, String.valueOf(serviceAddress), String.valueOf(caCertData),
+                        String.valueOf(skipTlsVerify)),
+                fingerprint,
+                () -> {
+                    onFetch.run();
+                    return producer.getToken(serviceAddress, caCertData, skipTlsVerify);
+                });
+    }
+
+    /**
+     * Drops all the cached tokens.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private String getToken(String key, String fingerprint, Fetcher fetcher) throws IOException {
+        Instant now = clock.instant();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.fingerprint.equals(fingerprint) && now.isBefore(entry.usableUntil)) {
+            if (!now.isBefore(entry.refreshAt)) {
+                refreshInBackground(key, entry, fetcher);
+            }
+            return entry.token;
+        }
+        return fetch(key, fingerprint, fetcher).token;
+    }
+
+    private Entry fetch(String key, String fingerprint, Fetcher fetcher) throws IOException {
+        Instant issuedAt = clock.instant();
+        String token = fetcher.fetch();
+        Entry entry = new Entry(token, fingerprint, issuedAt, expiryOf(token, issuedAt));
+        if (entry.usableUntil.isAfter(issuedAt)) {
+            entries.put(key, entry);
+            evictIfNeeded();
+        } else {
+            entries.remove(key);
+        }
+        return entry;
+    }
+
+    private void refreshInBackground(String key, Entry entry, Fetcher fetcher) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                fetch(key, entry.fingerprint, fetcher);
+            } catch (IOException | RuntimeException e) {
+                // The current token stays in use until it is no longer usable
+                LOGGER.log(Level.WARNING, "Unable to refresh cached Kubernetes token", e);
+                entry.refreshing.set(false);
+            }
+        });
+    }
+
+    private void evictIfNeeded() {
+        if (entries.size() <= MAX_ENTRIES) {
+            return;
+        }
+        Instant now = clock.instant();
+        entries.values().removeIf(e -> !now.isBefore(e.usableUntil));
+        while (entries.size() > MAX_ENTRIES) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparing(e -> e.getValue().usableUntil))
+                    .ifPresent(e -> entries.remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    /**
+     * Returns the expiry of a token, bounded by {@link #MAX_TTL}.
+     */
+    static Instant expiryOf(String token, Instant issuedAt) {
+        Instant maxExpiry = issuedAt.plus(MAX_TTL);
+        Instant expiry = jwtExpiryOf(token);
+        if (expiry == null) {
+            expiry = issuedAt.plus(DEFAULT_TTL);
+        }
+        return expiry.isAfter(maxExpiry) ? maxExpiry : expiry;
+    }
+
+    /**
+     * Reads the {@code exp} claim of a JWT.
+     *
+     * @return the expiry of the token, or null if it is not a JWT with an expiry
+     */
+    public static Instant jwtExpiryOf(String token) {
+        if (token == null) {
+            return null;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+            JSONObject claims = JSONObject.fromObject(payload);
+            if (!claims.has("exp")) {
+                return null;
+            }
+            return Instant.ofEpochSecond(claims.getLong("exp"));
+        } catch (IllegalArgumentException | JSONException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Fetcher {
+        String fetch() throws IOException;
+    }
+
+    private static final class Entry {
+        final String token;
+        final String fingerprint;
+        final Instant refreshAt;
+        final Instant usableUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(String token, String fingerprint, Instant issuedAt, Instant expiresAt) {
+            this.token = token;
+            this.fingerprint = fingerprint;
+            Duration lifetime = Duration.between(issuedAt, expiresAt);
+            this.refreshAt = issuedAt.plusMillis((long) (lifetime.toMillis() * REFRESH_AT));
+            this.usableUntil = expiresAt.minusMillis((long) (lifetime.toMillis() * MIN_REMAINING));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Records the timings in the registry of the Metrics plugin, if installed.
+ *
+ * Dropwizard metrics have no tags: the type of credentials is the last part
+ * of the name, such as {@code kubernetes-cli.kubeconfig.remote-write.token}.
+ */
+@Extension(optional = true)
+public class DropwizardBackend implements KubeconfigMetrics.Backend {
+    @Override
+    public void record(@NonNull KubeconfigMetrics.Phase phase, @NonNull String credentialsType, long nanos) {
+        Metrics.metricRegistry()
+                .timer(name(phase, credentialsType))
+                .update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static String name(KubeconfigMetrics.Phase phase, String credentialsType) {
+        return MetricRegistry.name("kubernetes-cli", "kubeconfig", phase.getName(), credentialsType);
+    }
+}
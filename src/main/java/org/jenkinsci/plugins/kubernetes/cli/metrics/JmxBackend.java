@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the timings as MBeans of the platform server, for controllers
+ * without the Metrics plugin, under
+ * {@code org.jenkinsci.plugins.kubernetes.cli:type=KubeconfigMetrics,phase=...,credentials=...}.
+ *
+ * The timers are registered once per JVM and are not reset when Jenkins
+ * restarts.
+ */
+final class JmxBackend implements KubeconfigMetrics.Backend {
+    private static final Logger LOGGER = Logger.getLogger(JmxBackend.class.getName());
+
+    static final String DOMAIN = "org.jenkinsci.plugins.kubernetes.cli";
+
+    private final Map<String, PhaseTimer> timers = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(KubeconfigMetrics.Phase phase, String credentialsType, long nanos) {
+        timers.computeIfAbsent(phase.getName() + '/' + credentialsType, k -> register(phase, credentialsType))
+                .update(nanos);
+    }
+
+    /**
+     * Returns the timer of a phase, if any was recorded.
+     */
+    PhaseTimer timer(KubeconfigMetrics.Phase phase, String credentialsType) {
+        return timers.get(phase.getName() + '/' + credentialsType);
+    }
+
+    private static PhaseTimer register(KubeconfigMetrics.Phase phase, String credentialsType) {
+        PhaseTimer timer = new PhaseTimer();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(timer, objectName(phase, credentialsType));
+        } catch (JMException e) {
+            // Still counted, so that the other timers are not affected
+            LOGGER.log(Level.FINE, "Unable to register the timer of " + phase + " for " + credentialsType, e);
+        }
+        return timer;
+    }
+
+    static ObjectName objectName(KubeconfigMetrics.Phase phase, String credentialsType) throws JMException {
+        return new ObjectName(DOMAIN + ":type=KubeconfigMetrics,phase=" + phase.getName()
+                + ",credentials=" + credentialsType);
+    }
+}
@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import java.util.Locale;
+
+import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+/**
+ * Timings of the phases of the setup and teardown of the kubeconfig files,
+ * by type of credentials, so that slow blocks can be attributed to the
+ * credentials, the controller or the agent.
+ *
+ * The timings are sent to the {@link Backend} extensions, such as the one of
+ * the Metrics plugin, or exposed as MBeans when there is none. They are also
+ * summed up for each build by a {@link KubeconfigPerformanceAction}.
+ */
+public final class KubeconfigMetrics {
+    /**
+     * Type of the files written without credentials.
+     */
+    public static final String IN_CLUSTER = "in-cluster";
+
+    /**
+     * Type of the cleanups, which are not specific to credentials.
+     */
+    public static final String ANY = "any";
+
+    private static final KubeconfigMetrics INSTANCE = new KubeconfigMetrics();
+
+    private final JmxBackend jmx = new JmxBackend();
+
+    KubeconfigMetrics() {
+    }
+
+    @NonNull
+    public static KubeconfigMetrics get() {
+        return INSTANCE;
+    }
+
+    public enum Phase {
+        /** Lookup of the credentials by id. */
+        CREDENTIALS_LOOKUP,
+        /** Conversion of the credentials into Kubernetes ones, or wait for a concurrent one. */
+        AUTH_CONVERSION,
+        /** Build of the configuration, including the conversion. */
+        CONFIG_BUILD,
+        /** Serialization of the configuration to YAML. */
+        SERIALIZATION,
+        /** Creation and write of the file on the agent. */
+        REMOTE_WRITE,
+        /** Restriction of the permissions of the file. */
+        CHMOD,
+        /** Deletion of a file. */
+        CLEANUP;
+
+        /**
+         * Returns the name of the phase in the metrics.
+         */
+        @NonNull
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param build           the build the phase was run for, if any
+     * @param phase           the phase
+     * @param credentialsType the type of credentials, see {@link #typeOf(StandardCredentials)}
+     * @param nanos           the duration
+     */
+    public void record(@CheckForNull Run<?, ?> build, @NonNull Phase phase, @NonNull String credentialsType,
+            long nanos) {
+        if (build != null) {
+            KubeconfigPerformanceAction.of(build).record(phase, nanos);
+        }
+        record(phase, credentialsType, nanos);
+    }
+
+    /**
+     * Records the size of a file written for a build.
+     *
+     * @param build the build, if any
+     * @param bytes the size of the file
+     */
+    public void recordWrite(@CheckForNull Run<?, ?> build, long bytes) {
+        if (build != null) {
+            KubeconfigPerformanceAction.of(build).recordWrite(bytes);
+        }
+    }
+
+    /**
+     * Records a conversion of credentials served from the controller-side
+     * caches, or shared with a concurrent build.
+     *
+     * @param build the build, if any
+     */
+    public void recordCacheHit(@CheckForNull Run<?, ?> build) {
+        if (build != null) {
+            KubeconfigPerformanceAction.of(build).recordCacheHit();
+        }
+    }
+
+    private void record(Phase phase, String credentialsType, long nanos) {
+        if (Jenkins.getInstanceOrNull() != null) {
+            ExtensionList<Backend> backends = ExtensionList.lookup(Backend.class);
+            if (!backends.isEmpty()) {
+                for (Backend backend : backends) {
+                    backend.record(phase, credentialsType, nanos);
+                }
+                return;
+            }
+        }
+        jmx.record(phase, credentialsType, nanos);
+    }
+
+    /**
+     * Returns the type of credentials used to tag the metrics.
+     *
+     * @param credentials the credentials, null for in-cluster configurations
+     * @return the type
+     */
+    @NonNull
+    public static String typeOf(@CheckForNull StandardCredentials credentials) {
+        if (credentials == null) {
+            return IN_CLUSTER;
+        }
+        if (credentials instanceof TokenProducer) {
+            return "token";
+        }
+        if (credentials instanceof StandardCertificateCredentials) {
+            return "certificate";
+        }
+        if (credentials instanceof FileCredentials) {
+            return "kubeconfig";
+        }
+        if (credentials instanceof StringCredentials) {
+            return "secret-text";
+        }
+        if (credentials instanceof StandardUsernamePasswordCredentials) {
+            return "username-password";
+        }
+        return "other";
+    }
+
+    /**
+     * Receives the timings of the phases.
+     */
+    public interface Backend extends ExtensionPoint {
+        void record(@NonNull Phase phase, @NonNull String credentialsType, long nanos);
+    }
+}
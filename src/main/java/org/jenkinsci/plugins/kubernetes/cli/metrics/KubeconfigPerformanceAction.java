@@ -0,0 +1,241 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics.Phase;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+/**
+ * Time spent by the plugin on the kubeconfig files of a build, summed up over
+ * all the blocks of {@code withKubeConfig}, {@code withKubeCredentials} and
+ * the build wrappers, so that it can be told apart from the time of the
+ * commands they run.
+ *
+ * Shown on a page of the build, and exported by its API. Added to the build
+ * on the first phase recorded.
+ */
+@ExportedBean
+public class KubeconfigPerformanceAction implements RunAction2 {
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    // Guards the creation of the actions
+    private static final Object LOCK = new Object();
+
+    // Guarded by this
+    private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+    private long bytesWritten;
+    private int cacheHits;
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Returns the action of a build, adding it if needed.
+     */
+    @NonNull
+    static KubeconfigPerformanceAction of(@NonNull Run<?, ?> build) {
+        KubeconfigPerformanceAction action = build.getAction(KubeconfigPerformanceAction.class);
+        if (action != null) {
+            return action;
+        }
+        synchronized (LOCK) {
+            action = build.getAction(KubeconfigPerformanceAction.class);
+            if (action == null) {
+                action = new KubeconfigPerformanceAction();
+                build.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    synchronized void record(Phase phase, long nanos) {
+        phases.computeIfAbsent(phase, p -> new PhaseStats()).add(nanos);
+    }
+
+    synchronized void recordWrite(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    synchronized void recordCacheHit() {
+        cacheHits++;
+    }
+
+    /**
+     * Saves a copy taken under the lock, as the build may be saved while its
+     * blocks are still recording.
+     */
+    private synchronized Object writeReplace() {
+        KubeconfigPerformanceAction copy = new KubeconfigPerformanceAction();
+        phases.forEach((phase, stats) -> copy.phases.put(phase, stats.copy()));
+        copy.bytesWritten = bytesWritten;
+        copy.cacheHits = cacheHits;
+        return copy;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Kubernetes CLI overhead";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "kubernetes-cli";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Returns the number of kubeconfig files written.
+     */
+    @Exported
+    public synchronized long getFilesWritten() {
+        return countOf(Phase.REMOTE_WRITE);
+    }
+
+    /**
+     * Returns the number of kubeconfig files deleted.
+     */
+    @Exported
+    public synchronized long getFilesDeleted() {
+        return countOf(Phase.CLEANUP);
+    }
+
+    @Exported
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the number of conversions of credentials served from the
+     * controller-side caches, or shared with a concurrent build.
+     */
+    @Exported
+    public synchronized int getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Returns the time spent in all the phases, counting the conversion of
+     * the credentials once, as part of the build of the configuration.
+     */
+    @Exported
+    public synchronized double getTotalMillis() {
+        long total = 0;
+        for (Map.Entry<Phase, PhaseStats> e : phases.entrySet()) {
+            if (e.getKey() != Phase.AUTH_CONVERSION) {
+                total += e.getValue().totalNanos;
+            }
+        }
+        return total / NANOS_PER_MILLI;
+    }
+
+    @Exported
+    public synchronized List<PhaseSummary> getPhases() {
+        List<PhaseSummary> summaries = new ArrayList<>();
+        phases.forEach((phase, stats) -> summaries.add(new PhaseSummary(phase, stats)));
+        return summaries;
+    }
+
+    /**
+     * Formats a duration for the summary page.
+     */
+    public static String format(double millis) {
+        return String.format(Locale.ROOT, "%.1f", millis);
+    }
+
+    private long countOf(Phase phase) {
+        PhaseStats stats = phases.get(phase);
+        return stats == null ? 0 : stats.count;
+    }
+
+    /**
+     * Durations of a phase, kept with the build.
+     */
+    static final class PhaseStats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        PhaseStats copy() {
+            PhaseStats copy = new PhaseStats();
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+    }
+
+    /**
+     * Copy of the durations of a phase, as exported.
+     */
+    @ExportedBean
+    public static final class PhaseSummary {
+        private final Phase phase;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        PhaseSummary(Phase phase, PhaseStats stats) {
+            this.phase = phase;
+            this.count = stats.count;
+            this.totalNanos = stats.totalNanos;
+            this.maxNanos = stats.maxNanos;
+        }
+
+        @Exported
+        public String getName() {
+            return phase.getName();
+        }
+
+        @Exported
+        public long getCount() {
+            return count;
+        }
+
+        @Exported
+        public double getTotalMillis() {
+            return totalNanos / NANOS_PER_MILLI;
+        }
+
+        @Exported
+        public double getMaxMillis() {
+            return maxNanos / NANOS_PER_MILLI;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of the durations of a phase, since the start of the JVM.
+ *
+ * Durations are counted in buckets doubling in size from one microsecond, so
+ * that the percentiles are upper bounds, at most twice the actual value.
+ */
+public final class PhaseTimer implements PhaseTimerMBean {
+    private static final int BUCKETS = 48;
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void update(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double get50thPercentileMillis() {
+        return percentileMillis(0.50);
+    }
+
+    @Override
+    public double get95thPercentileMillis() {
+        return percentileMillis(0.95);
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return percentileMillis(0.99);
+    }
+
+    double percentileMillis(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Upper bound of the bucket, 2^i microseconds
+                double bound = (1L << i) / 1000d;
+                return Math.min(bound, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+}
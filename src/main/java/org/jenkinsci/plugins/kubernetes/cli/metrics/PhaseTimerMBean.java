@@ -0,0 +1,20 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+/**
+ * Durations of a phase, in milliseconds.
+ */
+public interface PhaseTimerMBean {
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double get50thPercentileMillis();
+
+    double get95thPercentileMillis();
+
+    double get99thPercentileMillis();
+}
@@ -0,0 +1,373 @@
+package org.jenkinsci.plugins.kubernetes.cli.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.jenkinsci.plugins.kubernetes.cli.exec.CachingTokenSource;
+import org.jenkinsci.plugins.kubernetes.cli.exec.TokenSource;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Reverse proxy between kubectl and the API servers, running in the agent
+ * process. It listens on the loopback interface only, and requires the
+ * per-block token written in the kubeconfig files.
+ *
+ * The upstream connections are pooled across the kubectl processes of the
+ * block, and the version, discovery and OpenAPI documents are cached for a
+ * short time. Any other request is streamed to the API server as is. Tokens
+ * of credentials producing them are refreshed by the controller before they
+ * expire.
+ */
+final class ApiCachingProxy {
+    private static final Logger LOGGER = Logger.getLogger(ApiCachingProxy.class.getName());
+
+    // Proxies of this process, by session id
+    private static final ConcurrentMap<String, ApiCachingProxy> RUNNING = new ConcurrentHashMap<>();
+
+    // Read-only documents kubectl fetches before almost every command
+    private static final Pattern CACHEABLE = Pattern.compile(
+            "/version/?|/api/?|/apis/?|/api/v1/?|/apis/[^/]+/[^/]+/?|/openapi/.*|/swagger\\.json");
+
+    // Larger responses are streamed without being cached
+    private static final int MAX_CACHED_BYTES = 32 * 1024 * 1024;
+
+    // Headers the HTTP client manages itself, or that only concern a single hop
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList("authorization", "connection",
+            "content-length", "date", "expect", "from", "host", "http2-settings", "keep-alive", "proxy-authorization",
+            "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade", "via", "warning"));
+
+    // Shown by kubectl as the reason of the failure
+    static final String UPGRADE_NOT_SUPPORTED = "kubectl exec, attach, cp and port-forward cannot go through the API"
+            + " proxy of the kubernetes-cli plugin, run them in a block without apiProxy";
+
+    private final String id;
+    private final byte[] authorization;
+    private final long ttlMillis;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, CompletableFuture<Response>> cache = new ConcurrentHashMap<>();
+    private volatile Map<String, Upstream> upstreams = Collections.emptyMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ApiCachingProxy(String id, String token, long ttlMillis) throws IOException {
+        this.id = id;
+        this.authorization = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        this.ttlMillis = ttlMillis;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "kubernetes-cli API proxy " + id + " #" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a proxy without any route.
+     *
+     * @return the port it listens on
+     */
+    static int start(String id, String token, long ttlMillis) throws IOException {
+        ApiCachingProxy proxy = new ApiCachingProxy(id, token, ttlMillis);
+        if (RUNNING.putIfAbsent(id, proxy) != null) {
+            throw new IOException("API proxy " + id + " is already running");
+        }
+        proxy.server.start();
+        return proxy.server.getAddress().getPort();
+    }
+
+    static void setRoutes(String id, List<Route> routes) throws IOException, GeneralSecurityException {
+        ApiCachingProxy proxy = RUNNING.get(id);
+        if (proxy == null) {
+            throw new IOException("API proxy " + id + " is not running");
+        }
+        Map<String, Upstream> upstreams = new HashMap<>();
+        for (Route route : routes) {
+            upstreams.put(route.name, new Upstream(route, proxy.executor));
+        }
+        proxy.upstreams = upstreams;
+    }
+
+    /**
+     * Stops a proxy, closing the connections in progress.
+     *
+     * @return the number of requests served from the cache and the number of
+     *         cacheable requests, or null if the proxy was not running
+     */
+    @CheckForNull
+    static long[] stop(String id) {
+        ApiCachingProxy proxy = RUNNING.remove(id);
+        if (proxy == null) {
+            return null;
+        }
+        proxy.server.stop(0);
+        proxy.executor.shutdownNow();
+        proxy.cache.clear();
+        long hits = proxy.hits.get();
+        return new long[] {hits, hits + proxy.misses.get()};
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String presented = exchange.getRequestHeaders().getFirst("Authorization");
+            if (presented == null
+                    || !MessageDigest.isEqual(authorization, presented.getBytes(StandardCharsets.UTF_8))) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            String upgrade = exchange.getRequestHeaders().getFirst("Upgrade");
+            if (upgrade != null && !"h2c".equalsIgnoreCase(upgrade)) {
+                // exec, attach, cp and port-forward switch to SPDY or WebSockets, which need a direct connection
+                sendStatus(exchange, 400, "BadRequest", UPGRADE_NOT_SUPPORTED);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getRawPath();
+            int slash = path.indexOf('/', 1);
+            String name = slash < 0 ? path.substring(1) : path.substring(1, slash);
+            String rest = slash < 0 ? "/" : path.substring(slash);
+            Upstream upstream = upstreams.get(name);
+            if (upstream == null) {
+                sendError(exchange, 404, "Unknown API server");
+                return;
+            }
+
+            String query = exchange.getRequestURI().getRawQuery();
+            String method = exchange.getRequestMethod();
+            if ("GET".equals(method) && query == null && CACHEABLE.matcher(rest).matches()) {
+                String key = name + " " + rest + " " + exchange.getRequestHeaders().getFirst("Accept");
+                send(exchange, cached(key, upstream, exchange, rest));
+            } else {
+                forward(exchange, upstream, rest, query);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 502, "Interrupted");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Proxy " + id + " failed to forward " + exchange.getRequestURI(), e);
+            sendError(exchange, 502, "Unable to reach the API server: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the cached response, or fetches it. Concurrent requests for the
+     * same document share a single upstream call.
+     */
+    private Response cached(String key, Upstream upstream, HttpExchange exchange, String path)
+            throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Response> mine = new CompletableFuture<>();
+        CompletableFuture<Response> current = cache.compute(key,
+                (k, existing) -> existing == null || isStale(existing, now) ? mine : existing);
+        if (current != mine) {
+            hits.incrementAndGet();
+            try {
+                return current.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            HttpResponse<byte[]> response = upstream.client.send(
+                    request(exchange, upstream, path, null).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+            Response result = new Response(response.statusCode(), response.headers().map(), response.body(),
+                    System.currentTimeMillis() + ttlMillis);
+            mine.complete(result);
+            if (result.status != 200 || result.body.length > MAX_CACHED_BYTES) {
+                cache.remove(key, mine);
+            }
+            return result;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            cache.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static boolean isStale(CompletableFuture<Response> entry, long now) {
+        return entry.isDone() && (entry.isCompletedExceptionally() || entry.join().expires < now);
+    }
+
+    /**
+     * Forwards a request, streaming the response so that watches are passed
+     * through as they come.
+     */
+    private void forward(HttpExchange exchange, Upstream upstream, String path, @CheckForNull String query)
+            throws IOException, InterruptedException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        HttpRequest request = request(exchange, upstream, path, query)
+                .method(exchange.getRequestMethod(), body.length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        HttpResponse<InputStream> response = upstream.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            copyHeaders(response.headers().map(), exchange);
+            if (!hasBody(exchange, response.statusCode())) {
+                exchange.sendResponseHeaders(response.statusCode(), -1);
+                return;
+            }
+            // 0 streams the body in chunks, -1 sends an empty one
+            long length = response.headers().firstValueAsLong("Content-Length").orElse(0);
+            exchange.sendResponseHeaders(response.statusCode(),
+                    length == 0 && response.headers().firstValue("Content-Length").isPresent() ? -1 : length);
+            OutputStream out = exchange.getResponseBody();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        }
+    }
+
+    private static HttpRequest.Builder request(HttpExchange exchange, Upstream upstream, String path,
+            @CheckForNull String query) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(upstream.route.uri(path, query));
+        exchange.getRequestHeaders().forEach((name, values) -> {
+            if (!SKIPPED_HEADERS.contains(name.toLowerCase(Locale.ENGLISH))) {
+                values.forEach(value -> builder.header(name, value));
+            }
+        });
+        String authorization = upstream.authorization();
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        copyHeaders(response.headers, exchange);
+        if (!hasBody(exchange, response.status)) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+        exchange.getResponseBody().write(response.body);
+    }
+
+    private static void copyHeaders(Map<String, List<String>> headers, HttpExchange exchange) {
+        headers.forEach((name, values) -> {
+            if (!name.startsWith(":") && !SKIPPED_HEADERS.contains(name.toLowerCase(Locale.ENGLISH))) {
+                exchange.getResponseHeaders().put(name, values);
+            }
+        });
+    }
+
+    private static boolean hasBody(HttpExchange exchange, int status) {
+        return !"HEAD".equals(exchange.getRequestMethod()) && status != 204 && status != 304;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            byte[] body = message.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // Headers already sent, or the client is gone
+            LOGGER.log(Level.FINEST, "Unable to send the error", e);
+        }
+    }
+
+    /**
+     * Sends an error as a Kubernetes status, so that kubectl shows its message.
+     */
+    private static void sendStatus(HttpExchange exchange, int status, String reason, String message) {
+        try {
+            byte[] body = ("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\","
+                    + "\"message\":\"" + message + "\",\"reason\":\"" + reason + "\",\"code\":" + status + "}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINEST, "Unable to send the error", e);
+        }
+    }
+
+    private static final class Upstream {
+        final Route route;
+        final HttpClient client;
+        @CheckForNull
+        private final TokenSource tokens;
+
+        Upstream(Route route, ExecutorService executor) throws IOException, GeneralSecurityException {
+            this.route = route;
+            this.tokens = route.getTokenSource() == null ? null : new CachingTokenSource(route.getTokenSource());
+            this.client = HttpClient.newBuilder()
+                    .sslContext(route.sslContext())
+                    .executor(executor)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    // HTTP/2 is negotiated over TLS only, avoid upgrade attempts on plain connections
+                    .version(route.server.startsWith("https:") ? HttpClient.Version.HTTP_2
+                            : HttpClient.Version.HTTP_1_1)
+                    .build();
+        }
+
+        /**
+         * Returns the authorization of the user, with a token refreshed by the
+         * controller before it expires if the credentials produce tokens.
+         */
+        @CheckForNull
+        String authorization() throws IOException {
+            return tokens == null ? route.getAuthorization() : "Bearer " + tokens.getToken().getToken();
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+        final long expires;
+
+        Response(int status, Map<String, List<String>> headers, byte[] body, long expires) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.jenkinsci.plugins.kubernetes.cli.proxy;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
+import org.jenkinsci.plugins.kubernetes.cli.exec.ExecCredentialSession;
+import org.jenkinsci.plugins.kubernetes.cli.exec.ExecCredentialSession.RevocableSource;
+import org.jenkinsci.plugins.kubernetes.cli.exec.TokenSource;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import io.fabric8.kubernetes.api.model.AuthInfoBuilder;
+import io.fabric8.kubernetes.api.model.Cluster;
+import io.fabric8.kubernetes.api.model.ClusterBuilder;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+import io.fabric8.kubernetes.api.model.NamedAuthInfo;
+import io.fabric8.kubernetes.api.model.NamedAuthInfoBuilder;
+import io.fabric8.kubernetes.api.model.NamedCluster;
+import io.fabric8.kubernetes.api.model.NamedClusterBuilder;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * The {@link ApiCachingProxy} of a block, seen from the controller.
+ *
+ * The proxy is started on the agent before the kubeconfig files are written.
+ * Each file is then rewritten so that its current context goes through the
+ * proxy, with the token of the session instead of the real credentials, and
+ * is the only one left. The routes are sent to the agent once all the files
+ * are written.
+ */
+public final class ApiProxySession {
+    private static final Logger LOGGER = Logger.getLogger(ApiProxySession.class.getName());
+
+    static final long CACHE_TTL_SECONDS = SystemProperties.getLong(
+            ApiProxySession.class.getName() + ".cacheTtlSeconds", 30L);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Token sources exported by the running sessions, by session id
+    private static final ConcurrentMap<String, List<RevocableSource>> EXPORTED = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final String token;
+    private final String baseUrl;
+    private final VirtualChannel channel;
+    private final List<Route> routes = new ArrayList<>();
+
+    private ApiProxySession(String id, String token, int port, VirtualChannel channel) {
+        this.id = id;
+        this.token = token;
+        this.baseUrl = "http://127.0.0.1:" + port + "/";
+        this.channel = channel;
+    }
+
+    /**
+     * Starts a proxy on the node of the workspace.
+     *
+     * @param workspace the workspace of the build
+     * @return the session, to rewrite the kubeconfig files with
+     * @throws IOException          if the proxy cannot be started
+     * @throws InterruptedException if interrupted
+     */
+    @NonNull
+    public static ApiProxySession start(@NonNull FilePath workspace) throws IOException, InterruptedException {
+        byte[] secret = new byte[32];
+        RANDOM.nextBytes(secret);
+        String id = UUID.randomUUID().toString();
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+        VirtualChannel channel = workspace.getChannel();
+        int port = channel.call(new Start(id, token, TimeUnit.SECONDS.toMillis(CACHE_TTL_SECONDS)));
+        EXPORTED.put(id, new ArrayList<>());
+        return new ApiProxySession(id, token, port, channel);
+    }
+
+    /**
+     * Stops a proxy, after revoking the token sources of its routes.
+     *
+     * @param workspace the workspace of the build, on the node of the proxy
+     * @param id        the id of the session
+     * @return the number of requests served from the cache and the number of
+     *         cacheable requests, or null if the proxy was not running
+     * @throws IOException          if the agent cannot be reached
+     * @throws InterruptedException if interrupted
+     */
+    @CheckForNull
+    public static long[] stop(@NonNull FilePath workspace, @NonNull String id)
+            throws IOException, InterruptedException {
+        List<RevocableSource> exported = EXPORTED.remove(id);
+        if (exported != null) {
+            synchronized (exported) {
+                exported.forEach(RevocableSource::revoke);
+            }
+        }
+        return workspace.getChannel().call(new Stop(id));
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Points the current context of a kubeconfig to the proxy, and removes the
+     * other contexts with their clusters and users. Configurations the proxy
+     * cannot authenticate for, such as the ones using exec plugins, are
+     * returned as is.
+     *
+     * @param config the configuration, left untouched
+     * @return the configuration to write
+     */
+    @NonNull
+    public Config rewrite(@NonNull Config config) {
+        return rewrite(config, null);
+    }
+
+    /**
+     * Points the current context of a kubeconfig to the proxy, like
+     * {@link #rewrite(Config)}. The tokens of credentials producing them are
+     * refreshed by the proxy for as long as the block runs.
+     *
+     * @param config      the configuration, left untouched
+     * @param credentials the credentials the configuration was built from,
+     *                    null for in-cluster configurations
+     * @return the configuration to write
+     */
+    @NonNull
+    public Config rewrite(@NonNull Config config, @CheckForNull StandardCredentials credentials) {
+        NamedContext context = find(config.getContexts(), config.getCurrentContext());
+        if (context == null || context.getContext() == null) {
+            return config;
+        }
+        String clusterName = context.getContext().getCluster();
+        String userName = context.getContext().getUser();
+        NamedCluster cluster = findCluster(config, clusterName);
+        NamedAuthInfo user = findUser(config, userName);
+        if (cluster == null || user == null) {
+            return config;
+        }
+
+        Route route;
+        synchronized (routes) {
+            route = Route.of(String.valueOf(routes.size()), cluster.getCluster(), user.getUser());
+            if (route == null) {
+                LOGGER.log(Level.FINE, "Not proxying cluster {0} for user {1}", new Object[] {clusterName, userName});
+                return config;
+            }
+            try {
+                // Checked on the controller, so that the agent is sure to accept the routes
+                route.sslContext();
+            } catch (IOException | GeneralSecurityException e) {
+                LOGGER.log(Level.FINE, "Not proxying cluster " + clusterName, e);
+                return config;
+            }
+            TokenSource tokenSource = route.hasToken()
+                    ? ExecCredentialSession.producerSourceFor(credentials, cluster.getCluster())
+                    : null;
+            if (tokenSource != null) {
+                route = route.withTokenSource(export(tokenSource));
+            }
+            routes.add(route);
+        }
+
+        Cluster proxied = new ClusterBuilder(cluster.getCluster())
+                .withServer(baseUrl + route.name)
+                .withCertificateAuthorityData(null)
+                .withInsecureSkipTlsVerify(null)
+                .build();
+        // The other contexts would keep the real credentials of their users
+        return new ConfigBuilder(config)
+                .withContexts(context)
+                .withClusters(new NamedClusterBuilder().withName(clusterName).withCluster(proxied).build())
+                .withUsers(new NamedAuthInfoBuilder().withName(userName)
+                        .withUser(new AuthInfoBuilder().withToken(token).build()).build())
+                .build();
+    }
+
+    /**
+     * Sends the routes of the rewritten files to the proxy.
+     *
+     * @throws IOException          if the proxy cannot be reached
+     * @throws InterruptedException if interrupted
+     */
+    public void publish() throws IOException, InterruptedException {
+        List<Route> published;
+        synchronized (routes) {
+            published = new ArrayList<>(routes);
+        }
+        channel.call(new SetRoutes(id, published));
+    }
+
+    /**
+     * Exports a token source to the agent, until the proxy is stopped.
+     */
+    private TokenSource export(TokenSource source) {
+        List<RevocableSource> exported = EXPORTED.get(id);
+        if (exported == null) {
+            throw new IllegalStateException("API proxy " + id + " is stopped");
+        }
+        RevocableSource revocable = new RevocableSource(source);
+        synchronized (exported) {
+            exported.add(revocable);
+        }
+        return channel.export(TokenSource.class, revocable);
+    }
+
+    @CheckForNull
+    private static NamedContext find(List<NamedContext> contexts, String name) {
+        return contexts == null ? null
+                : contexts.stream().filter(c -> name != null && name.equals(c.getName())).findFirst().orElse(null);
+    }
+
+    @CheckForNull
+    private static NamedCluster findCluster(Config config, String name) {
+        return config.getClusters() == null ? null
+                : config.getClusters().stream().filter(c -> name != null && name.equals(c.getName())).findFirst()
+                        .orElse(null);
+    }
+
+    @CheckForNull
+    private static NamedAuthInfo findUser(Config config, String name) {
+        return config.getUsers() == null ? null
+                : config.getUsers().stream().filter(u -> name != null && name.equals(u.getName())).findFirst()
+                        .orElse(null);
+    }
+
+    private static final class Start extends MasterToSlaveCallable<Integer, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final String token;
+        private final long ttlMillis;
+
+        Start(String id, String token, long ttlMillis) {
+            this.id = id;
+            this.token = token;
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            return ApiCachingProxy.start(id, token, ttlMillis);
+        }
+    }
+
+    private static final class SetRoutes extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final List<Route> routes;
+
+        SetRoutes(String id, List<Route> routes) {
+            this.id = id;
+            this.routes = routes;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                ApiCachingProxy.setRoutes(id, routes);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            return null;
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<long[], RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public long[] call() {
+            return ApiCachingProxy.stop(id);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.kubernetes.cli.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Cache of kubectl binaries on an agent.
+ *
+ * <pre>
+ * kubectl-cache/
+ *   sha256/&lt;digest&gt;/kubectl   binaries, by digest
+ *   sources/&lt;hash of the URL&gt;    digest of the binary downloaded from a URL
+ * </pre>
+ *
+ * Downloads are serialized by a lock on the cache, both between the threads
+ * of the agent and between the processes sharing its directory. Files are
+ * downloaded next to the cache and moved into it once complete, so that a
+ * binary in the cache is never partial.
+ */
+final class KubectlCache {
+    static final String DIRECTORY = "kubectl-cache";
+
+    private static final int TIMEOUT_MS = 30_000;
+
+    // Serializes the downloads of the threads of this process, as file locks are per process
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private KubectlCache() {
+    }
+
+    /**
+     * Installs a kubectl version in the cache, if missing, and returns the
+     * directory containing it, relative to the cache.
+     */
+    static final class Install extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final String version;
+        private final String url;
+        private final String sha256;
+        private final TaskListener listener;
+
+        Install(String version, String url, String sha256, TaskListener listener) {
+            this.version = version;
+            this.url = url;
+            this.sha256 = sha256;
+            this.listener = listener;
+        }
+
+        @Override
+        public String invoke(File cache, VirtualChannel channel) throws IOException, InterruptedException {
+            String os = os();
+            String binary = "windows".equals(os) ? "kubectl.exe" : "kubectl";
+            String source = url.replace("${version}", version)
+                    .replace("${os}", os)
+                    .replace("${arch}", arch())
+                    .replace("${ext}", "windows".equals(os) ? ".exe" : "");
+            File pointer = new File(new File(cache, "sources"), digest(source.getBytes(StandardCharsets.UTF_8)));
+
+            String home = lookup(cache, pointer, binary);
+            if (home != null) {
+                return home;
+            }
+
+            Files.createDirectories(pointer.getParentFile().toPath());
+            synchronized (LOCKS.computeIfAbsent(cache.getCanonicalPath(), k -> new Object())) {
+                try (FileChannel lockFile = FileChannel.open(new File(cache, ".lock").toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        FileLock ignored = lockFile.lock()) {
+                    // Installed by another build while waiting for the lock
+                    home = lookup(cache, pointer, binary);
+                    if (home != null) {
+                        return home;
+                    }
+                    return download(cache, source, pointer, binary);
+                }
+            }
+        }
+
+        /**
+         * Returns the directory of the binary downloaded from the source, if
+         * already in the cache.
+         */
+        private String lookup(File cache, File pointer, String binary) throws IOException {
+            if (sha256 != null && new File(cache, "sha256/" + sha256 + "/" + binary).isFile()) {
+                return "sha256/" + sha256;
+            }
+            if (!pointer.isFile()) {
+                return null;
+            }
+            String digest = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+            if (sha256 != null && !sha256.equalsIgnoreCase(digest)) {
+                return null;
+            }
+            return new File(cache, "sha256/" + digest + "/" + binary).isFile() ? "sha256/" + digest : null;
+        }
+
+        private String download(File cache, String source, File pointer, String binary)
+                throws IOException, InterruptedException {
+            listener.getLogger().println("[kubernetes-cli] downloading kubectl " + version + " from " + source);
+            Path work = Files.createTempDirectory(cache.toPath(), "download");
+            try {
+                Path downloaded = work.resolve("download");
+                URLConnection connection = URI.create(source).toURL().openConnection();
+                connection.setConnectTimeout(TIMEOUT_MS);
+                connection.setReadTimeout(TIMEOUT_MS);
+                try (InputStream in = connection.getInputStream()) {
+                    Files.copy(in, downloaded);
+                }
+
+                Path file = extract(downloaded, source, work, binary);
+                String digest = digest(file);
+                if (sha256 != null && !sha256.equalsIgnoreCase(digest)) {
+                    throw new AbortException("[kubernetes-cli] checksum mismatch for kubectl downloaded from " + source
+                            + ": expected " + sha256 + " but got " + digest);
+                }
+
+                Path target = cache.toPath().resolve("sha256").resolve(digest);
+                if (!Files.isRegularFile(target.resolve(binary))) {
+                    Files.createDirectories(target);
+                    Path partial = target.resolve(binary + ".partial");
+                    Files.move(file, partial, StandardCopyOption.REPLACE_EXISTING);
+                    partial.toFile().setExecutable(true, false);
+                    Files.move(partial, target.resolve(binary), StandardCopyOption.ATOMIC_MOVE);
+                }
+
+                Path partialPointer = work.resolve("pointer");
+                Files.write(partialPointer, digest.getBytes(StandardCharsets.UTF_8));
+                Files.move(partialPointer, pointer.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                return "sha256/" + digest;
+            } finally {
+                Util.deleteRecursive(work.toFile());
+            }
+        }
+    }
+
+    /**
+     * Returns the binary, extracted from the downloaded file if it is an
+     * archive.
+     */
+    private static Path extract(Path downloaded, String source, Path work, String binary)
+            throws IOException, InterruptedException {
+        String name = source.toLowerCase(Locale.ROOT);
+        Path extracted = work.resolve("extracted");
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            new FilePath(downloaded.toFile()).untar(new FilePath(extracted.toFile()), FilePath.TarCompression.GZIP);
+        } else if (name.endsWith(".zip")) {
+            new FilePath(downloaded.toFile()).unzip(new FilePath(extracted.toFile()));
+        } else {
+            return downloaded;
+        }
+        try (Stream<Path> files = Files.walk(extracted)) {
+            return files.filter(f -> Files.isRegularFile(f) && binary.equals(f.getFileName().toString()))
+                    .findFirst()
+                    .orElseThrow(() -> new AbortException("[kubernetes-cli] no " + binary + " found in " + source));
+        }
+    }
+
+    static String os() {
+        String name = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        if (name.contains("win")) {
+            return "windows";
+        }
+        if (name.contains("mac") || name.contains("darwin")) {
+            return "darwin";
+        }
+        return "linux";
+    }
+
+    static String arch() {
+        String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ROOT);
+        switch (arch) {
+            case "x86_64":
+            case "amd64":
+                return "amd64";
+            case "aarch64":
+            case "arm64":
+                return "arm64";
+            default:
+                return arch;
+        }
+    }
+
+    private static String digest(byte[] content) {
+        return Util.toHexString(sha256().digest(content));
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
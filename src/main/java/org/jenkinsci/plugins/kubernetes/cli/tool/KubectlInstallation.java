@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.kubernetes.cli.tool;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.EnvironmentSpecific;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeSpecific;
+import hudson.tools.ToolDescriptor;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolProperty;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+
+/**
+ * A kubectl binary, installed on the agents by a {@link KubectlInstaller} or
+ * already present on them. The directory containing it is added to the
+ * {@code PATH} of the builds using it.
+ */
+public class KubectlInstallation extends ToolInstallation
+        implements NodeSpecific<KubectlInstallation>, EnvironmentSpecific<KubectlInstallation> {
+    private static final long serialVersionUID = 1L;
+
+    // Added to the PATH of the builds using the installation
+    public static final String PATH_VARIABLE = "PATH+KUBECTL";
+
+    @DataBoundConstructor
+    public KubectlInstallation(String name, String home, List<? extends ToolProperty<?>> properties) {
+        super(Util.fixEmptyAndTrim(name), Util.fixEmptyAndTrim(home), properties);
+    }
+
+    @Override
+    public KubectlInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
+        return new KubectlInstallation(getName(), translateFor(node, log), getProperties().toList());
+    }
+
+    @Override
+    public KubectlInstallation forEnvironment(EnvVars environment) {
+        return new KubectlInstallation(getName(), environment.expand(getHome()), getProperties().toList());
+    }
+
+    @Override
+    public void buildEnvVars(EnvVars env) {
+        if (getHome() != null) {
+            env.put(PATH_VARIABLE, getHome());
+        }
+    }
+
+    /**
+     * Returns the installation with the given name, or the only one when no
+     * name is given.
+     *
+     * @param name name of the installation, may be empty
+     * @return the installation, or null if none is named so, or if no name is
+     *         given and there is not exactly one installation
+     */
+    @CheckForNull
+    public static KubectlInstallation find(@CheckForNull String name) {
+        KubectlInstallation[] installations = Jenkins.get().getDescriptorByType(DescriptorImpl.class)
+                .getInstallations();
+        if (Util.fixEmpty(name) == null) {
+            return installations.length == 1 ? installations[0] : null;
+        }
+        for (KubectlInstallation installation : installations) {
+            if (name.equals(installation.getName())) {
+                return installation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the installations, for the steps to choose from.
+     *
+     * @return the names of the installations, preceded by the default one
+     */
+    public static ListBoxModel fillItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("(default)", "");
+        for (KubectlInstallation installation : Jenkins.get().getDescriptorByType(DescriptorImpl.class)
+                .getInstallations()) {
+            items.add(installation.getName());
+        }
+        return items;
+    }
+
+    @Extension
+    @Symbol("kubectl")
+    public static class DescriptorImpl extends ToolDescriptor<KubectlInstallation> {
+
+        public DescriptorImpl() {
+            load();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "kubectl";
+        }
+
+        @Override
+        public List<? extends ToolInstaller> getDefaultInstallers() {
+            return Collections.singletonList(new KubectlInstaller(null));
+        }
+
+        @Override
+        public void setInstallations(KubectlInstallation... installations) {
+            super.setInstallations(installations);
+            save();
+        }
+    }
+}
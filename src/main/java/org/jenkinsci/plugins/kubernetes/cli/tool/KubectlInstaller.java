@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.kubernetes.cli.tool;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.FormValidation;
+
+/**
+ * Installs kubectl on the agents. Each version is downloaded once per agent
+ * into a cache shared by all the installations, where the binaries are stored
+ * by their SHA-256 digest.
+ *
+ * The binary is downloaded from a URL template, which may point to a local
+ * mirror, and may be a {@code .tar.gz} or {@code .zip} archive containing it.
+ */
+public class KubectlInstaller extends ToolInstaller {
+
+    public static final String DEFAULT_VERSION = "v1.31.0";
+
+    public static final String DEFAULT_URL = "https://dl.k8s.io/release/${version}/bin/${os}/${arch}/kubectl${ext}";
+
+    private final String version;
+
+    // Where to download kubectl from, ${version}, ${os}, ${arch} and ${ext} are replaced
+    private String url;
+
+    // Expected SHA-256 digest of the binary, not checked if empty
+    private String sha256;
+
+    @DataBoundConstructor
+    public KubectlInstaller(String version) {
+        super(null);
+        this.version = Util.fixEmptyAndTrim(version) == null ? DEFAULT_VERSION : version.trim();
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getUrl() {
+        return Util.fixEmptyAndTrim(url) == null ? DEFAULT_URL : url;
+    }
+
+    @DataBoundSetter
+    public void setUrl(String url) {
+        this.url = Util.fixEmptyAndTrim(url);
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    @DataBoundSetter
+    public void setSha256(String sha256) {
+        String digest = Util.fixEmptyAndTrim(sha256);
+        this.sha256 = digest == null ? null : digest.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The binary is downloaded by the agent itself, concurrent installations of
+     * the same version waiting for the first one to complete.
+     */
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            throw new AbortException("[kubernetes-cli] unable to install kubectl on offline node "
+                    + node.getDisplayName());
+        }
+        FilePath cache = root.child("tools").child(KubectlCache.DIRECTORY);
+        String home = cache.act(new KubectlCache.Install(version, getUrl(), sha256, log));
+        return cache.child(home);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ToolInstallerDescriptor<KubectlInstaller> {
+        @Override
+        public String getDisplayName() {
+            return "Install kubectl";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == KubectlInstallation.class;
+        }
+
+        public String getDefaultVersion() {
+            return DEFAULT_VERSION;
+        }
+
+        public String getDefaultUrl() {
+            return DEFAULT_URL;
+        }
+
+        public FormValidation doCheckSha256(@QueryParameter String value) {
+            String digest = Util.fixEmptyAndTrim(value);
+            if (digest != null && !digest.matches("[0-9a-fA-F]{64}")) {
+                return FormValidation.error("Not a SHA-256 digest");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
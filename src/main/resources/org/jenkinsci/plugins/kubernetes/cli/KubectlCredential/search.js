@@ -0,0 +1,59 @@
+// Replaces the options of the credentials dropdown with the credentials
+// matching what is typed in the search box, one page at a time.
+Behaviour.specify(".kubernetes-cli-credentials-search", "kubernetes-cli-credentials-search", 0, function (input) {
+  var timer = null;
+
+  function search() {
+    var select = input.parentNode.querySelector("select");
+    if (select == null) {
+      return;
+    }
+    var serverUrl = findNearBy(input, "serverUrl");
+    var params = new URLSearchParams();
+    params.append("query", input.value);
+    params.append("serverUrl", serverUrl == null ? "" : serverUrl.value);
+
+    fetch(input.getAttribute("data-search-url"), {
+      method: "post",
+      headers: crumb.wrap({ "Content-Type": "application/x-www-form-urlencoded" }),
+      body: params,
+    })
+      .then(function (rsp) {
+        return rsp.ok ? rsp.json() : null;
+      })
+      .then(function (json) {
+        if (json == null || json.status !== "ok") {
+          return;
+        }
+        var selected = select.value;
+        var current = select.options[select.selectedIndex];
+        select.options.length = 0;
+        select.add(new Option("- none -", ""));
+        if (current != null && current.value !== "") {
+          select.add(new Option(current.text, current.value));
+        }
+        json.data.credentials.forEach(function (c) {
+          if (c.id !== selected) {
+            select.add(new Option(c.name, c.id));
+          }
+        });
+        if (json.data.total > json.data.credentials.length) {
+          var more = new Option((json.data.total - json.data.credentials.length) + " more, refine the search", "");
+          more.disabled = true;
+          select.add(more);
+        }
+        select.value = selected;
+      });
+  }
+
+  input.addEventListener("input", function () {
+    clearTimeout(timer);
+    timer = setTimeout(search, 300);
+  });
+  input.addEventListener("keydown", function (e) {
+    // Do not submit the form
+    if (e.key === "Enter") {
+      e.preventDefault();
+    }
+  });
+});
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks of the plugin, with {@code mvn test -P benchmark}.
+ * The benchmarks to run can be selected with
+ * {@code -Dbenchmark.include=<regex>}.
+ *
+ * Reports the throughput of each benchmark, and its allocation rate from the
+ * GC profiler ({@code gc.alloc.rate.norm} is the number of bytes allocated
+ * per operation). The results are written to {@code target/jmh-result.json}.
+ */
+@Tag("benchmark")
+public class BenchmarkRunner {
+    @Test
+    public void runBenchmarks() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(System.getProperty("benchmark.include", ".*Benchmark"))
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
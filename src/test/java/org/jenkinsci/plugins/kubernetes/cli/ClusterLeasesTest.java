@@ -0,0 +1,221 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class ClusterLeasesTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void testSlotsAreGrantedInOrder() throws Exception {
+        ClusterLeases leases = new ClusterLeases(() -> 1);
+
+        CompletableFuture<List<ClusterLeases.Lease>> first = leases.acquire(Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> second = leases.acquire(Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> third = leases.acquire(Arrays.asList("a"), null);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(2, leases.waiting("a"));
+
+        leases.release(first.get());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        leases.release(second.get());
+        leases.release(third.get());
+        assertEquals(0, leases.holders("a"));
+        assertEquals(0, leases.waiting("a"));
+    }
+
+    @Test
+    public void testCancelGivesUpTheSlots() throws Exception {
+        ClusterLeases leases = new ClusterLeases(() -> 1);
+
+        CompletableFuture<List<ClusterLeases.Lease>> holder = leases.acquire(Arrays.asList("b"), null);
+        // Holds "a" and waits for "b"
+        CompletableFuture<List<ClusterLeases.Lease>> cancelled = leases.acquire(Arrays.asList("b", "a"), null);
+        assertFalse(cancelled.isDone());
+        assertEquals(1, leases.holders("a"));
+
+        cancelled.cancel(true);
+        assertEquals(0, leases.holders("a"));
+        assertEquals(0, leases.waiting("b"));
+
+        leases.release(holder.get());
+        assertEquals(0, leases.holders("b"));
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+        ClusterLeases leases = new ClusterLeases(() -> 0);
+
+        CompletableFuture<List<ClusterLeases.Lease>> first = leases.acquire(Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> second = leases.acquire(Arrays.asList("a"), null);
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(0, leases.holders("a"));
+        // Unknown slots are ignored
+        leases.release(Collections.singletonList(new ClusterLeases.Lease("a", "unknown")));
+    }
+
+    @Test
+    public void testSlotsAreSharedByTheBlocksOfABuild() throws Exception {
+        ClusterLeases leases = new ClusterLeases(() -> 1);
+
+        CompletableFuture<List<ClusterLeases.Lease>> outer = leases.acquire("job/p/1", Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> other = leases.acquire("job/q/1", Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> inner = leases.acquire("job/p/1", Arrays.asList("a"), null);
+        assertTrue(outer.isDone());
+        assertFalse(other.isDone());
+        // Not queued behind the other build, which waits for the outer block
+        assertTrue(inner.isDone());
+        assertEquals(1, leases.holders("a"));
+
+        leases.release(inner.get());
+        assertFalse(other.isDone());
+        leases.release(outer.get());
+        assertTrue(other.isDone());
+
+        leases.release(other.get());
+        assertEquals(0, leases.holders("a"));
+    }
+
+    @Test
+    public void testSlotGrantedWhileGivingUpIsReleasedOnce() throws Exception {
+        ClusterLeases leases = new ClusterLeases(() -> 1);
+        List<ClusterLeases.Lease> outer = leases.acquire("job/p/1", Arrays.asList("a"), null).get();
+
+        for (int i = 0; i < 200; i++) {
+            List<ClusterLeases.Lease> other = leases.acquire("job/q/" + i, Arrays.asList("b"), null).get();
+            // Shares the slot of the outer block on a, then waits for b
+            CompletableFuture<List<ClusterLeases.Lease>> inner = leases.acquire("job/p/1", Arrays.asList("a", "b"),
+                    null);
+            assertFalse(inner.isDone());
+
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Thread releaser = new Thread(() -> {
+                await(barrier);
+                leases.release(other);
+            });
+            releaser.start();
+            await(barrier);
+            inner.cancel(true);
+            releaser.join();
+            if (!inner.isCompletedExceptionally()) {
+                leases.release(inner.get());
+            }
+
+            // The outer block still holds its slot on a
+            assertEquals(1, leases.holders("a"));
+            CompletableFuture<List<ClusterLeases.Lease>> intruder = leases.acquire("job/r/" + i, Arrays.asList("a"),
+                    null);
+            assertFalse(intruder.isDone());
+            intruder.cancel(true);
+            assertEquals(0, leases.holders("b"));
+        }
+        leases.release(outer);
+        assertEquals(0, leases.holders("a"));
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testWaitersAreGrantedWhenTheLimitChanges() throws Exception {
+        AtomicInteger limit = new AtomicInteger(1);
+        ClusterLeases leases = new ClusterLeases(limit::get);
+
+        CompletableFuture<List<ClusterLeases.Lease>> first = leases.acquire(Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> second = leases.acquire(Arrays.asList("a"), null);
+        CompletableFuture<List<ClusterLeases.Lease>> third = leases.acquire(Arrays.asList("a"), null);
+        assertFalse(second.isDone());
+
+        limit.set(2);
+        leases.limitChanged();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        // No limit anymore: every waiting build is let through
+        limit.set(0);
+        leases.release(first.get());
+        assertTrue(third.isDone());
+        leases.release(second.get());
+        leases.release(third.get());
+        assertEquals(0, leases.holders("a"));
+        assertEquals(0, leases.waiting("a"));
+    }
+
+    @Test
+    public void testNestedBlocksOnTheSameCluster() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        KubectlGlobalConfiguration.get().setMaxLeasesPerCluster(1);
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testNestedBlocksOnTheSameCluster");
+        p.setDefinition(new CpsFlowDefinition(
+                "withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                        + "  withKubeCredentials([[credentialsId: 'test-credentials',"
+                        + " serverUrl: 'https://localhost:6443']]) {\n"
+                        + "    echo 'inner body started'\n"
+                        + "  }\n"
+                        + "}\n",
+                true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("inner body started", b);
+        r.assertLogNotContains("waiting for a kubeconfig slot", b);
+        assertEquals(0, ClusterLeases.get().holders("https://localhost:6443"));
+    }
+
+    @Test
+    public void testStepWaitsForASlot() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        KubectlGlobalConfiguration.get().setMaxLeasesPerCluster(1);
+        List<ClusterLeases.Lease> held = ClusterLeases.get()
+                .acquireAndWait(Collections.singletonList("https://localhost:6443"), null);
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStepWaitsForASlot");
+        p.setDefinition(new CpsFlowDefinition(
+                "withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                        + "  echo 'body started'\n"
+                        + "}\n",
+                true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        r.waitForMessage("[kubernetes-cli] waiting for a kubeconfig slot on 'https://localhost:6443'", b);
+        r.assertLogNotContains("body started", b);
+
+        ClusterLeases.get().release(held);
+        r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        r.assertLogContains("body started", b);
+        assertEquals(0, ClusterLeases.get().holders("https://localhost:6443"));
+    }
+}
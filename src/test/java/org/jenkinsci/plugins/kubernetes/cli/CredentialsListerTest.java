@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.util.ListBoxModel;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class CredentialsListerTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void testListIsRefreshedWhenCredentialsAreAdded() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("1"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testListIsRefreshed");
+
+        assertEquals(2, CredentialsLister.doFillCredentialsIdItems(p, "", "").size());
+
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("2"));
+
+        assertEquals(3, CredentialsLister.doFillCredentialsIdItems(p, "", "").size());
+    }
+
+    @Test
+    public void testCachedListCannotBeModified() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("1"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testCachedListCannotBeModified");
+
+        ListBoxModel first = CredentialsLister.doFillCredentialsIdItems(p, "", "");
+        first.clear();
+        ListBoxModel second = CredentialsLister.doFillCredentialsIdItems(p, "", "");
+
+        assertEquals(2, second.size());
+        assertEquals("1", second.get(1).value);
+    }
+
+    @Test
+    public void testSearchReturnsPagesOfMatchingCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        for (int i = 1; i <= 5; i++) {
+            store.addCredentials(Domain.global(), DummyCredentials.secretCredential("cluster-" + i));
+        }
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("other"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testSearch");
+
+        CredentialsIndex.Page page = CredentialsIndex.build(p, "").search("CLUSTER", 1, 2);
+
+        assertEquals(5, page.total);
+        assertEquals(Arrays.asList("cluster-2", "cluster-3"),
+                page.entries.stream().map(e -> e.id).collect(Collectors.toList()));
+        assertEquals("Secret text", page.entries.get(0).type);
+    }
+
+    @Test
+    public void testLimitedListIncludesCurrentValue() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        for (int i = 1; i <= 5; i++) {
+            store.addCredentials(Domain.global(), DummyCredentials.secretCredential("cluster-" + i));
+        }
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testLimitedList");
+
+        ListBoxModel options = CredentialsLister.doFillCredentialsIdItems(p, "", "cluster-5", 2);
+
+        assertEquals(4, options.size());
+        assertEquals("cluster-1", options.get(1).value);
+        assertEquals("cluster-5", options.get(3).value);
+    }
+}
@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.sun.net.httpserver.HttpServer;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Result;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class CredentialsValidatorTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    private HttpServer server;
+    private final AtomicInteger versionCalls = new AtomicInteger();
+
+    @BeforeEach
+    public void startApiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/version", exchange -> {
+            versionCalls.incrementAndGet();
+            byte[] body = "{\"major\":\"1\",\"minor\":\"30\",\"gitVersion\":\"v1.30.0\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        CredentialsValidator.get().invalidateAll();
+    }
+
+    @AfterEach
+    public void stopApiServer() {
+        server.stop(0);
+    }
+
+    private String serverUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static KubectlCredential target(String credentialsId, String serverUrl) {
+        KubectlCredential target = new KubectlCredential();
+        target.credentialsId = credentialsId;
+        target.serverUrl = serverUrl;
+        return target;
+    }
+
+    @Test
+    public void testValidCredentialsAreCached() throws Exception {
+        StandardCredentials credentials = DummyCredentials.usernamePasswordCredential("cred");
+
+        List<CredentialsValidator.Result> results = CredentialsValidator.get().validate(
+                Arrays.asList(target("cred", serverUrl()), target("cred", serverUrl())), id -> credentials);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isValid());
+        assertEquals("v1.30.0", results.get(0).getServerVersion());
+
+        int calls = versionCalls.get();
+        CredentialsValidator.get().validate(Arrays.asList(target("cred", serverUrl())), id -> credentials);
+        assertEquals(calls, versionCalls.get());
+    }
+
+    @Test
+    public void testFailuresReportTheStage() throws Exception {
+        StandardCredentials credentials = DummyCredentials.usernamePasswordCredential("cred");
+        server.stop(0);
+
+        List<CredentialsValidator.Result> results = CredentialsValidator.get().validate(
+                Arrays.asList(target("missing", serverUrl()), target("cred", serverUrl())),
+                id -> "cred".equals(id) ? credentials : null);
+
+        assertFalse(results.get(0).isValid());
+        assertEquals(CredentialsValidator.Stage.RESOLVE, results.get(0).getFailedStage());
+        assertFalse(results.get(1).isValid());
+        assertEquals(CredentialsValidator.Stage.CONNECT, results.get(1).getFailedStage());
+    }
+
+    @Test
+    public void testPipelineStepFailsOnInvalidCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("cred"));
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testValidateKubeCredentials");
+        p.setDefinition(new CpsFlowDefinition(
+                "def results = validateKubeCredentials(kubectlCredentials: [[credentialsId: 'cred', serverUrl: '"
+                        + serverUrl() + "'], [credentialsId: 'missing', serverUrl: '" + serverUrl() + "']],"
+                        + " failOnError: false)\n"
+                        + "echo \"valid=${results.collect { it.valid }}\"\n"
+                        + "validateKubeCredentials(kubectlCredentials: [[credentialsId: 'missing']])\n",
+                true));
+        WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+
+        r.assertLogContains("valid=[true, false]", b);
+        r.assertLogContains("[kubernetes-cli] credentials 'cred' against " + serverUrl() + ": ok (v1.30.0)", b);
+        r.assertLogContains("[kubernetes-cli] 1 of 1 credentials failed validation", b);
+    }
+}
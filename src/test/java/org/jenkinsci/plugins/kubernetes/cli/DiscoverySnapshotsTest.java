@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.sun.net.httpserver.HttpServer;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.Util;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class DiscoverySnapshotsTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    // A discovery document, in a Groovy string
+    private static final String GROUPS = "{\\\"kind\\\":\\\"APIGroupList\\\",\\\"groups\\\":[]}";
+
+    private HttpServer server;
+    private final AtomicReference<String> gitVersion = new AtomicReference<>("v1.30.0");
+
+    @BeforeEach
+    public void startApiServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/version", exchange -> {
+            byte[] body = ("{\"major\":\"1\",\"minor\":\"30\",\"gitVersion\":\"" + gitVersion.get() + "\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        CredentialsValidator.get().invalidateAll();
+
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.usernamePasswordCredential("test-credentials"));
+        KubectlGlobalConfiguration.get().setShareDiscoverySnapshots(true);
+    }
+
+    @AfterEach
+    public void stopApiServer() {
+        server.stop(0);
+    }
+
+    private WorkflowRun run(String name, String body) throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'http://127.0.0.1:"
+                + server.getAddress().getPort() + "']) {\n"
+                + body
+                + "  }\n"
+                + "}\n", true));
+        return r.buildAndAssertSuccess(p);
+    }
+
+    // Simulates a new agent
+    private void dropAgentCaches() throws IOException, InterruptedException {
+        Util.deleteRecursive(new File(r.jenkins.getRootDir(), "caches/kubectl"));
+    }
+
+    @Test
+    public void testSnapshotIsRestoredOnNewAgents() throws Exception {
+        WorkflowRun first = run("first", "writeFile file: \"${env.KUBECACHEDIR}/discovery/servergroups.json\","
+                + " text: \"" + GROUPS + "\"\n"
+                + "writeFile file: \"${env.KUBECACHEDIR}/http/cached-response\", text: 'http cache'\n");
+        r.assertLogContains("[kubernetes-cli] saved a snapshot of the kubectl discovery cache", first);
+
+        dropAgentCaches();
+        WorkflowRun second = run("second", "echo readFile(\"${env.KUBECACHEDIR}/discovery/servergroups.json\")\n"
+                + "echo \"http=${fileExists(env.KUBECACHEDIR + '/http/cached-response')}\"\n");
+        r.assertLogContains("[kubernetes-cli] restored the kubectl discovery cache (snapshot 1)", second);
+        r.assertLogContains("APIGroupList", second);
+        // Only the discovery documents are shared
+        r.assertLogContains("http=false", second);
+        // Nothing changed, nothing to save
+        r.assertLogNotContains("saved a snapshot", second);
+    }
+
+    @Test
+    public void testInvalidSnapshotIsNotShared() throws Exception {
+        WorkflowRun first = run("first", "writeFile file: \"${env.KUBECACHEDIR}/discovery/servergroups.json\","
+                + " text: 'not a discovery document'\n");
+        r.assertLogContains("[kubernetes-cli] unable to save the kubectl discovery cache: invalid discovery document"
+                + " discovery/servergroups.json", first);
+
+        dropAgentCaches();
+        WorkflowRun second = run("second",
+                "echo \"cached=${fileExists(env.KUBECACHEDIR + '/discovery/servergroups.json')}\"\n");
+        r.assertLogNotContains("restored the kubectl discovery cache", second);
+        r.assertLogContains("cached=false", second);
+    }
+
+    @Test
+    public void testSnapshotIsDiscardedWhenTheServerIsUpgraded() throws Exception {
+        run("first", "writeFile file: \"${env.KUBECACHEDIR}/discovery/servergroups.json\", text: \"" + GROUPS
+                + "\"\n");
+
+        gitVersion.set("v1.31.0");
+        CredentialsValidator.get().invalidateAll();
+        dropAgentCaches();
+        WorkflowRun upgraded = run("upgraded",
+                "echo \"cached=${fileExists(env.KUBECACHEDIR + '/discovery/servergroups.json')}\"\n");
+        r.assertLogNotContains("restored the kubectl discovery cache", upgraded);
+        r.assertLogContains("cached=false", upgraded);
+    }
+}
@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Result;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class EachKubeCredentialStepTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @BeforeEach
+    public void addCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("a"));
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("b"));
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("c"));
+    }
+
+    private WorkflowJob pipeline(String options, String body) throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testEachKubeCredential");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  def results = withEachKubeCredential(kubectlCredentials: [\n"
+                + "      [credentialsId: 'a', serverUrl: 'https://a:6443'],\n"
+                + "      [credentialsId: 'b', serverUrl: 'https://b:6443'],\n"
+                + "      [credentialsId: 'c', serverUrl: 'https://c:6443']]" + options + ") {\n"
+                + body
+                + "  }\n"
+                + "  echo \"results=${results}\"\n"
+                + "}\n", true));
+        return p;
+    }
+
+    @Test
+    public void testBodyRunsOncePerCredential() throws Exception {
+        WorkflowJob p = pipeline(", maxParallel: 2",
+                "    echo \"cluster ${env.KUBE_CREDENTIALS_ID} at ${env.KUBE_SERVER_URL}\"\n"
+                        + "    if (!fileExists(env.KUBECONFIG)) { error 'missing kubeconfig' }\n");
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("cluster a at https://a:6443", b);
+        r.assertLogContains("cluster b at https://b:6443", b);
+        r.assertLogContains("cluster c at https://c:6443", b);
+        r.assertLogContains("results=[a:SUCCESS, b:SUCCESS, c:SUCCESS]", b);
+    }
+
+    @Test
+    public void testBestEffortReportsFailures() throws Exception {
+        WorkflowJob p = pipeline(", maxParallel: 1, failFast: false",
+                "    if (env.KUBE_CREDENTIALS_ID == 'b') { error 'boom' }\n");
+        WorkflowRun b = r.buildAndAssertStatus(Result.UNSTABLE, p);
+
+        r.assertLogContains("[kubernetes-cli] 1 of 3 bodies failed: b", b);
+        r.assertLogContains("results=[a:SUCCESS, b:FAILURE, c:SUCCESS]", b);
+    }
+
+    @Test
+    public void testFailFastSkipsRemainingCredentials() throws Exception {
+        WorkflowJob p = pipeline(", maxParallel: 1",
+                "    echo \"cluster ${env.KUBE_CREDENTIALS_ID}\"\n"
+                        + "    if (env.KUBE_CREDENTIALS_ID == 'b') { error 'boom' }\n");
+        WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+
+        r.assertLogContains("cluster b", b);
+        r.assertLogNotContains("cluster c", b);
+        r.assertLogContains("boom", b);
+    }
+
+    @Test
+    public void testFailFastWithQueuedSetups() throws Exception {
+        // Leave a single setup thread, so that the other setups are still queued when the first one fails
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(GenericBuildStep.SETUP_THREADS - 1);
+        for (int i = 0; i < GenericBuildStep.SETUP_THREADS - 1; i++) {
+            GenericBuildStep.SETUP_EXECUTOR.submit(() -> {
+                blocked.countDown();
+                release.await();
+                return null;
+            });
+        }
+        try {
+            assertTrue(blocked.await(30, TimeUnit.SECONDS));
+            int count = GenericBuildStep.SETUP_THREADS + 4;
+            StringBuilder credentials = new StringBuilder(
+                    "[credentialsId: 'missing', serverUrl: 'https://missing:6443']");
+            for (int i = 0; i < count; i++) {
+                credentials.append(",\n      [credentialsId: 'a', serverUrl: 'https://a:6443', contextName: 'a")
+                        .append(i).append("']");
+            }
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testFailFastWithQueuedSetups");
+            p.setDefinition(new CpsFlowDefinition("node {\n"
+                    + "  withEachKubeCredential(kubectlCredentials: [\n      " + credentials + "],"
+                    + " maxParallel: " + (count + 1) + ") {\n"
+                    + "    echo \"cluster ${env.KUBE_CREDENTIALS_ID}\"\n"
+                    + "  }\n"
+                    + "}\n", true));
+            WorkflowRun b = p.scheduleBuild2(0).get(2, TimeUnit.MINUTES);
+
+            r.assertBuildStatus(Result.FAILURE, b);
+            r.assertLogContains("unable to find credentials with id 'missing'", b);
+            r.assertLogContains("[kubernetes-cli] a" + (count - 1) + ": NOT_BUILT", b);
+            r.assertLogNotContains("cluster a", b);
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.cli.kubeconfig.KubeConfigWriter;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.FreeStyleBuild;
+import hudson.model.TaskListener;
+
+/**
+ * Thresholds of the memory used to set up the blocks, which adds up on
+ * controllers running thousands of them at the same time. Raise a threshold
+ * only for memory that cannot be avoided.
+ *
+ * Each threshold is a baseline measured by the test, the cost of what the
+ * plugin cannot avoid, plus the margin given here, so that the thresholds
+ * follow the JVM and the versions of the dependencies.
+ */
+@ExtendWith(JenkinsRuleExtension.class)
+public class FootprintTest {
+    private static final Logger LOGGER = Logger.getLogger(FootprintTest.class.getName());
+
+    // Bytes allocated per write on top of an in-cluster write, by the lookup of the credentials and their
+    // conversion, served from the caches once warmed up
+    private static final long CREDENTIALS_MARGIN_BYTES = 256 * 1024;
+    // Serialized bytes on top of the files and leases themselves, for the descriptors of the classes and fields
+    private static final int CLEANUP_STATE_MARGIN_BYTES = 1024;
+    // Heap retained by an active withKubeConfig block, as a fraction of the heap retained by the pipeline running it
+    private static final double RETAINED_HEAP_MARGIN = 0.5;
+
+    private static final int WARMUP_WRITES = 200;
+    private static final int MEASURED_WRITES = 500;
+    private static final int ACTIVE_BLOCKS = 100;
+
+    public final JenkinsRule r = new JenkinsRule();
+
+    @TempDir
+    public Path tempDir;
+
+    @BeforeEach
+    public void addCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.usernamePasswordCredential("username-password"));
+        store.addCredentials(Domain.global(), DummyCredentials.tokenCredential("token"));
+        store.addCredentials(Domain.global(), DummyCredentials.certificateCredential("certificate"));
+        store.addCredentials(Domain.global(), DummyCredentials.fileCredential("file"));
+    }
+
+    @Test
+    public void testAllocatedBytesPerWrite() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assumptions.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        Launcher launcher = r.jenkins.createLauncher(TaskListener.NULL);
+        FilePath workspace = new FilePath(tempDir.toFile());
+
+        // Without credentials: the environment of the build, the serialization and the write on the agent
+        long baseline = allocatedBytesPerWrite(allocations, new KubeConfigWriter("https://localhost:6443", "", "",
+                "", "", "", false, workspace, launcher, build), workspace);
+        assertTrue(baseline > 0, "in-cluster: " + baseline + " bytes allocated per write");
+
+        for (String credentialsId : Arrays.asList("username-password", "token", "certificate", "file")) {
+            long perWrite = allocatedBytesPerWrite(allocations, new KubeConfigWriter("https://localhost:6443",
+                    credentialsId, "", "", "", "", false, workspace, launcher, build), workspace);
+            LOGGER.log(Level.INFO, "{0}: {1} bytes allocated per write, {2} in-cluster",
+                    new Object[] {credentialsId, perWrite, baseline});
+            assertTrue(perWrite <= baseline + CREDENTIALS_MARGIN_BYTES,
+                    credentialsId + ": " + perWrite + " bytes allocated per write, " + baseline + " in-cluster");
+        }
+    }
+
+    private static long allocatedBytesPerWrite(com.sun.management.ThreadMXBean allocations, KubeConfigWriter writer,
+            FilePath workspace) throws Exception {
+        for (int i = 0; i < WARMUP_WRITES; i++) {
+            workspace.child(writer.writeKubeConfig()).delete();
+        }
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_WRITES; i++) {
+            long before = allocations.getCurrentThreadAllocatedBytes();
+            String configFile = writer.writeKubeConfig();
+            allocated += allocations.getCurrentThreadAllocatedBytes() - before;
+            workspace.child(configFile).delete();
+        }
+        return allocated / MEASURED_WRITES;
+    }
+
+    @Test
+    public void testSerializedSizeOfTheCleanupState() throws Exception {
+        List<String> configFiles = Arrays.asList(
+                "/home/jenkins/agent/workspace/folder/job/.kube1234567890123456789config",
+                "/home/jenkins/agent/workspace/folder/job/.kube2345678901234567890config",
+                "/home/jenkins/agent/workspace/folder/job/.kube3456789012345678901config");
+        List<ClusterLeases.Lease> leases = new ArrayList<>();
+        for (int i = 0; i < configFiles.size(); i++) {
+            leases.add(new ClusterLeases.Lease("https://cluster-" + i + ":6443", UUID.randomUUID().toString()));
+        }
+
+        DiscoverySnapshots.Harvest harvest = new DiscoverySnapshots.Harvest(UUID.randomUUID().toString(),
+                "caches/kubectl/0123456789abcdef", "v1.32.0,v1.33.0,v1.34.0");
+        String apiProxyId = UUID.randomUUID().toString();
+        String refresherId = UUID.randomUUID().toString();
+
+        // The state itself, without the classes holding it
+        int callbackBaseline = serializedSize(new Object[] {configFiles, leases, harvest, apiProxyId, refresherId});
+        int callback = serializedSize(new GenericBuildStep.Callback(configFiles, leases, harvest, apiProxyId, null,
+                refresherId));
+        int disposerBaseline = serializedSize(new Object[] {configFiles, leases});
+        int disposer = serializedSize(new MultiKubectlBuildWrapper.CleanupDisposer(configFiles, leases));
+
+        assertTrue(callback <= callbackBaseline + CLEANUP_STATE_MARGIN_BYTES,
+                "Callback: " + callback + " bytes, " + callbackBaseline + " for its state");
+        assertTrue(disposer <= disposerBaseline + CLEANUP_STATE_MARGIN_BYTES,
+                "CleanupDisposer: " + disposer + " bytes, " + disposerBaseline + " for its state");
+    }
+
+    /**
+     * Runs many pipelines at the same time, so it only runs with
+     * {@code -P footprint}.
+     */
+    @Test
+    @Tag("footprint")
+    public void testRetainedHeapPerActiveBlock() throws Exception {
+        r.jenkins.setNumExecutors(ACTIVE_BLOCKS);
+
+        String body = "echo 'body running'\nsleep 3600\n";
+        String block = "withKubeConfig([credentialsId: 'certificate', serverUrl: 'https://localhost:6443']) {\n"
+                + body
+                + "}\n";
+        // Fills the caches and loads the classes
+        retainedHeap(block, 1);
+        long idle = usedHeap();
+        long withoutBlocks = retainedHeap(body, ACTIVE_BLOCKS);
+        long withBlocks = retainedHeap(block, ACTIVE_BLOCKS);
+
+        // Negative deltas mean that something else was collected meanwhile, and that the measures are unusable
+        long perPipeline = (withoutBlocks - idle) / ACTIVE_BLOCKS;
+        long perBlock = (withBlocks - withoutBlocks) / ACTIVE_BLOCKS;
+        String measures = perBlock + " bytes retained per active block, " + perPipeline + " per pipeline";
+        LOGGER.log(Level.INFO, measures);
+        assertTrue(perPipeline > 0, "negative heap delta: " + measures);
+        assertTrue(perBlock >= 0, "negative heap delta: " + measures);
+        assertTrue(perBlock <= perPipeline * RETAINED_HEAP_MARGIN, measures);
+    }
+
+    /**
+     * Returns the heap used while the given number of builds are running the
+     * given body on the controller, then stops and deletes them, so that they
+     * are not counted by the next measure.
+     */
+    private long retainedHeap(String body, int count) throws Exception {
+        String prefix = "p" + r.jenkins.getItems().size() + "-";
+        List<WorkflowJob> jobs = new ArrayList<>();
+        List<WorkflowRun> builds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, prefix + i);
+            p.setDefinition(new CpsFlowDefinition("node {\n" + body + "}\n", true));
+            jobs.add(p);
+            builds.add(p.scheduleBuild2(0).waitForStart());
+        }
+        for (WorkflowRun b : builds) {
+            r.waitForMessage("body running", b);
+        }
+        long used = usedHeap();
+        for (WorkflowRun b : builds) {
+            b.doStop();
+        }
+        for (WorkflowRun b : builds) {
+            r.waitForCompletion(b);
+        }
+        builds.clear();
+        for (WorkflowJob p : jobs) {
+            p.delete();
+        }
+        return used;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(200);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static int serializedSize(Serializable object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+}
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.AbortException;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Result;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubeCredentialsSelectorTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    private FreeStyleBuild build;
+
+    @BeforeEach
+    public void addCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.secretCredential("prod-b"));
+        store.addCredentials(Domain.global(), DummyCredentials.fileCredential("prod-a"));
+        store.addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "dev-c",
+                "cluster in eu-west", Secret.fromString(DummyCredentials.PASSWORD)));
+        store.addDomain(new Domain("clusters", null, Collections.emptyList()),
+                DummyCredentials.secretCredential("in-domain"));
+
+        build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+    }
+
+    private static List<String> ids(List<KubeCredentialsSelector.Match> matches) {
+        return matches.stream().map(m -> m.credentials.getId()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSelectByIdPrefix() throws Exception {
+        KubeCredentialsSelector selector = new KubeCredentialsSelector();
+        selector.idPrefix = "prod-";
+        selector.serverUrl = "https://localhost:6443";
+
+        List<KubeCredentialsSelector.Match> matches = selector.select(build);
+
+        assertEquals(Arrays.asList("prod-a", "prod-b"), ids(matches));
+        assertEquals("https://localhost:6443", matches.get(1).target.serverUrl);
+        // Raw kubeconfigs keep their own contexts
+        assertNull(matches.get(0).target.contextName);
+        assertEquals("prod-b", matches.get(1).target.contextName);
+    }
+
+    @Test
+    public void testSelectByDescriptionAndDomain() throws Exception {
+        KubeCredentialsSelector byDescription = new KubeCredentialsSelector();
+        byDescription.descriptionPattern = "eu-.*";
+        assertEquals(Arrays.asList("dev-c"), ids(byDescription.select(build)));
+
+        KubeCredentialsSelector byDomain = new KubeCredentialsSelector();
+        byDomain.domain = "clusters";
+        assertEquals(Arrays.asList("in-domain"), ids(byDomain.select(build)));
+    }
+
+    @Test
+    public void testSelectorWithoutCriteriaIsRejected() throws Exception {
+        KubeCredentialsSelector selector = new KubeCredentialsSelector();
+        selector.serverUrl = "https://localhost:6443";
+
+        AbortException e = assertThrows(AbortException.class, () -> selector.select(build));
+        assertEquals("[kubernetes-cli] the selector needs an id prefix, a description pattern or a domain",
+                e.getMessage());
+
+        KubeCredentialsSelector.DescriptorImpl descriptor = r.jenkins
+                .getDescriptorByType(KubeCredentialsSelector.DescriptorImpl.class);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckIdPrefix("", "", "").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckIdPrefix("", "", "clusters").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckDescriptionPattern("eu-(").kind);
+    }
+
+    @Test
+    public void testStepFailsWithoutMatches() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testSelectorWithoutMatches");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeCredentials(kubectlCredentials: [], selector: [idPrefix: 'staging-']) {\n"
+                + "    echo 'body started'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+
+        r.assertLogContains("[kubernetes-cli] no credentials matched the selector", b);
+        r.assertLogNotContains("body started", b);
+    }
+
+    @Test
+    public void testStepConfiguresSelectedCredentials() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testSelector");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeCredentials(kubectlCredentials: [], selector: [idPrefix: 'prod-',"
+                + " serverUrl: 'https://localhost:6443']) {\n"
+                + "    echo \"files=${env.KUBECONFIG.split(isUnix() ? ':' : ';').size()}\"\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("files=2", b);
+    }
+}
@@ -4,14 +4,18 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import com.cloudbees.hudson.plugins.folder.Folder;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.domains.Domain;
 
 import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyTokenCredentialImpl;
 import org.jenkinsci.plugins.kubernetes.cli.helpers.TestResourceLoader;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -21,6 +25,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import hudson.model.Descriptor.FormException;
 import hudson.model.Result;
 import hudson.util.ListBoxModel;
 
@@ -149,6 +154,54 @@ public class KubectlBuildStepTest {
                         + JenkinsRule.getLog(b));
     }
 
+    @Test
+    public void testStopDuringSetup() throws Exception {
+        BlockingTokenCredential.started = new CountDownLatch(1);
+        BlockingTokenCredential.release = new CountDownLatch(1);
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                new BlockingTokenCredential("blocking-credentials"));
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStopDuringSetup");
+        p.setDefinition(new CpsFlowDefinition(
+                "withKubeConfig([credentialsId: 'blocking-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                        + "  echo 'body started'\n"
+                        + "}\n",
+                true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        try {
+            assertTrue(BlockingTokenCredential.started.await(30, TimeUnit.SECONDS));
+
+            // The CPS VM thread is not blocked by the setup
+            b.doStop();
+            assertBuildStatus(b, Result.ABORTED);
+            r.assertLogNotContains("body started", b);
+        } finally {
+            BlockingTokenCredential.release.countDown();
+        }
+    }
+
+    public static class BlockingTokenCredential extends DummyTokenCredentialImpl {
+        private static final long serialVersionUID = 1L;
+
+        static CountDownLatch started;
+        static CountDownLatch release;
+
+        BlockingTokenCredential(String id) throws FormException {
+            super(CredentialsScope.GLOBAL, id, "blocking", DummyCredentials.USERNAME, DummyCredentials.PASSWORD);
+        }
+
+        @Override
+        public String getToken(String serviceAddress, String caCertData, boolean skipTlsVerify) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getToken(serviceAddress, caCertData, skipTlsVerify);
+        }
+    }
+
     private void assertBuildStatus(WorkflowRun b, Result result) throws Exception {
         r.assertBuildStatus(result, r.waitForCompletion(b));
 
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubectlCacheDirectoryTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @TempDir
+    public File caches;
+
+    private static KubectlCredential credential(String serverUrl, String credentialsId) {
+        KubectlCredential credential = new KubectlCredential();
+        credential.serverUrl = serverUrl;
+        credential.credentialsId = credentialsId;
+        return credential;
+    }
+
+    private File cache(String name, int size, long lastUsed) throws Exception {
+        File dir = new File(caches, name);
+        new File(dir, "discovery").mkdirs();
+        Files.write(new File(dir, "discovery/serverresources.json").toPath(), new byte[size]);
+        dir.setLastModified(lastUsed);
+        return dir;
+    }
+
+    @Test
+    public void testKeyDependsOnClustersAndCredentials() {
+        KubectlCredential a = credential("https://a:6443", "cred-a");
+        KubectlCredential b = credential("https://b:6443", "cred-b");
+
+        assertEquals(KubectlCacheDirectory.key(Arrays.asList(a, b)), KubectlCacheDirectory.key(Arrays.asList(b, a)));
+        assertNotEquals(KubectlCacheDirectory.key(Arrays.asList(a)),
+                KubectlCacheDirectory.key(Arrays.asList(credential("https://a:6443", "cred-b"))));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCachesAreEvicted() throws Exception {
+        long now = System.currentTimeMillis();
+        File oldest = cache("oldest", 1000, now - 300_000);
+        File older = cache("older", 1000, now - 200_000);
+        File recent = cache("recent", 1000, now - 1_000);
+
+        new KubectlCacheDirectory.Prepare("unused", 1500, 60_000, 0).evict(caches, now);
+
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        // Still in use, even if the caches are too large
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void testPrepareCreatesTheDirectory() throws Exception {
+        String dir = new KubectlCacheDirectory.Prepare("key", 1024, 60_000, 0).invoke(caches, null);
+
+        assertEquals(new File(caches, "key").getAbsolutePath(), dir);
+        assertTrue(new File(dir).isDirectory());
+    }
+
+    @Test
+    public void testStepExportsTheCacheDirectory() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStepExportsTheCacheDirectory");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                + "    echo \"KUBECACHEDIR=${env.KUBECACHEDIR}\"\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        String key = KubectlCacheDirectory.key(Arrays.asList(credential("https://localhost:6443",
+                "test-credentials")));
+        r.assertLogContains("KUBECACHEDIR=" + new File(r.jenkins.getRootDir(), "caches/kubectl/" + key), b);
+    }
+}
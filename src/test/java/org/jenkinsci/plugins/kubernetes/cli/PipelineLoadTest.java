@@ -0,0 +1,284 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepEndNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+/**
+ * Runs many pipelines at the same time, each with nested
+ * {@code withKubeConfig} and {@code withKubeCredentials} blocks, on several
+ * local agents, with {@code mvn test -P load-test}.
+ *
+ * The setup latency of a block is the time between the start of the step and
+ * the start of its body, and its teardown latency the time between the end of
+ * its body and the end of the step, as recorded in the flow graph. The
+ * contention of the controller threads is read from the {@link ThreadMXBean}.
+ * The results are written to {@code target/load-test-result.json}.
+ *
+ * The number of builds and agents can be set with {@code -DloadTest.builds}
+ * and {@code -DloadTest.agents}.
+ */
+@Tag("load-test")
+@ExtendWith(JenkinsRuleExtension.class)
+public class PipelineLoadTest {
+    private static final Logger LOGGER = Logger.getLogger(PipelineLoadTest.class.getName());
+
+    private static final int BUILDS = Integer.getInteger("loadTest.builds", 200);
+    private static final int AGENTS = Integer.getInteger("loadTest.agents", 4);
+
+    private static final String[] STEPS = { "withKubeConfig", "withKubeCredentials" };
+
+    // Number of threads listed in the results, by blocked time
+    private static final int TOP_THREADS = 10;
+
+    private static final String PIPELINE = "node('load') {\n"
+            + "  withKubeConfig([credentialsId: 'load-token', serverUrl: 'https://localhost:6443']) {\n"
+            + "    withKubeCredentials([\n"
+            + "      [credentialsId: 'load-file'],\n"
+            + "      [credentialsId: 'load-certificate', clusterName: 'certificate',"
+            + " serverUrl: 'https://localhost:6443']\n"
+            + "    ]) {\n"
+            + "      echo env.KUBECONFIG\n"
+            + "    }\n"
+            + "  }\n"
+            + "}\n";
+
+    public final JenkinsRule r = new JenkinsRule();
+
+    {
+        // Starting the agents and running the builds takes a while
+        r.timeout = 0;
+    }
+
+    @Test
+    public void testConcurrentPipelines() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.tokenCredential("load-token"));
+        store.addCredentials(Domain.global(), DummyCredentials.fileCredential("load-file"));
+        store.addCredentials(Domain.global(), DummyCredentials.certificateCredential("load-certificate"));
+
+        int executors = (BUILDS + AGENTS - 1) / AGENTS;
+        List<DumbSlave> agents = new ArrayList<>();
+        for (int i = 0; i < AGENTS; i++) {
+            DumbSlave agent = new DumbSlave("load-" + i, new File(r.jenkins.getRootDir(), "agent-" + i)
+                    .getAbsolutePath(), r.createComputerLauncher(null));
+            agent.setNumExecutors(executors);
+            agent.setLabelString("load");
+            agent.setRetentionStrategy(RetentionStrategy.NOOP);
+            r.jenkins.addNode(agent);
+            agents.add(agent);
+        }
+        for (DumbSlave agent : agents) {
+            r.waitOnline(agent);
+        }
+
+        List<WorkflowJob> jobs = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "load-" + i);
+            p.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+            jobs.add(p);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.setThreadContentionMonitoringEnabled(true);
+        Map<Long, ThreadInfo> before = threadInfos(threads);
+        long start = System.nanoTime();
+
+        List<QueueTaskFuture<WorkflowRun>> futures = new ArrayList<>();
+        for (WorkflowJob p : jobs) {
+            futures.add(p.scheduleBuild2(0));
+        }
+        List<WorkflowRun> builds = new ArrayList<>();
+        for (QueueTaskFuture<WorkflowRun> future : futures) {
+            WorkflowRun b = future.get();
+            r.assertBuildStatus(Result.SUCCESS, b);
+            builds.add(b);
+        }
+
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+        Map<Long, ThreadInfo> after = threadInfos(threads);
+
+        Map<String, List<Long>> setup = new HashMap<>();
+        Map<String, List<Long>> teardown = new HashMap<>();
+        for (WorkflowRun b : builds) {
+            recordLatencies(b, setup, teardown);
+        }
+
+        Map<String, Object> steps = new LinkedHashMap<>();
+        for (String step : STEPS) {
+            assertEquals(BUILDS, setup.getOrDefault(step, Collections.emptyList()).size(), step);
+            Map<String, Object> latencies = new LinkedHashMap<>();
+            latencies.put("setupMillis", percentiles(setup.get(step)));
+            latencies.put("teardownMillis", percentiles(teardown.get(step)));
+            steps.put(step, latencies);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("builds", BUILDS);
+        result.put("agents", AGENTS);
+        result.put("executorsPerAgent", executors);
+        result.put("wallMillis", wallMillis);
+        result.put("buildsPerSecond", BUILDS * 1000.0 / Math.max(wallMillis, 1));
+        result.put("steps", steps);
+        result.put("contention", contention(before, after));
+
+        String json = Serialization.asJson(result);
+        File output = new File("target/load-test-result.json");
+        output.getParentFile().mkdirs();
+        Files.write(output.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        LOGGER.log(Level.INFO, "Load test result written to {0}: {1}", new Object[] {output, json});
+    }
+
+    /**
+     * Records the setup and teardown latencies of the blocks of a build.
+     */
+    private static void recordLatencies(WorkflowRun b, Map<String, List<Long>> setup,
+            Map<String, List<Long>> teardown) {
+        // Start and end nodes of the steps, and of their bodies, by id of the start node
+        Map<String, StepStartNode> stepStarts = new HashMap<>();
+        Map<String, StepStartNode> bodyStarts = new HashMap<>();
+        Map<String, StepEndNode> ends = new HashMap<>();
+        for (FlowNode node : new DepthFirstScanner().allNodes(b.getExecution())) {
+            if (node instanceof StepStartNode) {
+                StepStartNode start = (StepStartNode) node;
+                if (start.isBody()) {
+                    // Keyed by the step it belongs to
+                    bodyStarts.put(start.getParents().get(0).getId(), start);
+                } else {
+                    stepStarts.put(start.getId(), start);
+                }
+            } else if (node instanceof StepEndNode) {
+                StepEndNode end = (StepEndNode) node;
+                ends.put(end.getStartNode().getId(), end);
+            }
+        }
+        for (StepStartNode stepStart : stepStarts.values()) {
+            StepDescriptor descriptor = stepStart.getDescriptor();
+            String step = descriptor == null ? null : descriptor.getFunctionName();
+            if (step == null || !List.of(STEPS).contains(step)) {
+                continue;
+            }
+            StepStartNode bodyStart = bodyStarts.get(stepStart.getId());
+            assertNotNull(bodyStart, step);
+            StepEndNode bodyEnd = ends.get(bodyStart.getId());
+            StepEndNode stepEnd = ends.get(stepStart.getId());
+            setup.computeIfAbsent(step, s -> new ArrayList<>())
+                    .add(TimingAction.getStartTime(bodyStart) - TimingAction.getStartTime(stepStart));
+            teardown.computeIfAbsent(step, s -> new ArrayList<>())
+                    .add(TimingAction.getStartTime(stepEnd) - TimingAction.getStartTime(bodyEnd));
+        }
+    }
+
+    private static Map<String, Object> percentiles(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", percentile(sorted, 50));
+        percentiles.put("p95", percentile(sorted, 95));
+        percentiles.put("p99", percentile(sorted, 99));
+        percentiles.put("max", sorted.get(sorted.size() - 1));
+        return percentiles;
+    }
+
+    // Nearest-rank percentile
+    private static long percentile(List<Long> sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static Map<Long, ThreadInfo> threadInfos(ThreadMXBean threads) {
+        Map<Long, ThreadInfo> infos = new HashMap<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null) {
+                infos.put(info.getThreadId(), info);
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Sums the time the controller threads spent blocked on monitors during
+     * the builds, by thread name without the numbers, so that the threads of
+     * a pool are counted together. Threads that ended meanwhile are missing.
+     */
+    private static Map<String, Object> contention(Map<Long, ThreadInfo> before, Map<Long, ThreadInfo> after) {
+        long blockedCount = 0;
+        long blockedMillis = 0;
+        long waitedCount = 0;
+        Map<String, long[]> byName = new TreeMap<>();
+        for (ThreadInfo info : after.values()) {
+            ThreadInfo previous = before.get(info.getThreadId());
+            long blocked = info.getBlockedCount() - (previous == null ? 0 : previous.getBlockedCount());
+            long blockedTime = info.getBlockedTime() - (previous == null ? 0 : previous.getBlockedTime());
+            blockedCount += blocked;
+            blockedMillis += blockedTime;
+            waitedCount += info.getWaitedCount() - (previous == null ? 0 : previous.getWaitedCount());
+            long[] total = byName.computeIfAbsent(info.getThreadName().replaceAll("[0-9]+", "#"),
+                    n -> new long[2]);
+            total[0] += blocked;
+            total[1] += blockedTime;
+        }
+
+        List<Map<String, Object>> top = new ArrayList<>();
+        byName.entrySet().stream()
+                .filter(e -> e.getValue()[0] > 0)
+                .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+                .limit(TOP_THREADS)
+                .forEach(e -> {
+                    Map<String, Object> thread = new LinkedHashMap<>();
+                    thread.put("name", e.getKey());
+                    thread.put("blockedCount", e.getValue()[0]);
+                    thread.put("blockedMillis", e.getValue()[1]);
+                    top.add(thread);
+                });
+
+        Map<String, Object> contention = new LinkedHashMap<>();
+        contention.put("blockedCount", blockedCount);
+        contention.put("blockedMillis", blockedMillis);
+        contention.put("waitedCount", waitedCount);
+        contention.put("threads", after.size());
+        contention.put("mostBlocked", top);
+        return contention;
+    }
+}
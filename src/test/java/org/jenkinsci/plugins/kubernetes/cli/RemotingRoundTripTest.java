@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.kubernetes.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.RemotingCallCounter;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.DumbSlave;
+
+/**
+ * Budgets of the calls made to the agent to set up and tear down the blocks.
+ * Each call is a round trip, which is what makes the plugin slow with remote
+ * agents: raise a budget only for calls that cannot be avoided.
+ *
+ * The budgets apply to the calls of all the classes of the plugin, wherever
+ * they are made from. The calls by class are only there to tell where they
+ * come from when a budget is exceeded.
+ */
+@ExtendWith(JenkinsRuleExtension.class)
+public class RemotingRoundTripTest {
+    // exists, createTempFile, write and chmod
+    private static final int WRITER_CALLS_PER_FILE = 4;
+    // delete
+    private static final int CLEANUP_CALLS_PER_FILE = 1;
+    // Whatever else is done once per block, such as preparing the kubectl cache directory
+    private static final int CALLS_PER_BLOCK = 3;
+
+    public final JenkinsRule r = new JenkinsRule();
+
+    private DumbSlave agent;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.usernamePasswordCredential("cred-1"));
+        store.addCredentials(Domain.global(), DummyCredentials.tokenCredential("cred-2"));
+        store.addCredentials(Domain.global(), DummyCredentials.fileCredential("cred-3"));
+        agent = r.createOnlineSlave();
+    }
+
+    private WorkflowRun runPipeline(String body) throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p" + r.jenkins.getItems().size());
+        p.setDefinition(new CpsFlowDefinition("node('" + agent.getNodeName() + "') {\n" + body + "}\n", true));
+        return r.buildAndAssertSuccess(p);
+    }
+
+    private static int budget(int files) {
+        return files * (WRITER_CALLS_PER_FILE + CLEANUP_CALLS_PER_FILE) + CALLS_PER_BLOCK;
+    }
+
+    @Test
+    public void testWithKubeConfigBudget() throws Exception {
+        RemotingCallCounter counter = RemotingCallCounter.install(agent.toComputer());
+        try {
+            runPipeline("withKubeConfig([credentialsId: 'cred-1', serverUrl: 'https://localhost:6443',"
+                    + " restrictKubeConfigAccess: true]) {\n"
+                    + "  echo 'body'\n"
+                    + "}\n");
+        } finally {
+            counter.uninstall();
+        }
+
+        assertTrue(counter.total() <= budget(1), counter.toString());
+    }
+
+    @Test
+    public void testWithKubeCredentialsBudget() throws Exception {
+        RemotingCallCounter counter = RemotingCallCounter.install(agent.toComputer());
+        try {
+            runPipeline("withKubeCredentials([\n"
+                    + "  [credentialsId: 'cred-1', serverUrl: 'https://localhost:6443', clusterName: 'c1'],\n"
+                    + "  [credentialsId: 'cred-2', serverUrl: 'https://localhost:6443', clusterName: 'c2'],\n"
+                    + "  [credentialsId: 'cred-3']\n"
+                    + "]) {\n"
+                    + "  echo 'body'\n"
+                    + "}\n");
+        } finally {
+            counter.uninstall();
+        }
+
+        assertTrue(counter.total() <= budget(3), counter.toString());
+    }
+
+    @Test
+    public void testWrapperCleanupBudget() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setAssignedNode(agent);
+        KubectlCredential first = new KubectlCredential();
+        first.credentialsId = "cred-1";
+        first.serverUrl = "https://localhost:6443";
+        KubectlCredential second = new KubectlCredential();
+        second.credentialsId = "cred-3";
+        p.getBuildWrappersList().add(new MultiKubectlBuildWrapper(Arrays.asList(first, second), false));
+
+        RemotingCallCounter counter = RemotingCallCounter.install(agent.toComputer());
+        FreeStyleBuild b;
+        try {
+            b = r.buildAndAssertSuccess(p);
+        } finally {
+            counter.uninstall();
+        }
+
+        r.assertLogContains("[kubernetes-cli] kubectl configuration cleaned up", b);
+        assertTrue(counter.total() <= budget(2), counter.toString());
+    }
+
+    @Test
+    public void testCallsDoNotDependOnTheLatency() throws Exception {
+        String body = "withKubeConfig([credentialsId: 'cred-2', serverUrl: 'https://localhost:6443']) {\n"
+                + "  echo 'body'\n"
+                + "}\n";
+        RemotingCallCounter fast = RemotingCallCounter.install(agent.toComputer(), 0);
+        try {
+            runPipeline(body);
+        } finally {
+            fast.uninstall();
+        }
+        RemotingCallCounter slow = RemotingCallCounter.install(agent.toComputer(), 50);
+        try {
+            runPipeline(body);
+        } finally {
+            slow.uninstall();
+        }
+
+        assertEquals(fast.total(), slow.total(), fast + " then " + slow);
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class CachingTokenSourceTest {
+
+    @Test
+    public void testTokenIsCachedUntilItIsAboutToExpire() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        long expiresAt = System.currentTimeMillis() + 10 * CachingTokenSource.MIN_REMAINING_MILLIS;
+        CachingTokenSource source = new CachingTokenSource(
+                () -> new ExecToken("token-" + calls.incrementAndGet(), expiresAt));
+
+        assertEquals("token-1", source.getToken().getToken());
+        assertEquals("token-1", source.getToken().getToken());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testExpiringTokenIsFetchedAgain() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingTokenSource source = new CachingTokenSource(() -> new ExecToken("token-" + calls.incrementAndGet(),
+                System.currentTimeMillis() + CachingTokenSource.MIN_REMAINING_MILLIS / 2));
+
+        assertEquals("token-1", source.getToken().getToken());
+        assertEquals("token-2", source.getToken().getToken());
+    }
+
+    @Test
+    public void testCurrentTokenIsServedWhenTheControllerIsUnreachable() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingTokenSource source = new CachingTokenSource(() -> {
+            if (calls.incrementAndGet() > 1) {
+                throw new IOException("unreachable");
+            }
+            return new ExecToken("token", System.currentTimeMillis() + CachingTokenSource.MIN_REMAINING_MILLIS / 2);
+        });
+
+        assertEquals("token", source.getToken().getToken());
+        assertEquals("token", source.getToken().getToken());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testFailureWithoutTokenIsReported() {
+        CachingTokenSource source = new CachingTokenSource(() -> {
+            throw new IOException("unreachable");
+        });
+
+        assertThrows(IOException.class, source::getToken);
+    }
+}
@@ -0,0 +1,170 @@
+package org.jenkinsci.plugins.kubernetes.cli.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.Result;
+import io.fabric8.kubernetes.api.model.AuthInfo;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class ExecCredentialSessionTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @BeforeEach
+    public void addCredentials() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.tokenCredential("token-credentials"));
+    }
+
+    private static Config config(String user, String token) {
+        return new ConfigBuilder()
+                .addNewCluster().withName("k8s").withNewCluster().withServer("https://localhost:6443")
+                .withInsecureSkipTlsVerify(true).endCluster().endCluster()
+                .addNewUser().withName(user).withNewUser().withToken(token).endUser().endUser()
+                .addNewContext().withName("k8s").withNewContext().withCluster("k8s").withUser(user).endContext()
+                .endContext()
+                .withCurrentContext("k8s")
+                .build();
+    }
+
+    // Runs the exec plugin the way kubectl does
+    private static String exec(AuthInfo user) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(user.getExec().getCommand());
+        command.addAll(user.getExec().getArgs());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+
+    @Test
+    public void testTokensAreServedByTheDaemon() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ExecCredentialSession session = ExecCredentialSession.start(workspace);
+        try {
+            Config rewritten = session.rewrite(config("token-credentials", "stale-token"),
+                    DummyCredentials.tokenCredential("token-credentials"));
+            session.publish();
+
+            AuthInfo user = rewritten.getUsers().get(0).getUser();
+            assertNull(user.getToken());
+            assertEquals("Never", user.getExec().getInteractiveMode());
+            // Produced again by the credentials
+            String credential = exec(user);
+            assertTrue(credential.contains("\"kind\":\"ExecCredential\""), credential);
+            assertTrue(credential.contains("\"token\":\"faketoken:" + DummyCredentials.USERNAME + ":"), credential);
+        } finally {
+            assertTrue(ExecCredentialSession.stop(workspace, session.getId()));
+        }
+        assertFalse(ExecCredentialSession.stop(workspace, session.getId()));
+    }
+
+    @Test
+    public void testStaticTokensAreServedAsIs() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ExecCredentialSession session = ExecCredentialSession.start(workspace);
+        try {
+            Config rewritten = session.rewrite(config("unknown", "static-token"), null);
+            session.publish();
+
+            assertTrue(exec(rewritten.getUsers().get(0).getUser()).contains("\"token\":\"static-token\""));
+        } finally {
+            ExecCredentialSession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testUsersAreNotLookedUpByName() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ExecCredentialSession session = ExecCredentialSession.start(workspace);
+        try {
+            // Named after credentials the file was not built from
+            Config rewritten = session.rewrite(config("token-credentials", "static-token"),
+                    DummyCredentials.secretCredential("secret-credentials"));
+            session.publish();
+
+            String credential = exec(rewritten.getUsers().get(0).getUser());
+            assertTrue(credential.contains("\"token\":\"static-token\""), credential);
+        } finally {
+            ExecCredentialSession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testSourcesAreRevokedOnStop() throws Exception {
+        ExecCredentialSession.RevocableSource source = new ExecCredentialSession.RevocableSource(
+                () -> ExecToken.of("token"));
+        assertEquals("token", source.getToken().getToken());
+
+        source.revoke();
+        assertThrows(IOException.class, source::getToken);
+    }
+
+    @Test
+    public void testUsersWithoutTokensAreLeftAsIs() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ExecCredentialSession session = ExecCredentialSession.start(workspace);
+        try {
+            Config config = config("user", null);
+            config.getUsers().get(0).getUser().setUsername("bob");
+            assertSame(config, session.rewrite(config, null));
+        } finally {
+            ExecCredentialSession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testStepWritesTheExecPlugin() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStepWritesTheExecPlugin");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'token-credentials', serverUrl: 'https://localhost:6443',"
+                + " execCredentialHelper: true]) {\n"
+                + "    echo readFile(env.KUBECONFIG)\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains(ExecCredentialHelper.class.getName(), b);
+        r.assertLogNotContains("faketoken", b);
+    }
+
+    @Test
+    public void testCannotBeCombinedWithTheApiProxy() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testCannotBeCombinedWithTheApiProxy");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'token-credentials', serverUrl: 'https://localhost:6443',"
+                + " execCredentialHelper: true, apiProxy: true]) {\n"
+                + "    echo 'unreachable'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+
+        r.assertLogContains("[kubernetes-cli] apiProxy and execCredentialHelper cannot be used together", b);
+    }
+}
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.kubernetes.cli.helpers;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.Computer;
+import hudson.remoting.Channel;
+import hudson.remoting.Command;
+import hudson.remoting.Request;
+
+/**
+ * Counts the calls made by the controller to an agent, by class of the plugin
+ * making them, and optionally delays each of them to simulate a remote agent.
+ *
+ * A call is counted against the innermost class of the plugin on the stack of
+ * the calling thread, so that the calls made by a {@code FilePath} are counted
+ * against the class using it. Calls not made by the plugin are counted against
+ * {@link #OTHER}.
+ *
+ * The latency defaults to {@code -Dkubernetes-cli.test.remotingLatencyMillis},
+ * so that the tests using this counter can be run against a slow agent. The
+ * delay is added while the request is sent, during which the channel is
+ * locked: concurrent calls are delayed one after the other.
+ */
+public class RemotingCallCounter extends Channel.Listener {
+    public static final String OTHER = "other";
+
+    private static final String PLUGIN_PACKAGE = "org.jenkinsci.plugins.kubernetes.cli.";
+    private static final String HELPERS_PACKAGE = RemotingCallCounter.class.getPackage().getName() + ".";
+
+    public static final long DEFAULT_LATENCY_MILLIS = Long.getLong("kubernetes-cli.test.remotingLatencyMillis", 0);
+
+    private final Channel channel;
+    private final long latencyMillis;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    private RemotingCallCounter(Channel channel, long latencyMillis) {
+        this.channel = channel;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Starts counting the calls to an agent.
+     *
+     * @param computer the agent, online
+     * @return the counter, to close once done
+     */
+    public static RemotingCallCounter install(Computer computer) {
+        return install(computer, DEFAULT_LATENCY_MILLIS);
+    }
+
+    /**
+     * Starts counting the calls to an agent, and delaying them.
+     *
+     * @param computer      the agent, online
+     * @param latencyMillis delay added to each call
+     * @return the counter, to close once done
+     */
+    public static RemotingCallCounter install(Computer computer, long latencyMillis) {
+        Channel channel = (Channel) computer.getChannel();
+        if (channel == null) {
+            throw new IllegalStateException(computer.getName() + " is offline");
+        }
+        RemotingCallCounter counter = new RemotingCallCounter(channel, latencyMillis);
+        channel.addListener(counter);
+        return counter;
+    }
+
+    /**
+     * Stops counting the calls.
+     */
+    public void uninstall() {
+        channel.removeListener(this);
+    }
+
+    public void reset() {
+        calls.clear();
+    }
+
+    @Override
+    public void onWrite(Channel channel, Command cmd, long blockSize) {
+        if (!(cmd instanceof Request)) {
+            // Responses, pipes and such
+            return;
+        }
+        calls.computeIfAbsent(caller(), c -> new AtomicInteger()).incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String caller() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .map(StackWalker.StackFrame::getClassName)
+                .filter(c -> c.startsWith(PLUGIN_PACKAGE) && !c.startsWith(HELPERS_PACKAGE))
+                .findFirst()
+                .orElse(OTHER));
+    }
+
+    /**
+     * Returns the number of calls made by all the classes of the plugin.
+     */
+    public int total() {
+        return calls.entrySet().stream()
+                .filter(e -> !OTHER.equals(e.getKey()))
+                .mapToInt(e -> e.getValue().get())
+                .sum();
+    }
+
+    /**
+     * Returns the number of calls made, by class.
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        calls.forEach((caller, count) -> counts.put(caller, count.get()));
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return counts().toString();
+    }
+}
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
+
+import org.jenkinsci.plugins.kubernetes.auth.KubernetesAuth;
+import org.jenkinsci.plugins.kubernetes.auth.impl.KubernetesAuthKeystore;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.Mockito;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class ClientCertificateCacheTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @TempDir
+    Path tempFolder;
+
+    KubeConfigWriter configWriter;
+    ClientCertificateCache cache;
+
+    @BeforeEach
+    public void init() throws Exception {
+        Path workspacePath = tempFolder.resolve("workspace");
+        Files.createDirectories(workspacePath);
+
+        AbstractBuild<?, ?> build = Mockito.mock(AbstractBuild.class);
+        when(build.getEnvironment(any())).thenReturn(new EnvVars());
+
+        configWriter = new KubeConfigWriter("https://localhost:6443", "test-credential", "", "", "", "", false,
+                new FilePath(workspacePath.toFile()), Mockito.mock(Launcher.class), build);
+        cache = new ClientCertificateCache();
+    }
+
+    private String dump(KubernetesAuth auth) throws Exception {
+        return Serialization.asYaml(configWriter.getConfigBuilderWithAuth("test-credential", auth).build());
+    }
+
+    @Test
+    public void testCachedCertificateMatchesKeystore() throws Exception {
+        StandardCertificateCredentials credentials = (StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("cert");
+
+        KubernetesAuth cached = cache.authFor(credentials, "fingerprint");
+
+        assertNotNull(cached);
+        assertEquals(dump(new KubernetesAuthKeystore(credentials.getKeyStore(), DummyCredentials.PASSPHRASE)),
+                dump(cached));
+    }
+
+    @Test
+    public void testCertificateIsExtractedOnce() throws Exception {
+        StandardCertificateCredentials credentials = Mockito.spy((StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("cert"));
+
+        String first = dump(cache.authFor(credentials, "fingerprint"));
+        String second = dump(cache.authFor(credentials, "fingerprint"));
+
+        assertEquals(first, second);
+        Mockito.verify(credentials, Mockito.times(1)).getKeyStore();
+    }
+
+    @Test
+    public void testUpdatedCredentialIsExtractedAgain() throws Exception {
+        StandardCertificateCredentials credentials = Mockito.spy((StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("cert"));
+
+        cache.authFor(credentials, "fingerprint-1");
+        cache.authFor(credentials, "fingerprint-2");
+
+        Mockito.verify(credentials, Mockito.times(2)).getKeyStore();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testOldestCertificateIsEvicted() throws Exception {
+        cache = new ClientCertificateCache(2);
+        StandardCertificateCredentials first = Mockito.spy((StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("first"));
+        StandardCertificateCredentials second = Mockito.spy((StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("second"));
+        StandardCertificateCredentials third = Mockito.spy((StandardCertificateCredentials) DummyCredentials
+                .certificateCredential("third"));
+
+        cache.authFor(first, "fingerprint");
+        cache.authFor(second, "fingerprint");
+        // Updating an entry of a full cache evicts nothing
+        cache.authFor(second, "fingerprint-2");
+        cache.authFor(first, "fingerprint");
+        Mockito.verify(first, Mockito.times(1)).getKeyStore();
+
+        cache.authFor(third, "fingerprint");
+        assertEquals(2, cache.size());
+        cache.authFor(second, "fingerprint-2");
+        cache.authFor(third, "fingerprint");
+        Mockito.verify(second, Mockito.times(2)).getKeyStore();
+        Mockito.verify(third, Mockito.times(1)).getKeyStore();
+        cache.authFor(first, "fingerprint");
+        Mockito.verify(first, Mockito.times(2)).getKeyStore();
+    }
+
+    @Test
+    public void testBrokenCertificateIsNotCached() throws Exception {
+        StandardCertificateCredentials credentials = (StandardCertificateCredentials) DummyCredentials
+                .brokenCertificateCredential("cert");
+
+        assertNull(cache.authFor(credentials, "fingerprint"));
+        assertEquals(0, cache.size());
+    }
+}
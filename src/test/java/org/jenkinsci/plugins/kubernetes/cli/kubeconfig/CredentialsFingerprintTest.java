@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
+
+import hudson.model.Items;
+import hudson.util.Secret;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class CredentialsFingerprintTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    /**
+     * A credentials type the fingerprint has no dedicated support for.
+     */
+    public static class KeyTokenCredentials extends BaseStandardCredentials implements TokenProducer {
+        private static final long serialVersionUID = 1L;
+
+        private final Secret key;
+
+        public KeyTokenCredentials(String id, String key) {
+            super(CredentialsScope.GLOBAL, id, "key tokens");
+            this.key = Secret.fromString(key);
+        }
+
+        @Override
+        public String getToken(String serviceAddress, String caCertData, boolean skipTlsVerify) {
+            return "token:" + key.getPlainText();
+        }
+    }
+
+    @Test
+    public void testReloadedCredentialsKeepTheirFingerprint() throws Exception {
+        KeyTokenCredentials credentials = new KeyTokenCredentials("key", "s3cr3t");
+        KeyTokenCredentials reloaded = (KeyTokenCredentials) Items.XSTREAM2.fromXML(
+                Items.XSTREAM2.toXML(credentials));
+
+        assertEquals(CredentialsFingerprint.of(credentials), CredentialsFingerprint.of(reloaded));
+    }
+
+    @Test
+    public void testUpdatedCredentialsChangeTheirFingerprint() throws Exception {
+        assertNotEquals(CredentialsFingerprint.of(new KeyTokenCredentials("key", "s3cr3t")),
+                CredentialsFingerprint.of(new KeyTokenCredentials("key", "updated")));
+    }
+}
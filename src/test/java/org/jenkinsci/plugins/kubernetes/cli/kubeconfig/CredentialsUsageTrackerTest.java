@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import hudson.model.Run;
+
+public class CredentialsUsageTrackerTest {
+    private List<Runnable> scheduled;
+    private CredentialsUsageTracker tracker;
+
+    @BeforeEach
+    public void init() {
+        scheduled = new ArrayList<>();
+        tracker = new CredentialsUsageTracker(scheduled::add);
+    }
+
+    private static StandardCredentials credentials(String id) {
+        StandardCredentials credentials = Mockito.mock(StandardCredentials.class);
+        when(credentials.getId()).thenReturn(id);
+        return credentials;
+    }
+
+    @Test
+    public void testCredentialIsTrackedOncePerBuild() {
+        Run<?, ?> build = Mockito.mock(Run.class);
+        StandardCredentials credentials = credentials("cred");
+
+        tracker.track(build, credentials, "fingerprint");
+        tracker.track(build, credentials, "fingerprint");
+
+        assertEquals(1, tracker.pendingCount());
+    }
+
+    @Test
+    public void testCredentialIsTrackedForEachBuild() {
+        StandardCredentials credentials = credentials("cred");
+
+        tracker.track(Mockito.mock(Run.class), credentials, "fingerprint");
+        tracker.track(Mockito.mock(Run.class), credentials, "fingerprint");
+
+        assertEquals(2, tracker.pendingCount());
+    }
+
+    @Test
+    public void testUpdatedCredentialIsTrackedAgain() {
+        Run<?, ?> build = Mockito.mock(Run.class);
+
+        tracker.track(build, credentials("cred"), "fingerprint-1");
+        tracker.track(build, credentials("cred"), "fingerprint-2");
+
+        assertEquals(2, tracker.pendingCount());
+    }
+
+    @Test
+    public void testWritesAreBatched() {
+        Run<?, ?> build = Mockito.mock(Run.class);
+
+        tracker.track(build, credentials("cred-1"), "fingerprint");
+        tracker.track(build, credentials("cred-2"), "fingerprint");
+        tracker.track(Mockito.mock(Run.class), credentials("cred-1"), "fingerprint");
+
+        assertEquals(1, scheduled.size());
+        assertEquals(3, tracker.pendingCount());
+    }
+}
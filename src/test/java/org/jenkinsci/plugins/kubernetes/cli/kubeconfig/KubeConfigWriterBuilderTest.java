@@ -8,6 +8,7 @@ import io.fabric8.kubernetes.client.utils.Serialization;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -662,4 +663,13 @@ public class KubeConfigWriterBuilderTest {
                 "    password: \"existing-password\"\n" +
                 "    username: \"existing-user\"\n", configDumpContent);
     }
+
+    @Test
+    public void utf8LengthMatchesTheEncodedSize() {
+        for (String content : new String[] {"", "apiVersion: v1\n", "namespace: \u00e9t\u00e9",
+                "user: \u4e2d\u6587", "emoji: \ud83d\ude80", "lone: \ud83d!", "lone: \ude80", "end: \ud83d"}) {
+            assertEquals(content.getBytes(StandardCharsets.UTF_8).length, KubeConfigWriter.utf8Length(content),
+                    content);
+        }
+    }
 }
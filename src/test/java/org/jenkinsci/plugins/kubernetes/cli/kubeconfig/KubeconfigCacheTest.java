@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+
+public class KubeconfigCacheTest {
+    private KubeconfigCache cache;
+
+    @BeforeEach
+    public void init() {
+        cache = new KubeconfigCache();
+    }
+
+    private static Config kubeconfig(String context) {
+        return new ConfigBuilder()
+                .addNewCluster().withName("cluster").withNewCluster().withServer("https://cluster").endCluster()
+                .endCluster()
+                .addNewContext().withName(context).withNewContext().withCluster("cluster").endContext().endContext()
+                .withCurrentContext(context)
+                .build();
+    }
+
+    @Test
+    public void testCachedKubeconfigIsReturned() {
+        cache.put("cred", "fingerprint", kubeconfig("ctx"));
+
+        ConfigBuilder builder = cache.get("cred", "fingerprint");
+
+        assertNotNull(builder);
+        assertEquals("ctx", builder.build().getCurrentContext());
+    }
+
+    @Test
+    public void testEditsDoNotLeakIntoCache() {
+        cache.put("cred", "fingerprint", kubeconfig("ctx"));
+
+        cache.get("cred", "fingerprint")
+                .withCurrentContext("other")
+                .editMatchingCluster(c -> "cluster".equals(c.getName()))
+                .editCluster().withServer("https://other").endCluster()
+                .endCluster();
+
+        Config config = cache.get("cred", "fingerprint").build();
+        assertEquals("ctx", config.getCurrentContext());
+        assertEquals("https://cluster", config.getClusters().get(0).getCluster().getServer());
+    }
+
+    @Test
+    public void testChangedCredentialIsNotServed() {
+        cache.put("cred", "fingerprint-1", kubeconfig("ctx"));
+
+        assertNull(cache.get("cred", "fingerprint-2"));
+        assertNull(cache.get("other-cred", "fingerprint-1"));
+    }
+
+    @Test
+    public void testUpdatedCredentialReplacesEntry() {
+        cache.put("cred", "fingerprint-1", kubeconfig("ctx-1"));
+        cache.put("cred", "fingerprint-2", kubeconfig("ctx-2"));
+
+        assertEquals(1, cache.size());
+        assertEquals("ctx-2", cache.get("cred", "fingerprint-2").build().getCurrentContext());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        cache = new KubeconfigCache(2);
+        cache.put("first", "fingerprint", kubeconfig("first"));
+        cache.put("second", "fingerprint", kubeconfig("second"));
+        // Replacing an entry of a full cache evicts nothing
+        cache.put("second", "fingerprint-2", kubeconfig("second"));
+        assertNotNull(cache.get("first", "fingerprint"));
+
+        cache.put("third", "fingerprint", kubeconfig("third"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("first", "fingerprint"));
+        assertNull(cache.get("second", "fingerprint-2"));
+        assertNotNull(cache.get("third", "fingerprint"));
+    }
+}
@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.Descriptor.FormException;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubeconfigRefresherTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @TempDir
+    public File tempDir;
+
+    /**
+     * Produces JWTs expiring a few seconds after they are issued.
+     */
+    public static class ShortLivedTokenCredentials extends UsernamePasswordCredentialsImpl implements TokenProducer {
+        private static final long serialVersionUID = 1L;
+        private static final AtomicInteger SERIAL = new AtomicInteger();
+
+        public ShortLivedTokenCredentials(String id) throws FormException {
+            super(CredentialsScope.GLOBAL, id, "short lived tokens", "bob", "s3cr3t");
+        }
+
+        @Override
+        public String getToken(String serviceAddress, String caCertData, boolean skipTlsVerify) {
+            return jwt(SERIAL.incrementAndGet(), Instant.now().plusSeconds(4));
+        }
+    }
+
+    private static String jwt(int serial, Instant expiry) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String payload = "{\"sub\":\"" + serial + "\",\"exp\":" + expiry.getEpochSecond() + "}";
+        return encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".signature";
+    }
+
+    @Test
+    public void testTokenIsRefreshedDuringTheBody() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                new ShortLivedTokenCredentials("short-lived"));
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testTokenIsRefreshedDuringTheBody");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'short-lived', serverUrl: 'https://localhost:6443']) {\n"
+                + "    def before = readFile(env.KUBECONFIG)\n"
+                + "    sleep 8\n"
+                + "    echo(before == readFile(env.KUBECONFIG) ? 'kubeconfig unchanged' : 'kubeconfig refreshed')\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("kubeconfig refreshed", b);
+        r.assertLogNotContains("unable to refresh", b);
+    }
+
+    @Test
+    public void testChangesOfTheBodyAreKept() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                new ShortLivedTokenCredentials("short-lived"));
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testChangesOfTheBodyAreKept");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'short-lived', serverUrl: 'https://localhost:6443']) {\n"
+                + "    def before = readFile(env.KUBECONFIG) + '# changed by the body\\n'\n"
+                + "    writeFile file: env.KUBECONFIG, text: before\n"
+                + "    sleep 8\n"
+                + "    def after = readFile(env.KUBECONFIG)\n"
+                + "    echo(after.contains('# changed by the body') ? 'changes kept' : 'changes lost')\n"
+                + "    echo(before == after ? 'kubeconfig unchanged' : 'kubeconfig refreshed')\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("changes kept", b);
+        r.assertLogContains("kubeconfig refreshed", b);
+    }
+
+    @Test
+    public void testTokenIsReplacedInTheCurrentContent() throws Exception {
+        File target = new File(tempDir, "kubeconfig");
+        // As changed by kubectl config use-context
+        Files.writeString(target.toPath(), "current-context: other\nusers:\n- user:\n    token: old.token\n");
+        Files.setPosixFilePermissions(target.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+
+        assertEquals(KubeconfigRefresher.Outcome.REPLACED,
+                new FilePath(target).act(new KubeconfigRefresher.ReplaceToken("old.token", "new.token")));
+
+        assertEquals("current-context: other\nusers:\n- user:\n    token: new.token\n",
+                Files.readString(target.toPath()));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(target.toPath())));
+        assertEquals(1, tempDir.list().length);
+    }
+
+    @Test
+    public void testModifiedFilesAreLeftAsIs() throws Exception {
+        File target = new File(tempDir, "kubeconfig");
+        Files.writeString(target.toPath(), "users:\n- user:\n    token: set.by.the.body\n");
+
+        assertEquals(KubeconfigRefresher.Outcome.MODIFIED,
+                new FilePath(target).act(new KubeconfigRefresher.ReplaceToken("old.token", "new.token")));
+
+        assertEquals("users:\n- user:\n    token: set.by.the.body\n", Files.readString(target.toPath()));
+    }
+
+    @Test
+    public void testDeletedFilesAreNotWrittenAgain() throws Exception {
+        File target = new File(tempDir, "kubeconfig");
+        Files.writeString(target.toPath(), "token: old.token\n");
+
+        KubeconfigRefresher.delete(new FilePath(target));
+        assertEquals(KubeconfigRefresher.Outcome.DELETED,
+                new FilePath(target).act(new KubeconfigRefresher.ReplaceToken("old.token", "new.token")));
+
+        assertFalse(target.exists());
+        assertEquals(0, tempDir.list().length);
+    }
+
+    @Test
+    public void testTokenOfTheCurrentContext() {
+        Config config = new ConfigBuilder()
+                .addNewUser().withName("other").withNewUser().withToken("other-token").endUser().endUser()
+                .addNewUser().withName("user").withNewUser().withToken("token").endUser().endUser()
+                .addNewContext().withName("k8s").withNewContext().withCluster("k8s").withUser("user").endContext()
+                .endContext()
+                .withCurrentContext("k8s")
+                .build();
+
+        assertEquals("token", KubeconfigRefresher.tokenOf(config));
+        config.setCurrentContext("missing");
+        assertNull(KubeconfigRefresher.tokenOf(config));
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubeconfigSweeperTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    private static long later(long minutes) {
+        return System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    @Test
+    public void testOrphanedFileIsDeleted() throws Exception {
+        FreeStyleBuild build = r.buildAndAssertSuccess(r.createFreeStyleProject());
+        FilePath file = new FilePath(r.jenkins.getRootDir()).createTempFile(".kube", "config");
+        KubeconfigFileRegistry.get().register(file, build);
+
+        KubeconfigSweeper sweeper = new KubeconfigSweeper();
+        // Too recent to be swept
+        assertEquals(0, sweeper.sweep(TaskListener.NULL, later(1)));
+        assertTrue(file.exists());
+
+        assertEquals(1, sweeper.sweep(TaskListener.NULL, later(KubeconfigSweeper.GRACE_MINUTES + 1)));
+        assertFalse(file.exists());
+        assertTrue(KubeconfigFileRegistry.get().getEntries().isEmpty());
+    }
+
+    @Test
+    public void testFileOfRunningBuildIsKept() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testFileOfRunningBuildIsKept");
+        p.setDefinition(new CpsFlowDefinition("sleep 600\n", true));
+        WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+        FilePath file = new FilePath(r.jenkins.getRootDir()).createTempFile(".kube", "config");
+        KubeconfigFileRegistry.get().register(file, b);
+
+        KubeconfigSweeper sweeper = new KubeconfigSweeper();
+        assertEquals(0, sweeper.sweep(TaskListener.NULL, later(KubeconfigSweeper.GRACE_MINUTES + 1)));
+        assertTrue(file.exists());
+
+        b.doStop();
+        r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(b));
+        assertEquals(1, sweeper.sweep(TaskListener.NULL, later(KubeconfigSweeper.GRACE_MINUTES + 1)));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testCleanedUpFilesAreForgotten() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testCleanedUpFilesAreForgotten");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                + "    echo 'body started'\n"
+                + "  }\n"
+                + "}\n", true));
+        r.buildAndAssertSuccess(p);
+
+        assertTrue(KubeconfigFileRegistry.get().getEntries().isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import hudson.AbortException;
+
+public class SingleFlightTest {
+    private SingleFlight<String, String> flights;
+    private ExecutorService executor;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    public void init() {
+        flights = new SingleFlight<>();
+        executor = Executors.newFixedThreadPool(2);
+        calls = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    private void awaitFollowers(String key, int count) throws InterruptedException {
+        while (flights.followers(key) < count) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "result";
+        };
+
+        Future<String> leader = executor.submit(() -> flights.execute("key", call));
+        while (calls.get() == 0) {
+            Thread.sleep(10);
+        }
+        Future<String> follower = executor.submit(() -> flights.execute("key", call));
+        awaitFollowers("key", 1);
+        release.countDown();
+
+        assertEquals("result", leader.get());
+        assertEquals("result", follower.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testErrorIsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            release.await();
+            throw new AbortException("conversion failed");
+        };
+
+        Future<String> leader = executor.submit(() -> flights.execute("key", call));
+        while (calls.get() == 0) {
+            Thread.sleep(10);
+        }
+        Future<String> follower = executor.submit(() -> flights.execute("key", call));
+        awaitFollowers("key", 1);
+        release.countDown();
+
+        for (Future<String> result : new Future[] { leader, follower }) {
+            Exception e = assertThrows(Exception.class, result::get);
+            assertEquals(AbortException.class, e.getCause().getClass());
+            assertEquals("conversion failed", e.getCause().getMessage());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCached() throws Exception {
+        SingleFlight.Call<String> call = () -> "result-" + calls.incrementAndGet();
+
+        assertEquals("result-1", flights.execute("key", call));
+        assertEquals("result-2", flights.execute("key", call));
+    }
+
+    @Test
+    public void testDifferentKeysAreNotCoalesced() throws Exception {
+        SingleFlight.Call<String> call = () -> "result-" + calls.incrementAndGet();
+
+        assertEquals("result-1", flights.execute("key-1", call));
+        assertEquals("result-2", flights.execute("key-2", call));
+        assertEquals(0, flights.followers("key-1"));
+    }
+}
@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.kubernetes.cli.kubeconfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jenkinsci.plugins.kubernetes.credentials.TokenProducer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TokenCacheTest {
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    private MutableClock clock;
+    private List<Runnable> pendingRefreshes;
+    private TokenCache cache;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    public void init() {
+        clock = new MutableClock(START);
+        pendingRefreshes = new ArrayList<>();
+        cache = new TokenCache(clock, pendingRefreshes::add);
+        calls = new AtomicInteger();
+    }
+
+    private TokenProducer jwtProducer(Duration lifetime) {
+        return (serviceAddress, caCertData, skipTlsVerify) -> jwt(calls.incrementAndGet(),
+                clock.instant().plus(lifetime));
+    }
+
+    private static String jwt(int serial, Instant expiry) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String payload = "{\"sub\":\"" + serial + "\",\"exp\":" + expiry.getEpochSecond() + "}";
+        return encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".signature";
+    }
+
+    @Test
+    public void testTokenIsServedFromCache() throws Exception {
+        TokenProducer producer = cache.wrap("cred", "fingerprint", jwtProducer(Duration.ofMinutes(10)));
+
+        String first = producer.getToken("https://server", null, true);
+        String second = producer.getToken("https://server", null, true);
+
+        assertEquals(first, second);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testTokenIsFetchedPerServer() throws Exception {
+        TokenProducer producer = cache.wrap("cred", "fingerprint", jwtProducer(Duration.ofMinutes(10)));
+
+        producer.getToken("https://server-a", null, true);
+        producer.getToken("https://server-b", null, true);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testChangedCredentialInvalidatesToken() throws Exception {
+        TokenProducer producer = jwtProducer(Duration.ofMinutes(10));
+
+        cache.wrap("cred", "fingerprint-1", producer).getToken("https://server", null, true);
+        cache.wrap("cred", "fingerprint-2", producer).getToken("https://server", null, true);
+
+        assertEquals(2, calls.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testTokenIsRefreshedInBackgroundBeforeExpiry() throws Exception {
+        TokenProducer producer = cache.wrap("cred", "fingerprint", jwtProducer(Duration.ofMinutes(10)));
+        String first = producer.getToken("https://server", null, true);
+
+        // 80% of the lifetime elapsed: the cached token is still served
+        clock.advance(Duration.ofMinutes(8));
+        assertEquals(first, producer.getToken("https://server", null, true));
+        assertEquals(1, pendingRefreshes.size());
+
+        // A second caller does not trigger another refresh
+        producer.getToken("https://server", null, true);
+        assertEquals(1, pendingRefreshes.size());
+
+        pendingRefreshes.get(0).run();
+        String refreshed = producer.getToken("https://server", null, true);
+        assertEquals(2, calls.get());
+        assertEquals(jwt(2, START.plus(Duration.ofMinutes(18))), refreshed);
+    }
+
+    @Test
+    public void testExpiredTokenIsFetchedSynchronously() throws Exception {
+        TokenProducer producer = cache.wrap("cred", "fingerprint", jwtProducer(Duration.ofMinutes(10)));
+        producer.getToken("https://server", null, true);
+
+        clock.advance(Duration.ofMinutes(9).plusSeconds(30));
+        producer.getToken("https://server", null, true);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testOpaqueTokenUsesDefaultLifetime() throws Exception {
+        TokenProducer producer = cache.wrap("cred", "fingerprint",
+                (serviceAddress, caCertData, skipTlsVerify) -> "opaque-" + calls.incrementAndGet());
+
+        assertEquals("opaque-1", producer.getToken("https://server", null, true));
+        assertEquals("opaque-1", producer.getToken("https://server", null, true));
+
+        clock.advance(TokenCache.DEFAULT_TTL);
+        assertEquals("opaque-2", producer.getToken("https://server", null, true));
+    }
+
+    @Test
+    public void testJwtExpiry() {
+        Instant expiry = START.plus(Duration.ofHours(1));
+
+        assertEquals(expiry, TokenCache.jwtExpiryOf(jwt(1, expiry)));
+        assertNull(TokenCache.jwtExpiryOf("not-a-jwt"));
+        assertNull(TokenCache.jwtExpiryOf("a.b.c"));
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
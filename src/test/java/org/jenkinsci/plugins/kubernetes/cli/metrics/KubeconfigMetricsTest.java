@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.codahale.metrics.Timer;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics.Phase;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import jenkins.metrics.api.Metrics;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubeconfigMetricsTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void testPhasesAreTimedWithTheMetricsPlugin() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next()
+                .addCredentials(Domain.global(), DummyCredentials.tokenCredential("cred1234"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'cred1234', serverUrl: 'https://localhost:6443',"
+                + " restrictKubeConfigAccess: true]) {\n"
+                + "    echo 'body'\n"
+                + "  }\n"
+                + "}\n", true));
+        r.buildAndAssertSuccess(p);
+
+        Map<String, Timer> timers = Metrics.metricRegistry().getTimers();
+        for (Phase phase : new Phase[] {Phase.CREDENTIALS_LOOKUP, Phase.AUTH_CONVERSION, Phase.CONFIG_BUILD,
+                Phase.SERIALIZATION, Phase.REMOTE_WRITE, Phase.CHMOD}) {
+            Timer timer = timers.get(DropwizardBackend.name(phase, "token"));
+            assertNotNull(timer, phase + " not in " + timers.keySet());
+            assertTrue(timer.getCount() >= 1, phase + " not recorded");
+        }
+        Timer cleanup = timers.get(DropwizardBackend.name(Phase.CLEANUP, KubeconfigMetrics.ANY));
+        assertNotNull(cleanup, "cleanup not in " + timers.keySet());
+        assertTrue(cleanup.getCount() >= 1);
+    }
+
+    @Test
+    public void testJmxFallback() throws Exception {
+        JmxBackend backend = new JmxBackend();
+        backend.record(Phase.REMOTE_WRITE, "jmx-test", TimeUnit.MILLISECONDS.toNanos(3));
+        backend.record(Phase.REMOTE_WRITE, "jmx-test", TimeUnit.MILLISECONDS.toNanos(5));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(2L, server.getAttribute(JmxBackend.objectName(Phase.REMOTE_WRITE, "jmx-test"), "Count"));
+        assertEquals(5.0, (Double) server.getAttribute(JmxBackend.objectName(Phase.REMOTE_WRITE, "jmx-test"),
+                "MaxMillis"), 0.001);
+    }
+
+    @Test
+    public void testPercentiles() {
+        PhaseTimer timer = new PhaseTimer();
+        for (int i = 0; i < 99; i++) {
+            timer.update(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        timer.update(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(100, timer.getCount());
+        assertEquals(199.0, timer.getTotalMillis(), 0.001);
+        assertEquals(100.0, timer.getMaxMillis(), 0.001);
+        // Upper bounds, at most twice the actual value
+        assertTrue(timer.get50thPercentileMillis() >= 1 && timer.get50thPercentileMillis() <= 2,
+                "p50 " + timer.get50thPercentileMillis());
+        assertTrue(timer.get99thPercentileMillis() >= 1 && timer.get99thPercentileMillis() <= 2,
+                "p99 " + timer.get99thPercentileMillis());
+        assertEquals(100.0, timer.percentileMillis(1.0), 0.001);
+    }
+
+    @Test
+    public void testTypeOf() throws Exception {
+        assertEquals("token", KubeconfigMetrics.typeOf(DummyCredentials.tokenCredential("a")));
+        assertEquals("certificate", KubeconfigMetrics.typeOf(DummyCredentials.certificateCredential("b")));
+        assertEquals("kubeconfig", KubeconfigMetrics.typeOf(DummyCredentials.fileCredential("c")));
+        assertEquals("secret-text", KubeconfigMetrics.typeOf(DummyCredentials.secretCredential("d")));
+        assertEquals("username-password", KubeconfigMetrics.typeOf(DummyCredentials.usernamePasswordCredential("e")));
+        assertEquals(KubeconfigMetrics.IN_CLUSTER, KubeconfigMetrics.typeOf(null));
+    }
+}
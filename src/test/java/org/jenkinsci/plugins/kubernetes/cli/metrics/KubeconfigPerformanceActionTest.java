@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.kubernetes.cli.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.kubernetes.cli.KubectlCredential;
+import org.jenkinsci.plugins.kubernetes.cli.MultiKubectlBuildWrapper;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.kubernetes.cli.metrics.KubeconfigMetrics.Phase;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubeconfigPerformanceActionTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @BeforeEach
+    public void addCredentials() throws Exception {
+        CredentialsStore store = CredentialsProvider.lookupStores(r.jenkins).iterator().next();
+        store.addCredentials(Domain.global(), DummyCredentials.tokenCredential("token"));
+        store.addCredentials(Domain.global(), DummyCredentials.fileCredential("file"));
+    }
+
+    private static Map<String, KubeconfigPerformanceAction.PhaseSummary> phasesOf(
+            KubeconfigPerformanceAction action) {
+        return action.getPhases().stream()
+                .collect(Collectors.toMap(KubeconfigPerformanceAction.PhaseSummary::getName, p -> p));
+    }
+
+    @Test
+    public void testSummaryOfPipeline() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'token', serverUrl: 'https://localhost:6443',"
+                + " restrictKubeConfigAccess: true]) {\n"
+                + "    echo 'first'\n"
+                + "  }\n"
+                + "  withKubeCredentials([[credentialsId: 'token', serverUrl: 'https://localhost:6443'],\n"
+                + "      [credentialsId: 'file']]) {\n"
+                + "    echo 'second'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        KubeconfigPerformanceAction action = b.getAction(KubeconfigPerformanceAction.class);
+        assertNotNull(action);
+        assertEquals(3, action.getFilesWritten());
+        assertEquals(3, action.getFilesDeleted());
+        assertTrue(action.getBytesWritten() > 0);
+        // The token is produced once, then served from the cache
+        assertTrue(action.getCacheHits() >= 1, "cache hits: " + action.getCacheHits());
+        assertTrue(action.getTotalMillis() > 0);
+
+        Map<String, KubeconfigPerformanceAction.PhaseSummary> phases = phasesOf(action);
+        assertEquals(3, phases.get("credentials-lookup").getCount());
+        assertEquals(1, phases.get("chmod").getCount());
+        assertTrue(phases.get("remote-write").getMaxMillis() <= phases.get("remote-write").getTotalMillis());
+
+        // Kept with the build
+        KubeconfigPerformanceAction loaded = (KubeconfigPerformanceAction) Run.XSTREAM2
+                .fromXML(Run.XSTREAM2.toXML(action));
+        assertEquals(3, loaded.getFilesWritten());
+        assertEquals(action.getTotalMillis(), loaded.getTotalMillis(), 0.001);
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            r.assertGoodStatus(wc.getPage(b, "kubernetes-cli"));
+            JSONObject json = wc.getJSON(b.getUrl() + "kubernetes-cli/api/json?depth=1").getJSONObject();
+            assertEquals(3, json.getInt("filesWritten"));
+            assertEquals(3, json.getInt("filesDeleted"));
+            assertTrue(json.getJSONArray("phases").size() >= 5);
+        }
+    }
+
+    @Test
+    public void testSummaryOfBuildWrapper() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        KubectlCredential first = new KubectlCredential();
+        first.credentialsId = "token";
+        first.serverUrl = "https://localhost:6443";
+        KubectlCredential second = new KubectlCredential();
+        second.credentialsId = "file";
+        p.getBuildWrappersList().add(new MultiKubectlBuildWrapper(Arrays.asList(first, second), false));
+
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+
+        KubeconfigPerformanceAction action = b.getAction(KubeconfigPerformanceAction.class);
+        assertNotNull(action);
+        assertEquals(2, action.getFilesWritten());
+        assertEquals(2, action.getFilesDeleted());
+        assertNull(phasesOf(action).get("chmod"));
+    }
+
+    @Test
+    public void testBuildIsSavedWhileRecording() throws Exception {
+        KubeconfigPerformanceAction action = new KubeconfigPerformanceAction();
+        Thread recorder = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                action.record(Phase.REMOTE_WRITE, 1_000);
+            }
+        });
+        recorder.start();
+        try {
+            for (int i = 0; i < 100; i++) {
+                KubeconfigPerformanceAction loaded = (KubeconfigPerformanceAction) Run.XSTREAM2
+                        .fromXML(Run.XSTREAM2.toXML(action));
+                KubeconfigPerformanceAction.PhaseSummary write = phasesOf(loaded).get("remote-write");
+                if (write != null) {
+                    // Count and total from the same snapshot
+                    assertEquals(write.getCount() / 1_000d, write.getTotalMillis(), 0.000_001);
+                }
+            }
+        } finally {
+            recorder.interrupt();
+            recorder.join();
+        }
+    }
+
+    @Test
+    public void testNoActionWithoutKubeconfig() throws Exception {
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node {\n  echo 'no kubectl'\n}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        assertNull(b.getAction(KubeconfigPerformanceAction.class));
+    }
+}
@@ -0,0 +1,238 @@
+package org.jenkinsci.plugins.kubernetes.cli.proxy;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class ApiProxySessionTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    private HttpServer server;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private volatile String authorization;
+
+    @BeforeEach
+    public void startApiServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::respond);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopApiServer() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        calls.computeIfAbsent(exchange.getRequestURI().getPath(), p -> new AtomicInteger()).incrementAndGet();
+        authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] body = ("{\"path\":\"" + exchange.getRequestURI().getPath() + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String serverUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private int calls(String path) {
+        AtomicInteger count = calls.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private Config config(String server) {
+        return new ConfigBuilder()
+                .addNewCluster().withName("k8s").withNewCluster().withServer(server).endCluster().endCluster()
+                .addNewUser().withName("user").withNewUser().withToken("real-token").endUser().endUser()
+                .addNewContext().withName("k8s").withNewContext().withCluster("k8s").withUser("user").endContext()
+                .endContext()
+                .withCurrentContext("k8s")
+                .build();
+    }
+
+    private static HttpResponse<String> get(String url, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return HttpClient.newHttpClient().send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testDiscoveryIsCachedAndOtherRequestsAreForwarded() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ApiProxySession session = ApiProxySession.start(workspace);
+        try {
+            Config rewritten = session.rewrite(config(serverUrl()));
+            session.publish();
+
+            String proxied = rewritten.getClusters().get(0).getCluster().getServer();
+            String token = rewritten.getUsers().get(0).getUser().getToken();
+            assertTrue(proxied.startsWith("http://127.0.0.1:"), proxied);
+
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> version = get(proxied + "/version", token);
+                assertEquals(200, version.statusCode());
+                assertEquals("{\"path\":\"/version\"}", version.body());
+                assertEquals(200, get(proxied + "/api/v1/namespaces/default/pods", token).statusCode());
+            }
+            assertEquals(1, calls("/version"));
+            assertEquals(3, calls("/api/v1/namespaces/default/pods"));
+            // The real credentials are only known to the proxy
+            assertEquals("Bearer real-token", authorization);
+
+            assertEquals(401, get(proxied + "/version", null).statusCode());
+            assertEquals(401, get(proxied + "/version", "real-token").statusCode());
+        } finally {
+            assertArrayEquals(new long[] {2, 3}, ApiProxySession.stop(workspace, session.getId()));
+        }
+    }
+
+    @Test
+    public void testTokensOfProducersAreRefreshed() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ApiProxySession session = ApiProxySession.start(workspace);
+        try {
+            Config rewritten = session.rewrite(config(serverUrl()),
+                    DummyCredentials.tokenCredential("token-credentials"));
+            session.publish();
+
+            String proxied = rewritten.getClusters().get(0).getCluster().getServer();
+            String token = rewritten.getUsers().get(0).getUser().getToken();
+            assertEquals(200, get(proxied + "/api/v1/namespaces/default/pods", token).statusCode());
+            // Produced by the credentials rather than the token written when the block started
+            assertEquals("Bearer faketoken:" + DummyCredentials.USERNAME + ":" + DummyCredentials.PASSWORD,
+                    authorization);
+        } finally {
+            ApiProxySession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testUnsupportedUsersAreNotProxied() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ApiProxySession session = ApiProxySession.start(workspace);
+        try {
+            Config config = config(serverUrl());
+            config.getUsers().get(0).getUser().setTokenFile("/var/run/secrets/token");
+            assertSame(config, session.rewrite(config));
+        } finally {
+            ApiProxySession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testOtherContextsAreRemoved() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ApiProxySession session = ApiProxySession.start(workspace);
+        try {
+            Config config = new ConfigBuilder(config(serverUrl()))
+                    .addNewCluster().withName("other").withNewCluster().withServer("https://other:6443").endCluster()
+                    .endCluster()
+                    .addNewUser().withName("other").withNewUser().withToken("other-token").endUser().endUser()
+                    .addNewContext().withName("other").withNewContext().withCluster("other").withUser("other")
+                    .endContext().endContext()
+                    .build();
+            Config rewritten = session.rewrite(config);
+
+            assertEquals(1, rewritten.getContexts().size());
+            assertEquals("k8s", rewritten.getContexts().get(0).getName());
+            assertEquals(1, rewritten.getClusters().size());
+            assertEquals(1, rewritten.getUsers().size());
+            assertNotEquals("other-token", rewritten.getUsers().get(0).getUser().getToken());
+            // Left untouched
+            assertEquals(2, config.getUsers().size());
+            assertEquals(serverUrl(), config.getClusters().get(0).getCluster().getServer());
+        } finally {
+            ApiProxySession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testUpgradeRequestsAreRejected() throws Exception {
+        FilePath workspace = new FilePath(r.jenkins.getRootDir());
+        ApiProxySession session = ApiProxySession.start(workspace);
+        try {
+            Config rewritten = session.rewrite(config(serverUrl()));
+            session.publish();
+            URI proxied = URI.create(rewritten.getClusters().get(0).getCluster().getServer());
+            String token = rewritten.getUsers().get(0).getUser().getToken();
+
+            // The HTTP client of the JDK does not send Upgrade headers. HTTP/1.0, so that the connection is closed
+            try (Socket socket = new Socket(proxied.getHost(), proxied.getPort())) {
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(("POST " + proxied.getPath()
+                        + "/api/v1/namespaces/default/pods/p/exec?command=ls HTTP/1.0\r\n"
+                        + "Host: " + proxied.getHost() + "\r\n"
+                        + "Authorization: Bearer " + token + "\r\n"
+                        + "Connection: Upgrade\r\n"
+                        + "Upgrade: SPDY/3.1\r\n"
+                        + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(response.startsWith("HTTP/1.1 400 ") || response.startsWith("HTTP/1.0 400 "), response);
+                assertTrue(response.contains("\"kind\":\"Status\""), response);
+                assertTrue(response.contains(ApiCachingProxy.UPGRADE_NOT_SUPPORTED), response);
+            }
+            assertEquals(0, calls("/api/v1/namespaces/default/pods/p/exec"));
+        } finally {
+            ApiProxySession.stop(workspace, session.getId());
+        }
+    }
+
+    @Test
+    public void testStepGoesThroughTheProxy() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.usernamePasswordCredential("test-credentials"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStepGoesThroughTheProxy");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: '" + serverUrl()
+                + "', apiProxy: true]) {\n"
+                + "    echo readFile(env.KUBECONFIG)\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains("server: \"http://127.0.0.1:", b);
+        r.assertLogNotContains(DummyCredentials.PASSWORD, b);
+        r.assertLogContains("[kubernetes-cli] kubectl configuration cleaned up", b);
+    }
+}
@@ -0,0 +1,152 @@
+package org.jenkinsci.plugins.kubernetes.cli.tool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+
+import org.jenkinsci.plugins.kubernetes.cli.helpers.DummyCredentials;
+import org.jenkinsci.plugins.kubernetes.cli.helpers.JenkinsRuleExtension;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+
+@ExtendWith(JenkinsRuleExtension.class)
+public class KubectlInstallerTest {
+    public final JenkinsRule r = new JenkinsRule();
+
+    @TempDir
+    public File mirror;
+
+    private String binary;
+
+    @BeforeEach
+    public void createMirror() throws Exception {
+        binary = "windows".equals(KubectlCache.os()) ? "kubectl.exe" : "kubectl";
+        File version = new File(mirror, "v1.0.0");
+        version.mkdirs();
+        Files.write(new File(version, binary).toPath(), "fake kubectl".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private KubectlInstaller installer(String path) {
+        KubectlInstaller installer = new KubectlInstaller("v1.0.0");
+        installer.setUrl(mirror.toURI() + path);
+        return installer;
+    }
+
+    private FilePath cache() {
+        return r.jenkins.getRootPath().child("tools").child(KubectlCache.DIRECTORY);
+    }
+
+    @Test
+    public void testVersionIsDownloadedOnce() throws Exception {
+        KubectlInstaller installer = installer("${version}/kubectl${ext}");
+        FilePath home = installer.performInstallation(null, r.jenkins, TaskListener.NULL);
+        assertEquals("fake kubectl", home.child(binary).readToString());
+
+        // Not downloaded again
+        Files.write(new File(mirror, "v1.0.0/" + binary).toPath(), "updated".getBytes(StandardCharsets.UTF_8));
+        FilePath again = installer.performInstallation(null, r.jenkins, TaskListener.NULL);
+        assertEquals(home, again);
+        assertEquals("fake kubectl", again.child(binary).readToString());
+    }
+
+    @Test
+    public void testConcurrentInstallations() throws Exception {
+        KubectlInstaller installer = installer("${version}/kubectl${ext}");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FilePath>> installs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                installs.add(executor.submit(() -> installer.performInstallation(null, r.jenkins, TaskListener.NULL)));
+            }
+            Set<FilePath> homes = new HashSet<>();
+            for (Future<FilePath> install : installs) {
+                homes.add(install.get());
+            }
+            assertEquals(1, homes.size());
+        } finally {
+            executor.shutdownNow();
+        }
+        // No download left behind
+        assertEquals(Collections.emptyList(), cache().list("download*/**"));
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        KubectlInstaller installer = installer("${version}/kubectl${ext}");
+        installer.setSha256("0000000000000000000000000000000000000000000000000000000000000000");
+
+        AbortException e = assertThrows(AbortException.class,
+                () -> installer.performInstallation(null, r.jenkins, TaskListener.NULL));
+        assertTrue(e.getMessage().startsWith("[kubernetes-cli] checksum mismatch"));
+    }
+
+    @Test
+    public void testArchive() throws Exception {
+        new FilePath(mirror).child("v1.0.0").zip(new FilePath(new File(mirror, "kubectl.zip")));
+
+        FilePath home = installer("kubectl.zip").performInstallation(null, r.jenkins, TaskListener.NULL);
+        assertEquals("fake kubectl", home.child(binary).readToString());
+    }
+
+    @Test
+    public void testStepAddsKubectlToPath() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        r.jenkins.getDescriptorByType(KubectlInstallation.DescriptorImpl.class).setInstallations(
+                new KubectlInstallation("kubectl", null, Collections.singletonList(new InstallSourceProperty(
+                        Collections.singletonList(installer("${version}/kubectl${ext}"))))));
+
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testStepAddsKubectlToPath");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443']) {\n"
+                + "    echo \"PATH=${env.PATH}\"\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertSuccess(p);
+
+        r.assertLogContains(KubectlCache.DIRECTORY, b);
+    }
+
+    @Test
+    public void testUnknownInstallation() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                DummyCredentials.secretCredential("test-credentials"));
+        WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "testUnknownInstallation");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  withKubeConfig([credentialsId: 'test-credentials', serverUrl: 'https://localhost:6443',"
+                + " kubectlTool: 'missing']) {\n"
+                + "    echo 'body started'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+
+        r.assertLogContains("[kubernetes-cli] no kubectl installation named 'missing'", b);
+    }
+}